@@ -15,6 +15,7 @@ import java.util.HashMap;
  * <LI>Third party ad events (client side hand-off for third party SDKs)
  * <LI>Feature support decisions (SMS, phone, etc.)
  * <LI>Log message events
+ * <LI>Viewable impressions
  * </UL>
  */
 final public class MASTAdDelegate {
@@ -24,6 +25,7 @@ final public class MASTAdDelegate {
 	private ThirdPartyEventHandler thirdPartyEventHandler = null;
 	private FeatureSupportHandler featureSupportHandler = null;
 	private LogEventHandler logEventHandler = null;
+	private ViewabilityEventHandler viewabilityEventHandler = null;
 
 	/**
 	 * Set handler for ad download events.
@@ -120,6 +122,25 @@ final public class MASTAdDelegate {
 		return logEventHandler;
 	}
 
+	/**
+	 * Set handler for viewable impressions.
+	 * 
+	 * @param handler
+	 *            Object implementing the ViewabilityEventHandler interface.
+	 * @see ViewabilityEventHandler
+	 */
+	synchronized public void setViewabilityEventHandler(
+			ViewabilityEventHandler handler) {
+		viewabilityEventHandler = handler;
+	}
+
+	/**
+	 * Get reference to registered viewability event handler.
+	 */
+	synchronized public ViewabilityEventHandler getViewabilityEventHandler() {
+		return viewabilityEventHandler;
+	}
+
 	/**
 	 * Setup handler for custom device feature support handler.
 	 * 
@@ -419,6 +440,20 @@ final public class MASTAdDelegate {
 		public boolean onLogEvent(int eventType, String message);
 	}
 
+	/**
+	 * The interface for viewable impressions. An ad counts as viewable once at
+	 * least half of it was on screen for one second (IAB definition).
+	 */
+	public interface ViewabilityEventHandler {
+		/**
+		 * This event is fired once per ad when it became viewable.
+		 * 
+		 * @param sender
+		 *            The ad view from which the event originates.
+		 */
+		public void onViewableImpression(MASTAdView sender);
+	}
+
 	/**
 	 * Interface allowing application developers to control which device
 	 * features are exposed to rich media ads. By default the SDK considers
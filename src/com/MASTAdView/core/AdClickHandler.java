@@ -2,6 +2,7 @@ package com.MASTAdView.core;
 
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.Future;
 
 import org.ormma.view.Browser;
 
@@ -12,12 +13,14 @@ import android.view.View;
 
 import com.MASTAdView.MASTAdLog;
 
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+
 public class AdClickHandler implements View.OnClickListener {
 	final private AdViewContainer parentContainer;
 	final private MASTAdLog adLog;
 	final private AdData adData;
 
-	private OpenUrlThread openUrlThread = null;
+	private Future<?> openUrlTask = null;
 
 	public AdClickHandler(AdViewContainer parent) {
 		parentContainer = parent;
@@ -42,20 +45,18 @@ public class AdClickHandler implements View.OnClickListener {
 		if (url == null)
 			return;
 
-		if ((openUrlThread == null)
-				|| (openUrlThread.getState().equals(Thread.State.TERMINATED))) {
-			openUrlThread = new OpenUrlThread(parentContainer.getContext(), url);
-			openUrlThread.start();
-		} else if (openUrlThread.getState().equals(Thread.State.NEW)) {
-			openUrlThread.start();
+		if ((openUrlTask == null) || openUrlTask.isDone()) {
+			// user initiated, so run with adserver request priority
+			openUrlTask = SdkExecutor.execute(SdkExecutor.Lane.AD_REQUEST,
+					new OpenUrlTask(parentContainer.getContext(), url));
 		}
 	}
 
-	private class OpenUrlThread extends Thread {
+	private class OpenUrlTask implements Runnable {
 		Context context;
 		String url;
 
-		public OpenUrlThread(Context context, String url) {
+		public OpenUrlTask(Context context, String url) {
 			this.context = context;
 			this.url = url;
 		}
@@ -4,21 +4,24 @@
 package com.MASTAdView.core;
 
 import java.io.InputStream;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
-import org.apache.http.StatusLine;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
 import com.MASTAdView.MASTAdConstants;
 import com.MASTAdView.MASTAdLog;
 
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+import de.guj.ems.mobile.sdk.util.SdkHttpClient;
+import de.guj.ems.mobile.sdk.util.SdkImageLoader;
+import de.guj.ems.mobile.sdk.util.SdkUtil;
+
 final public class AdData {
 	// recognized ad type names
 	public static final String typeNameImage = "image";
@@ -124,19 +127,21 @@ final public class AdData {
 	public static InputStream fetchUrl(String fromUrl, String userAgent) {
 		try {
 			// System.out.println("Fetcing URL: " + fromUrl);
-			HttpClient httpclient = new DefaultHttpClient();
-			HttpGet request = new HttpGet(fromUrl);
+			Map<String, String> headers = null;
 
 			// Always include our user agent header, if needed
 			if (userAgent != null) {
-				request.setHeader("User-Agent", userAgent);
+				headers = new HashMap<String, String>();
+				headers.put(SdkHttpClient.USER_AGENT_HEADER_NAME, userAgent);
 			}
 
-			HttpResponse response = httpclient.execute(request);
-			StatusLine statusLine = response.getStatusLine();
-			if (statusLine.getStatusCode() == 200) {
-				return response.getEntity().getContent();
+			SdkHttpClient.Response response = SdkHttpClient.get(fromUrl,
+					headers);
+			if (response.getStatusCode() == 200) {
+				// closing the stream releases the pooled connection
+				return response.getInputStream();
 			}
+			response.close();
 		} catch (Exception e) {
 			// System.out.println("Fetcher: generic exception: " +
 			// e.getMessage());
@@ -170,17 +175,32 @@ final public class AdData {
 			return;
 		}
 
-		Thread thread = new Thread() {
+		SdkExecutor.execute(SdkExecutor.Lane.TRACKER, new Runnable() {
 			@Override
 			public void run() {
 				sendImpressionOnThread(url, userAgent);
 			}
-		};
-		thread.setName("[AdData] sendImpression");
-		thread.start();
+		});
 	}
 
 	public static Bitmap fetchImage(String url) {
+		Context c = SdkUtil.getContext();
+		if (c != null) {
+			// cached and downsampled to the screen size
+			try {
+				SdkImageLoader loader = SdkImageLoader.getInstance(c);
+				Bitmap image = loader.getBitmap(url, SdkUtil.getScreenWidth(),
+						SdkUtil.getScreenHeight());
+				loader.detach(image);
+				return image;
+			} catch (Exception e) {
+				MASTAdLog logger = new MASTAdLog(null);
+				logger.log(MASTAdLog.LOG_LEVEL_ERROR,
+						"AdData.fetchImage exception", e.getMessage());
+				return null;
+			}
+		}
+
 		InputStream is = fetchUrl(url);
 
 		if (is != null) {
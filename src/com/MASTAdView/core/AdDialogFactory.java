@@ -13,6 +13,7 @@ import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.RelativeLayout;
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
 
 final public class AdDialogFactory {
 	final private Context context;
@@ -144,21 +145,17 @@ final public class AdDialogFactory {
 					&& (options.showCloseDelay > 0)) {
 				if (closeButton != null) {
 					closeButton.setVisibility(View.INVISIBLE);
-					Thread closeThread = new Thread() {
-						public void run() {
-							try {
-								Thread.sleep(options.showCloseDelay * 1000);
-							} catch (Exception e) {
-							}
-							handler.post(new Runnable() {
+					SdkExecutor.schedule(SdkExecutor.Lane.TIMER,
+							new Runnable() {
 								public void run() {
-									closeButton.setVisibility(View.VISIBLE);
+									handler.post(new Runnable() {
+										public void run() {
+											closeButton
+													.setVisibility(View.VISIBLE);
+										}
+									});
 								}
-							});
-						}
-					};
-					closeThread.setName("[AdDialogFactory] showCloseDelay");
-					closeThread.start();
+							}, options.showCloseDelay * 1000);
 				}
 			} else {
 				if (closeButton != null) {
@@ -187,21 +184,15 @@ final public class AdDialogFactory {
 
 		if ((options != null) && (options.autoCloseDelay != null)
 				&& (options.autoCloseDelay > 0)) {
-			Thread closeThread = new Thread() {
+			SdkExecutor.schedule(SdkExecutor.Lane.TIMER, new Runnable() {
 				public void run() {
-					try {
-						Thread.sleep(options.autoCloseDelay * 1000);
-					} catch (Exception e) {
-					}
 					handler.post(new Runnable() {
 						public void run() {
 							closeButton.performClick(); // or dialog.dismiss?
 						}
 					});
 				}
-			};
-			closeThread.setName("[AdDialogFactory] autoCloseDelay");
-			closeThread.start();
+			}, options.autoCloseDelay * 1000);
 		}
 
 		return dialog;
@@ -3,23 +3,21 @@
 //
 package com.MASTAdView.core;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import android.content.Context;
 
 import com.MASTAdView.MASTAdConstants;
 import com.MASTAdView.MASTAdLog;
 
+import de.guj.ems.mobile.sdk.util.RefreshScheduler;
+
+// Keeps the reload period of an ad view; the actual scheduling is done by the
+// sdk wide RefreshScheduler instead of a Timer thread per view.
 final public class AdReloadTimer {
 	final private AdViewContainer adContainer;
 	final private MASTAdLog adLog;
 
 	private int adReloadPeriod = MASTAdConstants.AD_RELOAD_PERIOD;
 
-	private TimerTask reloadTask;
-	private Timer reloadTimer;
-
 	public AdReloadTimer(Context context, AdViewContainer container,
 			MASTAdLog logger) {
 		adContainer = container;
@@ -39,65 +37,36 @@ final public class AdReloadTimer {
 	}
 
 	synchronized public void startTimer() {
-		try {
-			if (reloadTimer == null) {
-				reloadTimer = new Timer();
-			}
-
-			cancelTask(); // cancel existing task, if any...
-			TimerTask newReloadTask = new TimerTask() {
-				@Override
-				public void run() {
-					adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer",
-							"refresh from timer task");
-					adContainer.StartLoadContent(); // trigger reload of
-													// existing site/zone
-				}
-			};
-
-			if (adReloadPeriod > 0) {
-				adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer - start: ",
-						String.valueOf(adReloadPeriod / 1000));
-				reloadTimer.schedule(newReloadTask, adReloadPeriod);
-			} else if (adReloadPeriod < 0) {
-				reloadTimer.schedule(newReloadTask,
-						MASTAdConstants.AD_RELOAD_PERIOD);
-				adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer",
-						String.valueOf(MASTAdConstants.AD_RELOAD_PERIOD / 1000)
-								+ " default");
-			} else {
-				adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer", "stopped");
-			}
+		RefreshScheduler.getInstance().start(adContainer, getPeriod());
+	}
 
-			reloadTask = newReloadTask;
-		} catch (Exception e) {
-			adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer",
-					e.getMessage());
-		}
+	// Start timer after an empty or failed response, backing off on repeated
+	// failures
+	synchronized public void startBackoffTimer() {
+		RefreshScheduler.getInstance().backoff(adContainer, getPeriod());
 	}
 
 	synchronized public void stopTimer(boolean remove) {
-		if (reloadTimer != null) {
-			try {
-				adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer",
-						"timer stopped");
-				reloadTimer.cancel();
-				if (remove) {
-					reloadTimer = null;
-				}
-			} catch (Exception e) {
-				adLog.log(MASTAdLog.LOG_LEVEL_ERROR, "AdReloadTimer",
-						e.getMessage());
-			}
-		}
+		adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer", "timer stopped");
+		RefreshScheduler.getInstance().stop(adContainer);
 	}
 
 	synchronized public void cancelTask() {
-		if (reloadTask != null) {
+		RefreshScheduler.getInstance().stop(adContainer);
+	}
+
+	private int getPeriod() {
+		if (adReloadPeriod > 0) {
+			adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer - start: ",
+					String.valueOf(adReloadPeriod / 1000));
+			return adReloadPeriod;
+		} else if (adReloadPeriod < 0) {
 			adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer",
-					"timer task cancelled");
-			reloadTask.cancel();
-			reloadTask = null;
+					String.valueOf(MASTAdConstants.AD_RELOAD_PERIOD / 1000)
+							+ " default");
+			return MASTAdConstants.AD_RELOAD_PERIOD;
 		}
+		adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer", "stopped");
+		return 0;
 	}
 }
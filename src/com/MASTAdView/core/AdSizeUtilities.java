@@ -3,12 +3,6 @@
 //
 package com.MASTAdView.core;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
-
 import android.app.Activity;
 import android.app.Dialog;
 import android.content.Context;
@@ -28,6 +22,10 @@ import com.MASTAdView.MASTAdLog;
 import com.MASTAdView.MASTAdView;
 import com.MASTAdView.core.AdDialogFactory.DialogOptions;
 
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+import de.guj.ems.mobile.sdk.util.SdkHttpClient;
+import de.guj.ems.mobile.sdk.util.SdkResponseReader;
+
 final public class AdSizeUtilities {
 	final private int CloseControlSize = 50;
 
@@ -77,14 +75,13 @@ final public class AdSizeUtilities {
 		StringBuffer responseValue = new StringBuffer();
 
 		try {
-			DefaultHttpClient client = new DefaultHttpClient();
-			HttpGet get = new HttpGet(url);
-			get.addHeader("Connection", "close");
-
-			HttpResponse response = client.execute(get);
-			if (response.getStatusLine().getStatusCode() == 200) {
-				HttpEntity entity = response.getEntity();
-				responseValue.append(EntityUtils.toString(entity, "UTF-8"));
+			SdkHttpClient.Response response = SdkHttpClient.get(url);
+			try {
+				if (response.getStatusCode() == 200) {
+					responseValue.append(SdkResponseReader.read(response));
+				}
+			} finally {
+				response.close();
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -108,19 +105,13 @@ final public class AdSizeUtilities {
 	}
 
 	// Display URL in a (non-MRAID) web view after fetching content using
-	// background thread
+	// background thread (the click handler resolves the url on the sdk
+	// executor)
 	synchronized public String openInBackgroundThread(
 			final AdDialogFactory.DialogOptions options, final String url) {
 		// final StringBuffer responseValue = new StringBuffer();
 
-		Thread fetchUrl = new Thread() {
-			public void run() {
-				adClickHandler.openUrlForBrowsing(parentContainer.getContext(),
-						url);
-			}
-		};
-		fetchUrl.setName("[AdSizeUtilities] openInBackgroundThread");
-		fetchUrl.start();
+		adClickHandler.openUrlForBrowsing(parentContainer.getContext(), url);
 
 		return null;
 	}
@@ -292,7 +283,7 @@ final public class AdSizeUtilities {
 
 		final StringBuffer responseValue = new StringBuffer();
 
-		Thread fetchUrl = new Thread() {
+		SdkExecutor.execute(SdkExecutor.Lane.ASSET, new Runnable() {
 			public void run() {
 				responseValue.append(fetchUrl(url));
 				if (responseValue.length() > 0) {
@@ -342,9 +333,7 @@ final public class AdSizeUtilities {
 					});
 				}
 			}
-		};
-		fetchUrl.setName("[AdSizeUtilities] expandInBackgroundThread");
-		fetchUrl.start();
+		});
 
 		return null;
 	}
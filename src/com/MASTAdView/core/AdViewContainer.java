@@ -16,7 +16,6 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
@@ -44,8 +43,13 @@ import com.MASTAdView.MASTAdLog;
 import com.MASTAdView.MASTAdRequest;
 import com.MASTAdView.MASTAdView;
 
+import de.guj.ems.mobile.sdk.util.BridgeScripts;
+import de.guj.ems.mobile.sdk.util.RefreshScheduler;
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+import de.guj.ems.mobile.sdk.util.ViewabilityTracker;
+
 public class AdViewContainer extends RelativeLayout implements
-		ContentManager.ContentConsumer {
+		ContentManager.ContentConsumer, RefreshScheduler.Refreshable {
 	private Context context;
 
 	private TextView adTextView;
@@ -225,20 +229,30 @@ public class AdViewContainer extends RelativeLayout implements
 
 		adDelegate = new MASTAdDelegate();
 		adReloadTimer = new AdReloadTimer(context, this, adLog);
-
-		// Set a global scroll listener which should be called when anything in
-		// the view tree scrolls;
-		// when this is calld, check the visibility of the ad view and update
-		// the viewable property appropriately.
-		getViewTreeObserver().addOnScrollChangedListener(
-				new ViewTreeObserver.OnScrollChangedListener() {
-					public void onScrollChanged() {
-						// System.out.println("!!! onScrollChanged called");
-						setViewable(adWebView);
-					}
-				});
 	}
 
+	// The shared tracker samples the visibility of the ad view at a bounded
+	// rate and only reports changes of the viewable property. It references
+	// the listener weakly, the view is registered while attached.
+	private final ViewabilityTracker.Listener viewabilityListener = new ViewabilityTracker.Listener() {
+		public void onViewableChange(View view, boolean viewable) {
+			if (adWebView != null) {
+				adWebView.getMraidInterface().setViewable(viewable);
+			}
+			// refresh is paused while the ad is not viewable
+			RefreshScheduler.getInstance().setViewable(AdViewContainer.this,
+					viewable);
+		}
+
+		public void onViewableImpression(View view) {
+			MASTAdDelegate.ViewabilityEventHandler handler = adDelegate != null ? adDelegate
+					.getViewabilityEventHandler() : null;
+			if (handler != null) {
+				handler.onViewableImpression((MASTAdView) AdViewContainer.this);
+			}
+		}
+	};
+
 	public void removeContent() {
 		// If interstitial, resized or expanded ad open, close
 		close(null); // XXX
@@ -671,6 +685,13 @@ public class AdViewContainer extends RelativeLayout implements
 	// Integration with ad-fetching/parsing
 	//
 
+	// invoked by the refresh scheduler when the reload period elapsed
+	public void refresh() {
+		adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdReloadTimer",
+				"refresh from scheduler");
+		StartLoadContent(); // trigger reload of existing site/zone
+	}
+
 	// start loading an ad from server
 	public void StartLoadContent() {
 		adReloadTimer.cancelTask();
@@ -775,7 +796,7 @@ public class AdViewContainer extends RelativeLayout implements
 			}
 		}
 
-		adReloadTimer.startTimer();
+		adReloadTimer.startBackoffTimer();
 
 		// Show previous ad?
 		if (lastResponse == null) {
@@ -886,12 +907,13 @@ public class AdViewContainer extends RelativeLayout implements
 		}
 	}
 
-	private static String mScriptPath = null;
+	private static String mScriptTag = null;
 
 	private synchronized void setScriptPath() {
-		if (mScriptPath == null) {
-			mScriptPath = FileUtils.copyTextFromJarIntoAssetDir(context,
-					"/js/mraid.js", "/js/mraid.js");
+		if (mScriptTag == null) {
+			// extracted once per sdk version, injected inline
+			mScriptTag = BridgeScripts.getInstance(context).getInlineTag(
+					BridgeScripts.MRAID);
 		}
 	}
 
@@ -901,9 +923,7 @@ public class AdViewContainer extends RelativeLayout implements
 
 		// Insert our javascript bridge library; this is always required
 		data.append("<style>*{margin:0;padding:0}</style>");
-		data.append("<script src=\"file://");
-		data.append(mScriptPath);
-		data.append("\" type=\"text/javascript\"></script>");
+		data.append(mScriptTag);
 		data.append(getInjectionHeaderCode());
 		data.append("</head><body>");
 
@@ -1054,7 +1074,7 @@ public class AdViewContainer extends RelativeLayout implements
 						MraidInterface.STATES.HIDDEN);
 
 				// Notify ad that viewable state has changed
-				adWebView.getMraidInterface().setViewable(false);
+				ViewabilityTracker.getInstance().update();
 			} else {
 				adLog.log(MASTAdLog.LOG_LEVEL_DEBUG, "AdViewContainer",
 						"Attempt to close interstitial with state not default, ignored");
@@ -1066,19 +1086,6 @@ public class AdViewContainer extends RelativeLayout implements
 		}
 	}
 
-	// ZZZ Can we invoke this when view scrolls in/out of screen (viewport)???
-	private void setViewable(AdWebView webView) {
-		Rect scrollBounds = new Rect();
-		this.getHitRect(scrollBounds);
-		if (webView.getLocalVisibleRect(scrollBounds)) {
-			// View is within the visible window
-			adWebView.getMraidInterface().setViewable(true);
-		} else {
-			// View is not within the visible window
-			adWebView.getMraidInterface().setViewable(true);
-		}
-	}
-
 	// Hide an interstitial ad view
 	public String hide(Bundle data) {
 
@@ -1441,9 +1448,7 @@ public class AdViewContainer extends RelativeLayout implements
 		}
 
 		// Notify ad that viewable state has changed
-		adWebView.getMraidInterface().setViewable(true);
-		// setViewable(adWebView); // if only there was a reliable way to get
-		// notified if we're scrolling
+		ViewabilityTracker.getInstance().register(this, viewabilityListener);
 	}
 
 	protected void onDetachedFromWindow() {
@@ -1483,7 +1488,13 @@ public class AdViewContainer extends RelativeLayout implements
 		}
 
 		// Notify ad that viewable state has changed
-		adWebView.getMraidInterface().setViewable(false);
+		ViewabilityTracker.getInstance().unregister(this);
+	}
+
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		super.onWindowVisibilityChanged(visibility);
+		ViewabilityTracker.getInstance().update();
 	}
 
 	synchronized public void setLocationDetection(boolean detect,
@@ -1568,19 +1579,11 @@ public class AdViewContainer extends RelativeLayout implements
 	}
 
 	private void showCloseButtonWorker() {
-		Thread closeThread = new Thread() {
+		final int visible = isShowCloseOnBanner ? View.VISIBLE : View.GONE;
+		long delay = isShowCloseOnBanner ? showCloseInterstitialTime * 1000
+				: 0;
+		SdkExecutor.schedule(SdkExecutor.Lane.TIMER, new Runnable() {
 			public void run() {
-				final int visible;
-				if (isShowCloseOnBanner) {
-					visible = View.VISIBLE;
-					try {
-						Thread.sleep(showCloseInterstitialTime * 1000);
-					} catch (Exception e) {
-					}
-				} else {
-					visible = View.GONE;
-				}
-
 				handler.post(new Runnable() {
 					public void run() {
 						// Create close button for banner
@@ -1594,9 +1597,7 @@ public class AdViewContainer extends RelativeLayout implements
 					}
 				});
 			}
-		};
-		closeThread.setName("[AdViewContainer] showCloseButton");
-		closeThread.start();
+		}, delay);
 	}
 
 	public void showCloseButton(boolean flag, int afterDelay) {
@@ -23,6 +23,8 @@ import com.MASTAdView.MASTAdDelegate;
 import com.MASTAdView.MASTAdLog;
 import com.MASTAdView.MASTAdView;
 
+import de.guj.ems.mobile.sdk.util.ViewabilityTracker;
+
 @SuppressLint("SetJavaScriptEnabled")
 public class AdWebView extends WebView {
 	final private MASTAdLog adLog;
@@ -382,6 +384,10 @@ public class AdWebView extends WebView {
 				}
 			}
 
+			// the new page's bridge starts out not viewable, the tracker
+			// reports the actual state with its next sample
+			ViewabilityTracker.getInstance().reset(adViewContainer);
+
 			if (supportMraid) {
 				// setDefaultPosition
 				try {
@@ -418,8 +424,6 @@ public class AdWebView extends WebView {
 							"Error setting default position information.");
 				}
 
-				mraidInterface.setViewable(getVisibility() == View.VISIBLE);
-
 				// Tell ad everything is ready, trigger state change from
 				// loading to default
 				mraidInterface.fireReadyEvent();
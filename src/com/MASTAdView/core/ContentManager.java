@@ -3,18 +3,9 @@
 //
 package com.MASTAdView.core;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.HashMap;
-
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.util.ByteArrayBuffer;
+import java.util.Map;
 
 import android.content.Context;
 import android.telephony.TelephonyManager;
@@ -22,6 +13,10 @@ import android.telephony.TelephonyManager;
 import com.MASTAdView.MASTAdConstants;
 import com.MASTAdView.MASTAdLog;
 
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+import de.guj.ems.mobile.sdk.util.SdkHttpClient;
+import de.guj.ems.mobile.sdk.util.SdkResponseReader;
+
 final public class ContentManager {
 	// private static final String INSTALLATION = "INSTALLATION";
 	private volatile String autoDetectParameters = "";
@@ -61,14 +56,12 @@ final public class ContentManager {
 	}
 
 	private void runInitDefaultParameters() {
-		Thread thread = new Thread() {
+		SdkExecutor.execute(SdkExecutor.Lane.AD_REQUEST, new Runnable() {
 			@Override
 			public void run() {
 				initDefaultParameters();
 			}
-		};
-		thread.setName("[ContentManager] InitDefaultParameters");
-		thread.start();
+		});
 	}
 
 	public String getAutoDetectParameters() {
@@ -91,16 +84,15 @@ final public class ContentManager {
 
 		senderParameters.put(consumer, parameters);
 
-		ContentThread cTh = new ContentThread(parameters);
+		ContentTask cTh = new ContentTask(parameters);
 		parameters.cTh = cTh;
-		cTh.setName("[ContentManager] LoadContent");
-		cTh.start();
+		SdkExecutor.execute(SdkExecutor.Lane.AD_REQUEST, cTh);
 	}
 
 	public void stopLoadContent(ContentConsumer consumer) {
 		if (senderParameters.containsKey(consumer)) {
 			senderParameters.get(consumer).sender = null;
-			ContentThread cTh = senderParameters.get(consumer).cTh;
+			ContentTask cTh = senderParameters.get(consumer).cTh;
 			if (cTh != null) {
 				try {
 					cTh.cancel();
@@ -117,14 +109,14 @@ final public class ContentManager {
 	final private class ContentParameters {
 		public String url;
 		public ContentConsumer sender;
-		ContentThread cTh;
+		ContentTask cTh;
 	};
 
-	final private class ContentThread extends Thread {
+	final private class ContentTask implements Runnable {
 		final ContentParameters parameters;
-		boolean isCanceled = false;
+		volatile boolean isCanceled = false;
 
-		public ContentThread(ContentParameters parameters) {
+		public ContentTask(ContentParameters parameters) {
 			this.parameters = parameters;
 		}
 
@@ -148,39 +140,31 @@ final public class ContentManager {
 				 * null) { parameters.sender.setResult(ad); return; } } }
 				 */
 
-				System.setProperty("http.keepAlive", "false");
-				DefaultHttpClient client = new DefaultHttpClient();
-				HttpGet get = new HttpGet(parameters.url);
-				get.addHeader("User-Agent", userAgent);
-				get.addHeader("Connection", "close");
-
-				HttpConnectionParams.setConnectionTimeout(get.getParams(),
-						MASTAdConstants.AD_RELOAD_PERIOD);
-				HttpConnectionParams.setSoTimeout(get.getParams(),
+				Map<String, String> headers = new HashMap<String, String>();
+				headers.put(SdkHttpClient.USER_AGENT_HEADER_NAME, userAgent);
+				SdkHttpClient.Response response = SdkHttpClient.get(
+						parameters.url, headers,
+						SdkHttpClient.CONNECT_TIMEOUT,
 						MASTAdConstants.DEFAULT_REQUEST_TIMEOUT);
-				HttpResponse response = client.execute(get);
 
-				if (response.getStatusLine().getStatusCode() != 200) {
+				if (response.getStatusCode() != 200) {
+					response.close();
 					setErrorResult("Response code = "
-							+ String.valueOf(response.getStatusLine()
-									.getStatusCode()));
+							+ String.valueOf(response.getStatusCode()));
 					stopLoadContent(parameters.sender);
 					return;
 				}
 
-				HttpEntity entity = response.getEntity();
-				InputStream inputStream = entity.getContent();
-				BufferedInputStream bufferedInputStream = new BufferedInputStream(
-						inputStream, 1024);
 				String responseValue = "";
 
-				if (!isCanceled) {
-					responseValue = readInputStream(bufferedInputStream);
+				try {
+					if (!isCanceled) {
+						responseValue = SdkResponseReader.read(response);
+					}
+				} finally {
+					response.close();
 				}
 
-				bufferedInputStream.close();
-				inputStream.close();
-
 				AdData ad = parser.parseAdData(responseValue);
 				if (isCanceled) {
 					ad.error = "Canceled";
@@ -191,8 +175,6 @@ final public class ContentManager {
 				if (parameters.sender != null) {
 					parameters.sender.setResult(ad);
 				}
-			} catch (ClientProtocolException e) {
-				setErrorResult(e.toString() + ": " + e.getMessage());
 			} catch (IOException e) {
 				setErrorResult(e.toString() + ": " + e.getMessage());
 			}
@@ -214,18 +196,6 @@ final public class ContentManager {
 		public void cancel() {
 			isCanceled = true;
 		}
-
-		private String readInputStream(BufferedInputStream in)
-				throws IOException {
-			byte[] buffer = new byte[1024];
-			ByteArrayBuffer byteBuffer = new ByteArrayBuffer(1);
-			for (int n; (n = in.read(buffer)) != -1;) {
-				if (isCanceled)
-					return "";
-				byteBuffer.append(buffer, 0, n);
-			}
-			return new String(byteBuffer.buffer(), 0, byteBuffer.length());
-		}
 	}
 
 	/*
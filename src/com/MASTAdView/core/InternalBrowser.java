@@ -18,6 +18,8 @@ import android.webkit.WebViewClient;
 import android.widget.Button;
 import android.widget.LinearLayout;
 
+import de.guj.ems.mobile.sdk.util.WebViewPool;
+
 public class InternalBrowser extends Dialog {
 
 	int ID_MAIN = 1;
@@ -50,7 +52,7 @@ public class InternalBrowser extends Dialog {
 				LayoutParams.FILL_PARENT));
 		mailLayout.setOrientation(LinearLayout.VERTICAL);
 
-		webView = new WebView(context);
+		webView = WebViewPool.getInstance().obtain(context);
 		webView.setId(ID_WEB);
 		webView.setLayoutParams(new LinearLayout.LayoutParams(
 				LayoutParams.FILL_PARENT, LayoutParams.FILL_PARENT, 1f));
@@ -158,6 +160,13 @@ public class InternalBrowser extends Dialog {
 		UpdateButtons();
 	}
 
+	@Override
+	protected void onStop() {
+		super.onStop();
+		WebViewPool.getInstance().release(webView);
+		webView = null;
+	}
+
 	void UpdateButtons() {
 		buttonBack.setEnabled(webView.canGoBack());
 		buttonForward.setEnabled(webView.canGoForward());
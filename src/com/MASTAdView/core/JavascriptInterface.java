@@ -23,6 +23,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Message;
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
 
 // The javascript interface class exposes java methods so that they can be invoked from the javascript layer/ad creative
 final public class JavascriptInterface {
@@ -358,7 +359,7 @@ final public class JavascriptInterface {
 			}
 
 			if (approved) {
-				Thread worker = new Thread() {
+				SdkExecutor.execute(SdkExecutor.Lane.ASSET, new Runnable() {
 					public void run() {
 						try {
 							InputStream is = AdData.fetchUrl(uri);
@@ -408,9 +409,7 @@ final public class JavascriptInterface {
 								"Storing picture failed for: " + uri,
 								"storePicture");
 					}
-				};
-				worker.setName("[JavascriptInterface] storePicture");
-				worker.start();
+				});
 
 				return true;
 			} else {
@@ -224,8 +224,8 @@ final public class MraidInterface {
 	}
 
 	public void setViewable(Boolean isViewable) {
-		String stateName = isViewable.toString();
-		webView.injectJavaScript("mraid.setViewable(\"" + stateName + "\");");
+		// boolean literal, mraid.js compares against true / false
+		webView.injectJavaScript("mraid.setViewable(" + isViewable + ");");
 	}
 
 	synchronized public void setOrientationProperties(List<NameValuePair> list) {
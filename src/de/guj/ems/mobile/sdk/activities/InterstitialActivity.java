@@ -1,8 +1,12 @@
 package de.guj.ems.mobile.sdk.activities;
 
+import java.io.File;
+
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.view.View;
 import android.view.ViewGroup.LayoutParams;
 import android.view.Window;
@@ -37,34 +41,6 @@ import de.guj.ems.mobile.sdk.views.GuJEMSAdView;
  */
 public final class InterstitialActivity extends Activity {
 
-	static class InterstitialThread extends Thread {
-
-		static volatile boolean PAUSED = false;
-
-		static volatile boolean SHOW = true;
-
-		public InterstitialThread(Runnable r, String name) {
-			super(r, name);
-		}
-
-		public void beforeStart() {
-			unpause();
-			SHOW = true;
-		}
-
-		public void beforeStop() {
-			SHOW = false;
-		}
-
-		public void pause() {
-			PAUSED = true;
-		}
-
-		public void unpause() {
-			PAUSED = false;
-		}
-	}
-
 	private final static int CLOSED = 1;
 
 	private final static int FINISHED = 3;
@@ -89,7 +65,66 @@ public final class InterstitialActivity extends Activity {
 
 	private boolean withProgress = false;
 
-	private InterstitialThread updateThread;
+	private final static long TICK_INTERVAL = 100;
+
+	private final Handler handler = new Handler();
+
+	private boolean running = false;
+
+	private boolean paused = false;
+
+	private boolean shown = false;
+
+	private long t0 = -1l;
+
+	private long elapsed = 0;
+
+	/**
+	 * Shows the interstitial once its page has finished loading
+	 */
+	private final Runnable pageCheck = new Runnable() {
+		@Override
+		public void run() {
+			if (!adView.isPageFinished()) {
+				handler.postAtTime(this, SystemClock.uptimeMillis()
+						+ TICK_INTERVAL);
+				return;
+			}
+			root.removeView(spinner);
+			root.addView(adView);
+			shown = true;
+			if (withProgress) {
+				t0 = SystemClock.uptimeMillis();
+				handler.post(progress);
+			} else if (time <= 0) {
+				SdkLog.d(TAG, "Interstitial display without timer.");
+				running = false;
+			}
+		}
+	};
+
+	/**
+	 * Advances the progress bar and closes the interstitial when it is full
+	 */
+	private final Runnable progress = new Runnable() {
+		@Override
+		public void run() {
+			long now = SystemClock.uptimeMillis();
+			int t1 = (int) (elapsed + now - t0);
+			if (progressBar != null) {
+				progressBar.setProgress(t1);
+			}
+			if (t1 >= time) {
+				SdkLog.d(TAG, "Interstitial timer finished. [t1=" + t1 + "]");
+				status = FINISHED;
+				stopControl();
+				leave();
+			} else {
+				handler.postAtTime(this, now
+						+ Math.min(TICK_INTERVAL, time - t1));
+			}
+		}
+	};
 
 	private void createView(Bundle savedInstanceState) {
 		String adData = getIntent().getExtras().getString("data");
@@ -109,7 +144,13 @@ public final class InterstitialActivity extends Activity {
 
 		// (3) configure interstitial adview
 
-		adView.loadData(adData, "text/html", "utf-8");
+		String adFile = getIntent().getExtras().getString("file");
+		if (adFile != null && new File(adFile).exists()) {
+			// preloaded interstitial
+			adView.loadFile(new File(adFile), null);
+		} else {
+			adView.loadData(adData, "text/html", "utf-8");
+		}
 		RelativeLayout.LayoutParams lp = new RelativeLayout.LayoutParams(
 				LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT);
 		lp.addRule(RelativeLayout.BELOW,
@@ -123,23 +164,10 @@ public final class InterstitialActivity extends Activity {
 		b.setOnClickListener(new View.OnClickListener() {
 			@Override
 			public void onClick(View v) {
-				if (updateThread != null && updateThread.isAlive()) {
-					try {
-						updateThread.beforeStop();
-						updateThread.join(100);
-						status = CLOSED;
-					} catch (InterruptedException e) {
-						;
-					}
-				} else {
-					if (target != null) {
-						startActivity(target);
-					} else {
-						SdkLog.d(TAG,
-								"Interstitial without target. Returning to previous view.");
-					}
-					finish();
+				if (stopControl()) {
+					status = CLOSED;
 				}
+				leave();
 			}
 		});
 
@@ -174,9 +202,14 @@ public final class InterstitialActivity extends Activity {
 	protected void onPause() {
 		super.onPause();
 
-		if (updateThread != null && updateThread.isAlive()
-				&& !InterstitialThread.PAUSED) {
-			updateThread.pause();
+		if (running && !paused) {
+			handler.removeCallbacks(pageCheck);
+			handler.removeCallbacks(progress);
+			if (t0 > 0) {
+				elapsed += SystemClock.uptimeMillis() - t0;
+				t0 = -1l;
+			}
+			paused = true;
 		}
 		if (status != CLOSED && status != SUSPENDED) {
 			status = SUSPENDED;
@@ -204,18 +237,17 @@ public final class InterstitialActivity extends Activity {
 						"Interstitial resume from suspended mode without target. Returning to previous view.");
 			}
 			status = FINISHED;
-			if (this.updateThread != null && this.updateThread.isAlive()) {
-				try {
-					updateThread.beforeStop();
-					updateThread.join(100);
-				} catch (InterruptedException e) {
-					;
-				}
-			}
+			stopControl();
 			finish();
-		} else if (updateThread != null && updateThread.isAlive() && status > 0) {
-			SdkLog.d(TAG, "Interstitial resume with paused thread.");
-			updateThread.unpause();
+		} else if (running && paused && status > 0) {
+			SdkLog.d(TAG, "Interstitial resume after pause.");
+			paused = false;
+			if (!shown) {
+				handler.post(pageCheck);
+			} else if (withProgress) {
+				t0 = SystemClock.uptimeMillis();
+				handler.post(progress);
+			}
 		}
 	}
 
@@ -228,76 +260,11 @@ public final class InterstitialActivity extends Activity {
 	protected void onStart() {
 		super.onStart();
 
-		if (status < 0) {
-			SdkLog.d(TAG, "Create and start new control thread.");
-			this.updateThread = new InterstitialThread(new Runnable() {
-
-				private volatile long t0 = -1l;
-
-				private void fetchTime() {
-					t0 = System.currentTimeMillis();
-				}
-
-				@Override
-				public void run() {
-					boolean loaded = false;
-					while (InterstitialThread.SHOW) {
-						if (!loaded && adView.isPageFinished()) {
-
-							if (root == null || root.getHandler() == null) {
-								SdkLog.w(TAG,
-										"Interstitial root view or its handler is null!");
-								Thread.yield();
-								//status = FINISHED;
-							} else {
-								loaded = true;
-								root.getHandler().post(new Runnable() {
-									@Override
-									public void run() {
-										root.removeView(spinner);
-										root.addView(adView);
-										fetchTime();
-									}
-								});
-							}
-						} else if (loaded && !InterstitialThread.PAUSED) {
-							if (withProgress && t0 > 0) {
-								int t1 = (int) (System.currentTimeMillis() - t0);
-								if (progressBar != null) {
-									progressBar.setProgress(t1);
-								}
-								if (t1 >= time) {
-									SdkLog.d(TAG,
-											"Interstitial timer finished. [t0="
-													+ t0 + " ,t1=" + t1 + "]");
-									status = FINISHED;
-									break;
-								}
-							} else if (time <= 0) {
-								SdkLog.d(TAG,
-										"Interstitial display without timer.");
-								return;
-							}
-						} else {
-							Thread.yield();
-						}
-					}
-					SdkLog.d(TAG, "Terminating control thread.");
-					if (target != null) {
-						startActivity(target);
-					} else {
-						SdkLog.d(TAG,
-								"Interstitial without target. Returning to previous view.");
-					}
-					t0 = 0;
-					finish();
-				}
-			}, "Interstitial-[" + target + "]-" + time + "ms-"
-					+ (int) (Math.random() * 1000.0d));
-
-			updateThread.beforeStart();
-			updateThread.start();
-			SdkLog.d(TAG, "Interstitial timer started.");
+		if (status < 0 && !running) {
+			SdkLog.d(TAG, "Starting interstitial control.");
+			running = true;
+			paused = false;
+			handler.post(pageCheck);
 		}
 
 	}
@@ -306,30 +273,46 @@ public final class InterstitialActivity extends Activity {
 	protected void onStop() {
 		super.onStop();
 
-		if (updateThread != null && updateThread.isAlive()
-				&& status != SUSPENDED && !InterstitialThread.PAUSED) {
-			try {
-				updateThread.beforeStop();
-				updateThread.join(100);
-			} catch (InterruptedException e) {
-				;
-			}
+		if (running && status != SUSPENDED && !paused) {
+			stopControl();
+			leave();
 		}
 		if (status == FINISHED || status == CLOSED) {
 			SdkLog.i(TAG, "Finishing interstitial activity.");
 		}
 	}
 
+	/**
+	 * Stop waiting for the page and advancing the progress bar
+	 * 
+	 * @return true if the control was running
+	 */
+	private boolean stopControl() {
+		if (!running) {
+			return false;
+		}
+		running = false;
+		handler.removeCallbacks(pageCheck);
+		handler.removeCallbacks(progress);
+		SdkLog.d(TAG, "Stopped interstitial control.");
+		return true;
+	}
+
+	private void leave() {
+		if (target != null) {
+			startActivity(target);
+		} else {
+			SdkLog.d(TAG,
+					"Interstitial without target. Returning to previous view.");
+		}
+		finish();
+	}
+
 	@Override
 	public void onBackPressed() {
-		if (updateThread != null && updateThread.isAlive()) {
-			try {
-				updateThread.beforeStop();
-				updateThread.join(100);
-				status = CLOSED;
-			} catch (InterruptedException e) {
-				;
-			}
+		if (stopControl()) {
+			status = CLOSED;
+			leave();
 		}
 		super.onBackPressed();
 	}
@@ -1,6 +1,9 @@
 package de.guj.ems.mobile.sdk.activities;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.ormma.view.Browser;
 
@@ -12,6 +15,8 @@ import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.Window;
@@ -21,10 +26,10 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.VideoView;
 import de.guj.ems.mobile.sdk.R;
-import de.guj.ems.mobile.sdk.controllers.IAdResponseHandler;
-import de.guj.ems.mobile.sdk.controllers.adserver.IAdResponse;
 import de.guj.ems.mobile.sdk.util.SdkLog;
 import de.guj.ems.mobile.sdk.util.SdkUtil;
+import de.guj.ems.mobile.sdk.util.VASTMediaCache;
+import de.guj.ems.mobile.sdk.util.VASTWrapperResolver;
 import de.guj.ems.mobile.sdk.util.VASTXmlParser;
 import de.guj.ems.mobile.sdk.util.VASTXmlParser.Tracking;
 
@@ -50,35 +55,7 @@ import de.guj.ems.mobile.sdk.util.VASTXmlParser.Tracking;
  * 
  */
 public final class VideoInterstitialActivity extends Activity implements
-		VASTXmlParser.VASTWrapperListener, IAdResponseHandler {
-
-	static class InterstitialThread extends Thread {
-
-		static volatile boolean PAUSED = false;
-
-		static volatile boolean SHOW = true;
-
-		public InterstitialThread(Runnable r, String name) {
-			super(r, name);
-		}
-
-		public void beforeStart() {
-			unpause();
-			SHOW = true;
-		}
-
-		public void beforeStop() {
-			SHOW = false;
-		}
-
-		public void pause() {
-			PAUSED = true;
-		}
-
-		public void unpause() {
-			PAUSED = false;
-		}
-	}
+		VASTWrapperResolver.VASTResolvedListener {
 
 	private TextView videoText;
 
@@ -98,7 +75,17 @@ public final class VideoInterstitialActivity extends Activity implements
 
 	private VASTXmlParser vastXml;
 
-	private volatile boolean videoReady = false;
+	private Future<VASTXmlParser> wrapperResolution;
+
+	private boolean videoReady = false;
+
+	private boolean videoStarted = false;
+
+	private boolean running = false;
+
+	private boolean paused = false;
+
+	private int quartilesTracked = 0;
 
 	private final static int CLOSED = 1;
 
@@ -118,7 +105,59 @@ public final class VideoInterstitialActivity extends Activity implements
 
 	private Intent target;
 
-	private InterstitialThread updateThread;
+	private final static long TICK_INTERVAL = 250;
+
+	private final static int[] QUARTILE_EVENTS = { Tracking.EVENT_FIRSTQ,
+			Tracking.EVENT_MID, Tracking.EVENT_THIRDQ };
+
+	private final Handler handler = new Handler();
+
+	/**
+	 * Updates the skip countdown until the video may be skipped
+	 */
+	private final Runnable ticker = new Runnable() {
+		@Override
+		public void run() {
+			updatePosition();
+			String text = getResources().getString(R.string.videoRunning);
+			boolean close = true;
+			if (vastXml.getSkipOffset() > 0) {
+				close = (percentPlayed >= vastXml.getSkipOffset());
+				if (!close) {
+					int t = (int) ((vastXml.getSkipOffset() - percentPlayed) / 100.0 * (videoLength / 1000.0));
+					text = getResources().getString(R.string.videoSkip)
+							.replaceAll("#", String.valueOf(t));
+				}
+			}
+			updateView(close, text);
+			if (!close) {
+				handler.postAtTime(this, SystemClock.uptimeMillis()
+						+ TICK_INTERVAL);
+			}
+		}
+	};
+
+	/**
+	 * Fires quartile trackings, scheduled from the video's duration
+	 */
+	private final Runnable quartileTracker = new Runnable() {
+		@Override
+		public void run() {
+			updatePosition();
+			while (quartilesTracked < QUARTILE_EVENTS.length
+					&& percentPlayed >= 25.0 * (quartilesTracked + 1)) {
+				int event = QUARTILE_EVENTS[quartilesTracked++];
+				List<String> tx = vastXml.getTrackingByType(event);
+				SdkLog.i(TAG, "Triggering " + tx.size() + " "
+						+ Tracking.EVENT_MAPPING[event] + " tracking requests");
+				if (tx != null && tx.size() > 0) {
+					String[] txS = new String[tx.size()];
+					SdkUtil.httpRequests(tx.toArray(txS));
+				}
+			}
+			scheduleQuartile();
+		}
+	};
 
 	private void initFromVastXml() {
 
@@ -134,6 +173,9 @@ public final class VideoInterstitialActivity extends Activity implements
 						mediaPlayer.setVolume(muted ? 0.0f : 1.0f, muted ? 0.0f
 								: 1.0f);
 						videoReady = true;
+						if (running && !videoStarted) {
+							startVideo();
+						}
 					}
 				});
 		this.videoView
@@ -141,6 +183,7 @@ public final class VideoInterstitialActivity extends Activity implements
 
 					@Override
 					public void onCompletion(MediaPlayer mp) {
+						stopControl();
 						if (percentPlayed > 0.75) {
 							List<String> tx = vastXml
 									.getTrackingByType(Tracking.EVENT_COMPLETE);
@@ -210,15 +253,27 @@ public final class VideoInterstitialActivity extends Activity implements
 
 		try {
 			// parse VAST xml
-			this.vastXml = new VASTXmlParser(this, this, getIntent()
-					.getExtras().getString("data"));
+			ArrayList<String> wrapped = getIntent().getExtras()
+					.getStringArrayList("wrapped");
+			if (wrapped != null) {
+				// preloaded, wrapped VAST xml has already been fetched
+				this.vastXml = new VASTXmlParser(this, getIntent().getExtras()
+						.getString("data"), wrapped);
+			} else {
+				this.vastXml = new VASTXmlParser(this, null, getIntent()
+						.getExtras().getString("data"));
+				if (this.vastXml.hasWrapper()) {
+					this.wrapperResolution = VASTWrapperResolver.resolve(
+							getApplicationContext(), getIntent().getExtras()
+									.getString("data"), this);
+				}
+			}
 
-			if (!this.vastXml.hasWrapper()) {
+			if (!this.vastXml.hasWrapper() || wrapped != null) {
 
 				SdkLog.i(TAG, "Direct VAST xml response.");
 
-				this.videoView.setVideoURI(Uri.parse(this.vastXml
-						.getMediaFileUrl()));
+				this.videoView.setVideoURI(getVideoUri());
 				List<String> im = this.vastXml.getImpressionTrackerUrl();
 				SdkLog.i(TAG, "Triggering " + im.size()
 						+ " impression tracking requests");
@@ -240,6 +295,20 @@ public final class VideoInterstitialActivity extends Activity implements
 
 	}
 
+	private Uri getVideoUri() {
+		String media = getIntent().getExtras().getString("media");
+		File f = media != null ? new File(media) : null;
+		if (f == null || !f.exists()) {
+			f = VASTMediaCache.getInstance(this).get(
+					this.vastXml.getMediaFiles());
+		}
+		if (f != null) {
+			SdkLog.i(TAG, "Playing buffered media file.");
+			return Uri.fromFile(f);
+		}
+		return Uri.parse(this.vastXml.getMediaFileUrl());
+	}
+
 	private void createView(Bundle savedInstanceState) {
 		boolean muteTest = getIntent().getExtras().getBoolean("unmuted");
 		SdkLog.d(TAG, "Sound settings forced=" + muteTest + ", headset="
@@ -267,23 +336,10 @@ public final class VideoInterstitialActivity extends Activity implements
 					SdkLog.w(TAG, "Could not abandon audio manager focus");
 				}
 
-				if (updateThread != null && updateThread.isAlive()) {
-					try {
-						updateThread.beforeStop();
-						updateThread.join(100);
-						status = CLOSED;
-					} catch (InterruptedException e) {
-						;
-					}
-				} else {
-					if (target != null) {
-						startActivity(target);
-					} else {
-						SdkLog.d(TAG,
-								"Video interstitial without target. Returning to previous view.");
-					}
-					finish();
+				if (stopControl()) {
+					status = CLOSED;
 				}
+				leave();
 			}
 		});
 
@@ -321,14 +377,9 @@ public final class VideoInterstitialActivity extends Activity implements
 
 	@Override
 	public void onBackPressed() {
-		if (updateThread != null && updateThread.isAlive()) {
-			try {
-				updateThread.beforeStop();
-				updateThread.join(100);
-				status = CLOSED;
-			} catch (InterruptedException e) {
-				;
-			}
+		if (stopControl()) {
+			status = CLOSED;
+			leave();
 		}
 		super.onBackPressed();
 	}
@@ -351,8 +402,7 @@ public final class VideoInterstitialActivity extends Activity implements
 	protected void onPause() {
 		super.onPause();
 
-		if (updateThread != null && updateThread.isAlive()
-				&& !InterstitialThread.PAUSED) {
+		if (running && !paused) {
 			if (mediaPlayer != null && (mediaPlayer.isPlaying())) {
 				try {
 					mediaPlayer.pause();
@@ -360,7 +410,9 @@ public final class VideoInterstitialActivity extends Activity implements
 					SdkLog.w(TAG, "MediaPlayer already released.");
 				}
 			}
-			updateThread.pause();
+			handler.removeCallbacks(ticker);
+			handler.removeCallbacks(quartileTracker);
+			paused = true;
 		}
 		if (status != CLOSED && status != SUSPENDED) {
 			status = SUSPENDED;
@@ -402,23 +454,18 @@ public final class VideoInterstitialActivity extends Activity implements
 						"Video interstitial resume from suspended mode without target. Returning to previous view.");
 			}
 			status = FINISHED;
-			if (this.updateThread != null && this.updateThread.isAlive()) {
-				try {
-					updateThread.beforeStop();
-					updateThread.join(100);
-				} catch (InterruptedException e) {
-					;
-				}
-			}
-
+			stopControl();
 			finish();
-		} else if (updateThread != null && updateThread.isAlive() && status > 0) {
-			SdkLog.d(TAG, "Video interstitial resume with paused thread.");
+		} else if (running && paused && status > 0) {
+			SdkLog.d(TAG, "Video interstitial resume after pause.");
+			paused = false;
 			if (mediaPlayer != null) {
 				mediaPlayer.start();
 				SdkLog.d(TAG, "MediaPlayer resumed.");
 			}
-			updateThread.unpause();
+			if (videoStarted) {
+				schedule();
+			}
 		}
 	}
 
@@ -497,238 +544,167 @@ public final class VideoInterstitialActivity extends Activity implements
 	protected void onStart() {
 		super.onStart();
 
-		if (status < 0) {
-			SdkLog.d(TAG, "Create and start new control thread.");
-			this.updateThread = new InterstitialThread(new Runnable() {
-				boolean q1 = false;
-				boolean q2 = false;
-				boolean q3 = false;
-
-				private void videoInit() {
-
-					root.getHandler().post(new Runnable() {
-						@Override
-						public void run() {
-							ImageButton sndButton = (ImageButton) root
-									.findViewById(R.id.emsVidIntSndButton);
-							spinner.setVisibility(View.GONE);
-
-							List<String> tx = vastXml
-									.getTrackingByType(Tracking.EVENT_START);
-							SdkLog.i(TAG, "Triggering " + tx.size()
-									+ " event_start tracking requests");
-							if (tx != null && tx.size() > 0) {
-								String[] txS = new String[tx.size()];
-								SdkUtil.httpRequests(tx.toArray(txS));
-							}
+		if (status < 0 && !running) {
+			SdkLog.d(TAG, "Starting video interstitial control.");
+			running = true;
+			paused = false;
+			if (videoReady && !videoStarted) {
+				startVideo();
+			}
+		}
 
-							if (muted) {
-								List<String> tr = vastXml
-										.getTrackingByType(VASTXmlParser.Tracking.EVENT_MUTE);
-								SdkLog.i(TAG, "Triggering " + tr.size()
-										+ " event_mute tracking requests");
-								if (tr != null && tr.size() > 0) {
-									String[] trS = new String[tr.size()];
-									SdkUtil.httpRequests(tr.toArray(trS));
-								}
-							}
+	}
 
-							videoLength = mediaPlayer.getDuration();
-							videoWidth = mediaPlayer.getVideoWidth();
-							videoHeight = mediaPlayer.getVideoHeight();
-							videoProportion = (float) videoWidth
-									/ (float) videoHeight;
-							adjustVideoView(null);
-
-							if (mediaPlayer != null) {
-								try {
-									((AudioManager) getSystemService(Context.AUDIO_SERVICE))
-											.requestAudioFocus(
-													null,
-													AudioManager.STREAM_MUSIC,
-													AudioManager.AUDIOFOCUS_GAIN);
-								} catch (Exception e) {
-									SdkLog.w(TAG,
-											"Could not request audio manager focus");
-								}
-								mediaPlayer.start();
-								SdkLog.d(TAG, "MediaPlayer started.");
-							}
-							sndButton
-									.setImageResource(muted ? R.drawable.sound_button_off
-											: R.drawable.sound_button_on);
-							sndButton.setVisibility(View.VISIBLE);
-							if (vastXml.getSkipOffset() <= 0) {
-								SdkLog.w(TAG, "skipOffset not set in VAST xml!");
-								((ImageButton) root
-										.findViewById(R.id.emsVidIntButton))
-										.setVisibility(View.VISIBLE);
-							}
-							SdkLog.d(TAG,
-									"Video Interstitial loaded, starting video ["
-											+ videoLength + " ms]");
-						}
-					});
-				}
+	@Override
+	protected void onStop() {
+		super.onStop();
 
-				private void updateView(final boolean canClose,
-						final String bottomText) {
-					if (root != null && root.getHandler() != null) {
-						root.getHandler().post(new Runnable() {
-
-							@Override
-							public void run() {
-								if (canClose
-										&& ((ImageButton) root
-												.findViewById(R.id.emsVidIntButton))
-												.getVisibility() == View.INVISIBLE) {
-									SdkLog.i(TAG,
-											"Enabling video cancel button.");
-									((ImageButton) root
-											.findViewById(R.id.emsVidIntButton))
-											.setVisibility(View.VISIBLE);
-								}
-								videoText.setText(bottomText);
-							}
-						});
-					}
-				}
+		if (running && status != SUSPENDED && !paused) {
+			stopControl();
+			leave();
+		}
+		if (status == FINISHED || status == CLOSED) {
+			SdkLog.i(TAG, "Finishing interstitial activity.");
+		}
+		if (isFinishing() && wrapperResolution != null) {
+			wrapperResolution.cancel(true);
+			wrapperResolution = null;
+		}
+	}
 
-				private void trackEvent() {
-					if (percentPlayed >= 25.0 && !q1) {
-						List<String> tx = vastXml.getTrackingByType(Tracking.EVENT_FIRSTQ);
-						q1 = true;
-						SdkLog.i(TAG, "Triggering " + tx.size()
-								+ " event_firstq tracking requests");
-						if (tx != null && tx.size() > 0) {
-							String[] txS = new String[tx.size()];
-							SdkUtil.httpRequests(tx.toArray(txS));
-						}
-					}
-					if (percentPlayed >= 50.0 && !q2) {
-						List<String> tx = vastXml
-								.getTrackingByType(Tracking.EVENT_MID);
-						q2 = true;
-						SdkLog.i(TAG, "Triggering " + tx.size()
-								+ " event_mid tracking requests");
-						if (tx != null && tx.size() > 0) {
-							String[] txS = new String[tx.size()];
-							SdkUtil.httpRequests(tx.toArray(txS));
-						}
-					}
-					if (percentPlayed >= 75.0 && !q3) {
-						List<String> tx = vastXml
-								.getTrackingByType(Tracking.EVENT_THIRDQ);
-						q3 = true;
-						SdkLog.i(TAG, "Triggering " + tx.size()
-								+ " event_thirdq tracking requests");
-						if (tx != null && tx.size() > 0) {
-							String[] txS = new String[tx.size()];
-							SdkUtil.httpRequests(tx.toArray(txS));
-						}
-						return;
-					}
-				}
+	private void startVideo() {
+		videoStarted = true;
+		ImageButton sndButton = (ImageButton) root
+				.findViewById(R.id.emsVidIntSndButton);
+		spinner.setVisibility(View.GONE);
+
+		List<String> tx = vastXml.getTrackingByType(Tracking.EVENT_START);
+		SdkLog.i(TAG, "Triggering " + tx.size()
+				+ " event_start tracking requests");
+		if (tx != null && tx.size() > 0) {
+			String[] txS = new String[tx.size()];
+			SdkUtil.httpRequests(tx.toArray(txS));
+		}
 
-				@Override
-				public void run() {
-					boolean loaded = false;
-					while (InterstitialThread.SHOW) {
-						if (!loaded && videoReady) {
-							videoInit();
-							loaded = true;
-						} else if (loaded && !InterstitialThread.PAUSED) {
-							percentPlayed = ((double) videoView
-									.getCurrentPosition() / videoLength) * 100.0d;
-							String text = getResources().getString(
-									R.string.videoRunning);
-							boolean close = false;
-							if (vastXml.getSkipOffset() > 0) {
-								close = (percentPlayed >= vastXml
-										.getSkipOffset());
-								if (!close) {
-									int t = (int) ((vastXml.getSkipOffset() - percentPlayed) / 100.0 * (videoLength / 1000.0));
-									text = getResources().getString(
-											R.string.videoSkip).replaceAll("#",
-											String.valueOf(t));
-								}
-							} else {
-								close = true;
-							}
+		if (muted) {
+			List<String> tr = vastXml
+					.getTrackingByType(VASTXmlParser.Tracking.EVENT_MUTE);
+			SdkLog.i(TAG, "Triggering " + tr.size()
+					+ " event_mute tracking requests");
+			if (tr != null && tr.size() > 0) {
+				String[] trS = new String[tr.size()];
+				SdkUtil.httpRequests(tr.toArray(trS));
+			}
+		}
 
-							updateView(close, text);
-							trackEvent();
+		videoLength = mediaPlayer.getDuration();
+		videoWidth = mediaPlayer.getVideoWidth();
+		videoHeight = mediaPlayer.getVideoHeight();
+		videoProportion = (float) videoWidth / (float) videoHeight;
+		adjustVideoView(null);
 
-						}
-						try {
-							Thread.sleep(250);
-						} catch (InterruptedException e) {
-							SdkLog.e(TAG, "Sleep interrupted while sleeping.",
-									e);
-						}
-					}
-					SdkLog.d(TAG, "Terminating control thread.");
+		if (mediaPlayer != null) {
+			try {
+				((AudioManager) getSystemService(Context.AUDIO_SERVICE))
+						.requestAudioFocus(null, AudioManager.STREAM_MUSIC,
+								AudioManager.AUDIOFOCUS_GAIN);
+			} catch (Exception e) {
+				SdkLog.w(TAG, "Could not request audio manager focus");
+			}
+			mediaPlayer.start();
+			SdkLog.d(TAG, "MediaPlayer started.");
+		}
+		sndButton.setImageResource(muted ? R.drawable.sound_button_off
+				: R.drawable.sound_button_on);
+		sndButton.setVisibility(View.VISIBLE);
+		if (vastXml.getSkipOffset() <= 0) {
+			SdkLog.w(TAG, "skipOffset not set in VAST xml!");
+			((ImageButton) root.findViewById(R.id.emsVidIntButton))
+					.setVisibility(View.VISIBLE);
+		}
+		SdkLog.d(TAG, "Video Interstitial loaded, starting video ["
+				+ videoLength + " ms]");
+		schedule();
+	}
 
-					if (mediaPlayer != null && (mediaPlayer.isPlaying())) {
-						try {
-							mediaPlayer.pause();
-						} catch (IllegalStateException e) {
-							SdkLog.w(TAG, "MediaPlayer already released.");
-						}
-						SdkLog.d(TAG, "MediaPlayer paused.");
-					}
-					if (target != null) {
-						startActivity(target);
-					} else {
-						SdkLog.d(TAG,
-								"Video interstitial without target. Returning to previous view.");
-					}
-					finish();
-				}
-			}, "Video Interstitial-[" + target + "]");
+	private void schedule() {
+		handler.removeCallbacks(ticker);
+		handler.removeCallbacks(quartileTracker);
+		handler.post(ticker);
+		scheduleQuartile();
+	}
 
-			updateThread.beforeStart();
-			updateThread.start();
-			SdkLog.d(TAG, "Video interstitial timer started.");
+	private void scheduleQuartile() {
+		if (quartilesTracked < QUARTILE_EVENTS.length && videoLength > 0) {
+			// re-checked when due, so buffering delays the event
+			long due = (quartilesTracked + 1) * (long) videoLength
+					/ 4
+					- videoView.getCurrentPosition();
+			handler.postAtTime(quartileTracker, SystemClock.uptimeMillis()
+					+ Math.max(TICK_INTERVAL / 5, due));
 		}
+	}
 
+	private void updatePosition() {
+		if (videoLength > 0) {
+			percentPlayed = ((double) videoView.getCurrentPosition() / videoLength) * 100.0d;
+		}
 	}
 
-	@Override
-	protected void onStop() {
-		super.onStop();
+	private void updateView(boolean canClose, String bottomText) {
+		ImageButton b = (ImageButton) root.findViewById(R.id.emsVidIntButton);
+		if (canClose && b.getVisibility() == View.INVISIBLE) {
+			SdkLog.i(TAG, "Enabling video cancel button.");
+			b.setVisibility(View.VISIBLE);
+		}
+		videoText.setText(bottomText);
+	}
 
-		if (updateThread != null && updateThread.isAlive()
-				&& status != SUSPENDED && !InterstitialThread.PAUSED) {
+	/**
+	 * Stop progress updates and trackings and pause the video
+	 * 
+	 * @return true if the control was running
+	 */
+	private boolean stopControl() {
+		if (!running) {
+			return false;
+		}
+		running = false;
+		handler.removeCallbacks(ticker);
+		handler.removeCallbacks(quartileTracker);
+		SdkLog.d(TAG, "Stopped video interstitial control.");
+		if (mediaPlayer != null) {
 			try {
-				updateThread.beforeStop();
-				updateThread.join(100);
-			} catch (InterruptedException e) {
-				;
+				if (mediaPlayer.isPlaying()) {
+					mediaPlayer.pause();
+					SdkLog.d(TAG, "MediaPlayer paused.");
+				}
+			} catch (IllegalStateException e) {
+				SdkLog.w(TAG, "MediaPlayer already released.");
 			}
 		}
-		if (status == FINISHED || status == CLOSED) {
-			SdkLog.i(TAG, "Finishing interstitial activity.");
-		}
+		return true;
 	}
 
-	@Override
-	public void onVASTWrapperFound(final String url) {
-		SdkLog.d(TAG, "Wrapped VAST xml response [" + url + "].");
-		SdkUtil.adRequest(this).execute(url);
+	private void leave() {
+		if (target != null) {
+			startActivity(target);
+		} else {
+			SdkLog.d(TAG,
+					"Video interstitial without target. Returning to previous view.");
+		}
+		finish();
 	}
 
 	@Override
-	public void processResponse(IAdResponse response) {
+	public void onVASTResolved(VASTXmlParser vast) {
+		this.wrapperResolution = null;
+		if (isFinishing()) {
+			return;
+		}
 		try {
-			VASTXmlParser vast = vastXml;
-			while (vast.getWrappedVASTXml() != null) {
-				vast = vast.getWrappedVASTXml();
-			}
-			vast.setWrapper(new VASTXmlParser(getApplicationContext(), null,
-					response.getResponse()));
-			this.videoView
-					.setVideoURI(Uri.parse(this.vastXml.getMediaFileUrl()));
+			this.vastXml = vast;
+			this.videoView.setVideoURI(getVideoUri());
 			List<String> im = this.vastXml.getImpressionTrackerUrl();
 			SdkLog.i(TAG, "Triggering " + im.size()
 					+ " impression tracking requests");
@@ -743,14 +719,15 @@ public final class VideoInterstitialActivity extends Activity implements
 	}
 
 	@Override
-	public void processError(String msg) {
-		SdkLog.e(TAG, "Error fetching wrapped VAST xml: " + msg);
-	}
-
-	@Override
-	public void processError(String msg, Throwable t) {
+	public void onVASTError(String msg, Throwable t) {
+		this.wrapperResolution = null;
 		SdkLog.e(TAG, "Error fetching wrapped VAST xml: " + msg, t);
-
+		if (!isFinishing()) {
+			if (this.target != null) {
+				startActivity(target);
+			}
+			finish();
+		}
 	}
 
 	@Override
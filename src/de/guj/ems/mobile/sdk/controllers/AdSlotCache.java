@@ -0,0 +1,190 @@
+package de.guj.ems.mobile.sdk.controllers;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import de.guj.ems.mobile.sdk.controllers.adserver.IAdResponse;
+import de.guj.ems.mobile.sdk.controllers.adserver.IAdServerSettingsAdapter;
+import de.guj.ems.mobile.sdk.util.SdkLog;
+import de.guj.ems.mobile.sdk.util.SdkUtil;
+
+/**
+ * Cache for prefetched adserver responses.
+ *
+ * Responses are stored per ad slot (see
+ * IAdServerSettingsAdapter.getCacheKey()), expire after a fixed time and are
+ * evicted least recently used first if the cache exceeds its size limits. A
+ * cached response is handed out only once.
+ *
+ * Usage: AdSlotCache.getInstance().prefetch(settings); ...
+ * AdSlotCache.getInstance().take(settings);
+ *
+ * @author stein16
+ *
+ */
+public class AdSlotCache {
+
+	private final static String TAG = "AdSlotCache";
+
+	/**
+	 * Time in milliseconds a prefetched response stays valid
+	 */
+	public final static long TTL = 5 * 60 * 1000;
+
+	/**
+	 * Maximum number of cached responses
+	 */
+	public final static int MAX_ENTRIES = 16;
+
+	/**
+	 * Maximum number of characters of all cached responses
+	 */
+	public final static int MAX_SIZE = 256 * 1024;
+
+	private static AdSlotCache instance = null;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			MAX_ENTRIES, 0.75f, true);
+
+	private final Set<String> pending = new HashSet<String>();
+
+	private int size = 0;
+
+	public synchronized static AdSlotCache getInstance() {
+		if (AdSlotCache.instance == null) {
+			AdSlotCache.instance = new AdSlotCache();
+		}
+		return AdSlotCache.instance;
+	}
+
+	private AdSlotCache() {
+	}
+
+	/**
+	 * Fetch a response for an ad slot in the background unless a valid
+	 * response is already cached or being fetched
+	 *
+	 * @param settings
+	 *            settings of the ad slot
+	 */
+	public void prefetch(IAdServerSettingsAdapter settings) {
+		final String key = settings.getCacheKey();
+		synchronized (this) {
+			if (pending.contains(key) || peek(key) != null) {
+				return;
+			}
+			if (!SdkUtil.isOnline()) {
+				SdkLog.d(TAG, "Offline, not prefetching " + key);
+				return;
+			}
+			pending.add(key);
+		}
+		SdkLog.d(TAG, "Prefetching " + key);
+		SdkUtil.adRequest(new IAdResponseHandler() {
+
+			@Override
+			public void processResponse(IAdResponse response) {
+				synchronized (AdSlotCache.this) {
+					pending.remove(key);
+				}
+				if (response != null && !response.isEmpty()) {
+					put(key, response);
+				} else {
+					SdkLog.d(TAG, "Prefetch returned no ad for " + key);
+				}
+			}
+
+			@Override
+			public void processError(String msg) {
+				synchronized (AdSlotCache.this) {
+					pending.remove(key);
+				}
+				SdkLog.w(TAG, "Prefetch failed for " + key + ": " + msg);
+			}
+
+			@Override
+			public void processError(String msg, Throwable t) {
+				processError(msg != null ? msg : String.valueOf(t));
+			}
+		}).execute(settings.getRequestUrl());
+	}
+
+	/**
+	 * Remove and return a valid cached response for an ad slot
+	 *
+	 * @param settings
+	 *            settings of the ad slot
+	 * @return the cached response or null if there is none
+	 */
+	public synchronized IAdResponse take(IAdServerSettingsAdapter settings) {
+		Entry e = peek(settings.getCacheKey());
+		if (e != null) {
+			remove(settings.getCacheKey());
+			return e.response;
+		}
+		return null;
+	}
+
+	/**
+	 * Remove all cached responses
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	private synchronized void put(String key, IAdResponse response) {
+		remove(key);
+		Entry e = new Entry(response, System.currentTimeMillis() + TTL);
+		entries.put(key, e);
+		size += e.size;
+		Iterator<Entry> i = entries.values().iterator();
+		while ((entries.size() > MAX_ENTRIES || size > MAX_SIZE)
+				&& i.hasNext()) {
+			Entry eldest = i.next();
+			if (eldest != e) {
+				size -= eldest.size;
+				i.remove();
+				SdkLog.d(TAG, "Evicted least recently used response.");
+			}
+		}
+		SdkLog.d(TAG, "Cached response for " + key + " [" + entries.size()
+				+ " entries, " + size + " chars]");
+	}
+
+	private Entry peek(String key) {
+		Entry e = entries.get(key);
+		if (e != null && e.expires < System.currentTimeMillis()) {
+			SdkLog.d(TAG, "Cached response for " + key + " expired.");
+			remove(key);
+			return null;
+		}
+		return e;
+	}
+
+	private void remove(String key) {
+		Entry e = entries.remove(key);
+		if (e != null) {
+			size -= e.size;
+		}
+	}
+
+	private final static class Entry {
+
+		private final IAdResponse response;
+
+		private final long expires;
+
+		private final int size;
+
+		private Entry(IAdResponse response, long expires) {
+			this.response = response;
+			this.expires = expires;
+			this.size = response.getResponse() != null ? response
+					.getResponse().length() : 0;
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package de.guj.ems.mobile.sdk.controllers;
+
+import java.io.Serializable;
+
+/**
+ * Interface providing listener for when an ad became viewable (at least half
+ * of it visible for one second).
+ * 
+ * @author stein16
+ * 
+ */
+public interface IOnAdViewableListener extends Serializable {
+
+	/**
+	 * Listener method called once per ad when it was viewable
+	 */
+	void onAdViewable();
+
+}
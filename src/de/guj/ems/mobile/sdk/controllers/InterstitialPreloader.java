@@ -0,0 +1,332 @@
+package de.guj.ems.mobile.sdk.controllers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.Context;
+import android.os.Bundle;
+import de.guj.ems.mobile.sdk.controllers.adserver.AmobeeSettingsAdapter;
+import de.guj.ems.mobile.sdk.controllers.adserver.IAdResponse;
+import de.guj.ems.mobile.sdk.controllers.adserver.IAdServerSettingsAdapter;
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+import de.guj.ems.mobile.sdk.util.SdkLog;
+import de.guj.ems.mobile.sdk.util.SdkUtil;
+import de.guj.ems.mobile.sdk.util.VASTMediaCache;
+import de.guj.ems.mobile.sdk.util.VASTWrapperResolver;
+import de.guj.ems.mobile.sdk.views.GuJEMSAdView;
+
+/**
+ * Fetches and prepares interstitials ahead of time.
+ *
+ * The adserver response is requested in the background. Html creatives are
+ * written to disk, for VAST creatives all wrapped VAST xml are fetched and the
+ * media file is downloaded into the VASTMediaCache. The
+ * InterstitialSwitchReceiver picks up a prepared interstitial and shows it
+ * immediately. If an interstitial is still being prepared or the adserver did
+ * not deliver one, the receiver heads to its target right away.
+ *
+ * Usage: InterstitialSwitchReceiver.preload(context, extras);
+ *
+ * @author stein16
+ *
+ */
+public class InterstitialPreloader {
+
+	private final static String TAG = "InterstitialPreloader";
+
+	private final static String DIRECTORY = "ems_interstitial";
+
+	/**
+	 * Time in milliseconds a prepared interstitial stays valid
+	 */
+	public final static long TTL = 5 * 60 * 1000;
+
+	private static InterstitialPreloader instance = null;
+
+	private final Map<String, Interstitial> prepared = new HashMap<String, Interstitial>();
+
+	private final Set<String> pending = new HashSet<String>();
+
+	public synchronized static InterstitialPreloader getInstance() {
+		if (InterstitialPreloader.instance == null) {
+			InterstitialPreloader.instance = new InterstitialPreloader();
+		}
+		return InterstitialPreloader.instance;
+	}
+
+	private InterstitialPreloader() {
+	}
+
+	/**
+	 * Fetch and prepare an interstitial in the background unless a valid one
+	 * is already prepared or being prepared
+	 *
+	 * @param context
+	 *            android application context
+	 * @param extras
+	 *            ad space settings as passed to the InterstitialSwitchReceiver
+	 */
+	public void preload(Context context, Bundle extras) {
+		if (SdkUtil.getContext() == null) {
+			SdkUtil.setContext(context);
+		}
+		IAdServerSettingsAdapter settings = new AmobeeSettingsAdapter(
+				SdkUtil.getContext(), GuJEMSAdView.class, extras);
+		final String key = settings.getCacheKey();
+		synchronized (this) {
+			if (pending.contains(key) || peek(key) != null) {
+				return;
+			}
+			if (!SdkUtil.isOnline()) {
+				SdkLog.d(TAG, "Offline, not preloading " + key);
+				return;
+			}
+			pending.add(key);
+		}
+		SdkLog.d(TAG, "Preloading interstitial " + key);
+		SdkUtil.adRequest(new IAdResponseHandler() {
+
+			@Override
+			public void processResponse(final IAdResponse response) {
+				if (response == null || response.isEmpty()) {
+					SdkLog.d(TAG, "No interstitial booked for " + key);
+					done(key, new Interstitial(response));
+					return;
+				}
+				// VAST creatives download their media file
+				SdkExecutor.Lane lane = response.getResponse().startsWith(
+						"<VAST") ? SdkExecutor.Lane.MEDIA
+						: SdkExecutor.Lane.ASSET;
+				SdkExecutor.execute(lane, new Runnable() {
+					@Override
+					public void run() {
+						done(key, prepare(key, response));
+					}
+				});
+			}
+
+			@Override
+			public void processError(String msg) {
+				SdkLog.w(TAG, "Preloading failed for " + key + ": " + msg);
+				done(key, null);
+			}
+
+			@Override
+			public void processError(String msg, Throwable t) {
+				processError(msg != null ? msg : String.valueOf(t));
+			}
+		}).execute(settings.getRequestUrl());
+	}
+
+	/**
+	 * Determine whether an interstitial for an ad space is currently being
+	 * prepared
+	 *
+	 * @param settings
+	 *            settings of the ad space
+	 * @return true if preloading has not finished, yet
+	 */
+	public synchronized boolean isPending(IAdServerSettingsAdapter settings) {
+		return pending.contains(settings.getCacheKey());
+	}
+
+	/**
+	 * Remove and return a valid prepared interstitial for an ad space
+	 *
+	 * @param settings
+	 *            settings of the ad space
+	 * @return the prepared interstitial or null if there is none
+	 */
+	public synchronized Interstitial take(IAdServerSettingsAdapter settings) {
+		Interstitial i = peek(settings.getCacheKey());
+		if (i != null) {
+			prepared.remove(settings.getCacheKey());
+		}
+		return i;
+	}
+
+	private synchronized void done(String key, Interstitial i) {
+		pending.remove(key);
+		if (i != null) {
+			prepared.put(key, i);
+			SdkLog.i(TAG, "Interstitial " + key + " prepared"
+					+ (i.isEmpty() ? " (empty)." : "."));
+		}
+	}
+
+	private Interstitial peek(String key) {
+		Interstitial i = prepared.get(key);
+		if (i != null && i.expires < System.currentTimeMillis()) {
+			SdkLog.d(TAG, "Prepared interstitial " + key + " expired.");
+			prepared.remove(key);
+			i.delete();
+			return null;
+		}
+		return i;
+	}
+
+	private Interstitial prepare(String key, IAdResponse response) {
+		Interstitial i = new Interstitial(response);
+		File dir = getDirectory();
+		// a previously taken interstitial may still be displayed, so each
+		// preload gets its own files
+		String name = Integer.toHexString(key.hashCode()) + "_"
+				+ System.currentTimeMillis();
+		try {
+			if (response.getResponse().startsWith("<VAST")) {
+				i.wrapped = new ArrayList<String>();
+				String mediaUrl = VASTWrapperResolver.resolve(
+						SdkUtil.getContext(), response.getResponse(), i.wrapped)
+						.getMediaFileUrl();
+				if (mediaUrl != null && mediaUrl.length() > 0) {
+					i.media = buffer(mediaUrl);
+				}
+			} else if (dir != null) {
+				i.file = new File(dir, name + ".html");
+				write(response.getResponse(), i.file);
+			}
+		} catch (Exception e) {
+			SdkLog.e(TAG, "Error preparing interstitial " + key, e);
+			i.delete();
+			return null;
+		}
+		return i;
+	}
+
+	private File buffer(String url) {
+		try {
+			return VASTMediaCache.getInstance(SdkUtil.getContext()).fetch(url);
+		} catch (IOException e) {
+			SdkLog.w(TAG, "Error buffering media file " + url + ": "
+					+ e.getMessage());
+			return null;
+		}
+	}
+
+	private void write(String data, File f) throws IOException {
+		Writer out = null;
+		try {
+			out = new OutputStreamWriter(new FileOutputStream(f), "utf-8");
+			out.write(data);
+		} finally {
+			close(out);
+		}
+	}
+
+	private File getDirectory() {
+		Context c = SdkUtil.getContext();
+		if (c == null) {
+			return null;
+		}
+		File dir = new File(c.getCacheDir(), DIRECTORY);
+		if (!dir.exists() && !dir.mkdirs()) {
+			SdkLog.w(TAG, "Could not create " + dir);
+			return null;
+		}
+		// remove files of interstitials which expired or were shown long ago
+		File[] files = dir.listFiles();
+		long outdated = System.currentTimeMillis() - 2 * TTL;
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].lastModified() < outdated) {
+				files[i].delete();
+			}
+		}
+		return dir;
+	}
+
+	private static void close(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				SdkLog.w(TAG, "Error closing interstitial file.");
+			}
+		}
+	}
+
+	/**
+	 * A prepared interstitial
+	 *
+	 * @author stein16
+	 *
+	 */
+	public final static class Interstitial {
+
+		private final IAdResponse response;
+
+		private final long expires;
+
+		private File file;
+
+		private File media;
+
+		private ArrayList<String> wrapped;
+
+		private Interstitial(IAdResponse response) {
+			this.response = response;
+			this.expires = System.currentTimeMillis() + TTL;
+		}
+
+		/**
+		 * Get the adserver response
+		 *
+		 * @return the response, may be null or empty
+		 */
+		public IAdResponse getResponse() {
+			return response;
+		}
+
+		/**
+		 * Determine whether the adserver delivered no interstitial
+		 *
+		 * @return true if there is nothing to show
+		 */
+		public boolean isEmpty() {
+			return response == null || response.isEmpty();
+		}
+
+		/**
+		 * Get the html creative on disk
+		 *
+		 * @return html file or null for VAST creatives
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * Get the buffered VAST media file. The file is owned by the
+		 * VASTMediaCache and may be evicted before it is played.
+		 *
+		 * @return media file or null if it was not buffered
+		 */
+		public File getMediaFile() {
+			return media;
+		}
+
+		/**
+		 * Get all wrapped VAST xml in order of nesting
+		 *
+		 * @return wrapped VAST xml or null for html creatives
+		 */
+		public ArrayList<String> getWrappedVASTXml() {
+			return wrapped;
+		}
+
+		private void delete() {
+			if (file != null) {
+				file.delete();
+			}
+		}
+	}
+
+}
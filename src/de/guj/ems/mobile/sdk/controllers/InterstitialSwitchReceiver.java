@@ -3,6 +3,7 @@ package de.guj.ems.mobile.sdk.controllers;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
 import de.guj.ems.mobile.sdk.R;
 import de.guj.ems.mobile.sdk.activities.InterstitialActivity;
 import de.guj.ems.mobile.sdk.activities.VideoInterstitialActivity;
@@ -19,6 +20,13 @@ import de.guj.ems.mobile.sdk.views.GuJEMSAdView;
  * Receiver which performs an ad requests and starts the corresponding activity
  * - depending on the response.
  * 
+ * If the interstitial was preloaded with the same extras, it is shown without
+ * any request. While preloading has not finished, the target is started
+ * immediately.
+ * 
+ * Video interstitials without a preloaded media file are started right away
+ * and stream their media file unless it is completely cached.
+ * 
  * @author stein16
  * 
  */
@@ -29,6 +37,8 @@ public class InterstitialSwitchReceiver extends BroadcastReceiver implements
 
 	private IAdResponse data;
 
+	private InterstitialPreloader.Interstitial preloaded;
+
 	private Intent target;
 
 	private Intent intent;
@@ -43,6 +53,18 @@ public class InterstitialSwitchReceiver extends BroadcastReceiver implements
 		super();
 	}
 
+	/**
+	 * Fetch and prepare an interstitial before the receiver is triggered
+	 * 
+	 * @param context
+	 *            android application context
+	 * @param extras
+	 *            the extras the receiver will be triggered with
+	 */
+	public static void preload(Context context, Bundle extras) {
+		InterstitialPreloader.getInstance().preload(context, extras);
+	}
+
 	@Override
 	public void onReceive(Context arg0, Intent arg1) {
 
@@ -63,6 +85,22 @@ public class InterstitialSwitchReceiver extends BroadcastReceiver implements
 		this.settings = new AmobeeSettingsAdapter(SdkUtil.getContext(),
 				GuJEMSAdView.class, arg1.getExtras());
 
+		// preloaded interstitial
+		this.preloaded = testMode ? null : InterstitialPreloader
+				.getInstance().take(this.settings);
+		if (this.preloaded != null) {
+			SdkLog.i(TAG, "Using preloaded interstitial");
+			processResponse(this.preloaded.getResponse());
+			return;
+		} else if (!testMode
+				&& InterstitialPreloader.getInstance().isPending(this.settings)) {
+			SdkLog.i(TAG, "Interstitial not prepared, yet -> starting target.");
+			if (target != null) {
+				context.startActivity(target);
+			}
+			return;
+		}
+
 		// adserver request
 		if (SdkUtil.isOnline() && !testMode) {
 			final String url = this.settings.getRequestUrl();
@@ -81,7 +119,9 @@ public class InterstitialSwitchReceiver extends BroadcastReceiver implements
 
 	@Override
 	public void processResponse(IAdResponse response) {
-		SdkLog.i(TAG, "FINISH AdServer request");
+		if (this.preloaded == null) {
+			SdkLog.i(TAG, "FINISH AdServer request");
+		}
 		BackfillDelegator.BackfillData bfD;
 		this.data = response;
 		if (data != null
@@ -179,6 +219,14 @@ public class InterstitialSwitchReceiver extends BroadcastReceiver implements
 			SdkLog.i(TAG, "Found video interstitial -> show");
 			// pass banner data and original intent to video interstitial
 			i.putExtra("data", data.getResponse());
+			if (preloaded != null && preloaded.getWrappedVASTXml() != null) {
+				i.putStringArrayListExtra("wrapped",
+						preloaded.getWrappedVASTXml());
+				if (preloaded.getMediaFile() != null) {
+					i.putExtra("media", preloaded.getMediaFile()
+							.getAbsolutePath());
+				}
+			}
 			i.putExtra("target", target);
 			i.putExtra("unmuted",
 					Boolean.valueOf(intent.getExtras().getBoolean("unmuted")));
@@ -193,6 +241,9 @@ public class InterstitialSwitchReceiver extends BroadcastReceiver implements
 			SdkLog.i(TAG, "Found interstitial -> show");
 			// pass banner data and original intent to interstitial
 			i.putExtra("data", data.getResponse());
+			if (preloaded != null && preloaded.getFile() != null) {
+				i.putExtra("file", preloaded.getFile().getAbsolutePath());
+			}
 			i.putExtra("target", target);
 			i.putExtra("timeout",
 					(Integer) this.intent.getExtras().get("timeout"));
@@ -0,0 +1,363 @@
+package de.guj.ems.mobile.sdk.controllers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import de.guj.ems.mobile.sdk.util.DeviceStateMonitor;
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+import de.guj.ems.mobile.sdk.util.SdkHttpClient;
+import de.guj.ems.mobile.sdk.util.SdkLog;
+import de.guj.ems.mobile.sdk.util.SdkUtil;
+
+/**
+ * Queues tracking pixels (impressions, video events) and sends them in
+ * bursts over the shared http transport.
+ *
+ * Every queued url is appended to a file in the app's files directory, so
+ * undelivered pixels survive a process restart. Failed bursts are retried with
+ * exponential backoff and immediately when connectivity returns (as reported
+ * by the DeviceStateMonitor). The journal is only accessed from the tracker
+ * lane, never from the caller's thread.
+ *
+ * Usage: TrackingDispatcher.getInstance().track(urls);
+ *
+ * @author stein16
+ *
+ */
+public class TrackingDispatcher {
+
+	private final static String TAG = "TrackingDispatcher";
+
+	private final static String JOURNAL = ".emstracking";
+
+	private final static String SEPARATOR = "\t";
+
+	/**
+	 * Delay for collecting pixels into one burst
+	 */
+	private final static long BURST_DELAY = 1000;
+
+	private final static long RETRY_DELAY_MIN = 5000;
+
+	private final static long RETRY_DELAY_MAX = 300000;
+
+	/**
+	 * Pixels older than this are dropped
+	 */
+	private final static long MAX_AGE = 24 * 60 * 60 * 1000;
+
+	private final static int MAX_PENDING = 250;
+
+	private static TrackingDispatcher instance = null;
+
+	private final LinkedList<Beacon> pending = new LinkedList<Beacon>();
+
+	private final Map<String, String> headers = new HashMap<String, String>();
+
+	private boolean loaded = false;
+
+	private ScheduledFuture<?> scheduledFlush = null;
+
+	private boolean flushing = false;
+
+	private int failures = 0;
+
+	public synchronized static TrackingDispatcher getInstance() {
+		if (TrackingDispatcher.instance == null) {
+			TrackingDispatcher.instance = new TrackingDispatcher();
+		}
+		return TrackingDispatcher.instance;
+	}
+
+	private TrackingDispatcher() {
+		headers.put(SdkHttpClient.USER_AGENT_HEADER_NAME,
+				SdkUtil.getUserAgent());
+		// registers the connectivity receiver
+		DeviceStateMonitor.getInstance();
+	}
+
+	/**
+	 * Queue tracking urls for delivery
+	 *
+	 * @param urls
+	 *            the urls to request
+	 */
+	public void track(final String[] urls) {
+		SdkExecutor.execute(SdkExecutor.Lane.TRACKER, new Runnable() {
+			@Override
+			public void run() {
+				enqueue(urls);
+			}
+		});
+	}
+
+	/**
+	 * Retry pending pixels immediately if the device went online
+	 */
+	public void onConnectivityChanged() {
+		SdkExecutor.execute(SdkExecutor.Lane.TRACKER, new Runnable() {
+			@Override
+			public void run() {
+				retry();
+			}
+		});
+	}
+
+	/**
+	 * Number of pixels not delivered, yet
+	 *
+	 * @return number of pending pixels
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	private synchronized void enqueue(String[] urls) {
+		load();
+		long now = System.currentTimeMillis();
+		List<Beacon> added = new ArrayList<Beacon>(urls.length);
+		for (String url : urls) {
+			if (url != null && url.length() > 0) {
+				added.add(new Beacon(url, now));
+			}
+		}
+		pending.addAll(added);
+		while (pending.size() > MAX_PENDING) {
+			SdkLog.w(TAG, "Too many pending pixels, dropping "
+					+ pending.removeFirst().url);
+		}
+		append(added);
+		if (failures == 0) {
+			scheduleFlush(BURST_DELAY);
+		}
+	}
+
+	private synchronized void retry() {
+		load();
+		if (SdkUtil.isOnline() && !pending.isEmpty()) {
+			SdkLog.d(TAG, "Connectivity changed, resending " + pending.size()
+					+ " pixels.");
+			failures = 0;
+			scheduleFlush(0);
+		}
+	}
+
+	private void scheduleFlush(long delay) {
+		if (flushing) {
+			// the running burst schedules the next one when done
+			return;
+		}
+		if (scheduledFlush != null) {
+			if (scheduledFlush.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+				return;
+			}
+			// e.g. a backoff retry pending while connectivity returned
+			scheduledFlush.cancel(false);
+		}
+		scheduledFlush = SdkExecutor.schedule(SdkExecutor.Lane.TRACKER,
+				new Runnable() {
+					@Override
+					public void run() {
+						flush();
+					}
+				}, delay);
+	}
+
+	private void flush() {
+		List<Beacon> burst = null;
+		synchronized (this) {
+			// pixels queued while a burst is running are picked up by the
+			// next burst
+			if (flushing) {
+				return;
+			}
+			scheduledFlush = null;
+			if (pending.isEmpty()) {
+				return;
+			}
+			flushing = true;
+			burst = new ArrayList<Beacon>(pending);
+		}
+
+		List<Beacon> done = new ArrayList<Beacon>(burst.size());
+		boolean failed = false;
+		long now = System.currentTimeMillis();
+		for (Beacon b : burst) {
+			if (now - b.created > MAX_AGE) {
+				SdkLog.w(TAG, "Dropping expired pixel " + b.url);
+				done.add(b);
+			} else if (send(b.url)) {
+				done.add(b);
+			} else {
+				// the network is most likely down, keep the rest for later
+				failed = true;
+				break;
+			}
+		}
+
+		synchronized (this) {
+			flushing = false;
+			pending.removeAll(done);
+			persist();
+			if (failed) {
+				long delay = Math.min(RETRY_DELAY_MAX, RETRY_DELAY_MIN
+						* (1L << Math.min(failures, 10)));
+				failures++;
+				SdkLog.w(TAG, pending.size() + " pixels pending, retry in "
+						+ delay + "ms.");
+				scheduleFlush(delay);
+			} else {
+				failures = 0;
+				if (!pending.isEmpty()) {
+					scheduleFlush(BURST_DELAY);
+				}
+			}
+		}
+	}
+
+	private boolean send(String url) {
+		SdkHttpClient.Response response = null;
+		try {
+			response = SdkHttpClient.get(url, headers);
+			int status = response.getStatusCode();
+			if (status >= 500) {
+				SdkLog.w(TAG, "Server returned HTTP " + status + " for " + url);
+				return false;
+			}
+			if (status >= 400) {
+				// client errors will not go away by retrying
+				SdkLog.e(TAG, "Server returned HTTP " + status
+						+ ", dropping " + url);
+			}
+			return true;
+		} catch (Exception e) {
+			SdkLog.w(TAG, "Error sending " + url + ": " + e.getMessage());
+			return false;
+		} finally {
+			if (response != null) {
+				response.close();
+			}
+		}
+	}
+
+	private File getJournal() {
+		Context c = SdkUtil.getContext();
+		return c != null ? new File(c.getFilesDir(), JOURNAL) : null;
+	}
+
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		File journal = getJournal();
+		if (journal == null) {
+			return;
+		}
+		loaded = true;
+		if (!journal.exists()) {
+			return;
+		}
+		BufferedReader in = null;
+		int n = 0;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(
+					journal), "utf-8"));
+			String line = null;
+			while ((line = in.readLine()) != null) {
+				int i = line.indexOf(SEPARATOR);
+				if (i > 0) {
+					try {
+						pending.add(new Beacon(line.substring(i + 1), Long
+								.parseLong(line.substring(0, i))));
+						n++;
+					} catch (NumberFormatException e) {
+						SdkLog.w(TAG, "Skipping corrupt journal line.");
+					}
+				}
+			}
+		} catch (IOException e) {
+			SdkLog.e(TAG, "Error reading tracking journal.", e);
+		} finally {
+			close(in);
+		}
+		if (n > 0) {
+			SdkLog.i(TAG, n + " undelivered pixels restored.");
+			scheduleFlush(BURST_DELAY);
+		}
+	}
+
+	private void append(List<Beacon> beacons) {
+		write(beacons, true);
+	}
+
+	private void persist() {
+		if (pending.isEmpty()) {
+			File journal = getJournal();
+			if (journal != null && journal.exists() && !journal.delete()) {
+				SdkLog.w(TAG, "Could not delete tracking journal.");
+			}
+		} else {
+			write(pending, false);
+		}
+	}
+
+	private void write(List<Beacon> beacons, boolean append) {
+		File journal = getJournal();
+		if (journal == null || beacons.isEmpty()) {
+			return;
+		}
+		BufferedWriter out = null;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(journal, append), "utf-8"));
+			for (Beacon b : beacons) {
+				out.write(String.valueOf(b.created));
+				out.write(SEPARATOR);
+				out.write(b.url);
+				out.write('\n');
+			}
+		} catch (IOException e) {
+			SdkLog.e(TAG, "Error writing tracking journal.", e);
+		} finally {
+			close(out);
+		}
+	}
+
+	private static void close(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				SdkLog.w(TAG, "Error closing tracking journal.");
+			}
+		}
+	}
+
+	private final static class Beacon {
+
+		private final String url;
+
+		private final long created;
+
+		private Beacon(String url, long created) {
+			this.url = url;
+			this.created = created;
+		}
+	}
+
+}
@@ -1,26 +1,19 @@
 package de.guj.ems.mobile.sdk.controllers;
 
-import java.io.BufferedInputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-
-import android.os.Build;
 import de.guj.ems.mobile.sdk.controllers.adserver.AdRequest;
 import de.guj.ems.mobile.sdk.controllers.adserver.IAdResponse;
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+import de.guj.ems.mobile.sdk.util.SdkHttpClient;
 import de.guj.ems.mobile.sdk.util.SdkLog;
 import de.guj.ems.mobile.sdk.util.SdkUtil;
 
 /**
  * Simple class for tracking requests / simple http requests.
  * 
- * Requests are implemented as asynchronous tasks.
+ * Requests are run in the tracker lane of the sdk executor.
  * 
  * Usage: (new TrackingRequest()).execute(url);
  * 
@@ -33,9 +26,12 @@ public class TrackingRequest extends AdRequest {
 
 	private final static String TAG = "TrackingRequest";
 
-	private final static boolean USE_HTTPURLCONNECTION = Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD;
+	private final static Map<String, String> REQUEST_HEADERS = new HashMap<String, String>();
 
-	private final static String USER_AGENT_HEADER_NAME = "User-Agent";
+	static {
+		REQUEST_HEADERS.put(SdkHttpClient.USER_AGENT_HEADER_NAME,
+				SdkUtil.getUserAgent());
+	}
 
 	private TrackingRequest(String securityHeader, int securityHash,
 			IAdResponseHandler handler) {
@@ -50,52 +46,25 @@ public class TrackingRequest extends AdRequest {
 		super(null);
 	}
 
+	@Override
+	protected SdkExecutor.Lane getLane() {
+		return SdkExecutor.Lane.TRACKER;
+	}
+
 	@Override
 	protected IAdResponse httpGet(String url) {
-		// from Gingerbread on it is recommended to use HttpUrlConnection
-		if (TrackingRequest.USE_HTTPURLCONNECTION) {
-			SdkLog.d(TAG, "Younger than Froyo - using HttpUrlConnection.");
-			HttpURLConnection con = null;
-			try {
-				URL uUrl = new URL(url);
-				con = (HttpURLConnection) uUrl.openConnection();
-				con.setRequestProperty(USER_AGENT_HEADER_NAME,
-						SdkUtil.getUserAgent());
-				con.setReadTimeout(2500);
-				con.setConnectTimeout(2500);
-				BufferedInputStream in = new BufferedInputStream(
-						con.getInputStream());
-				if (con.getResponseCode() != 200) {
-					throw new Exception("Server returned HTTP "
-							+ con.getResponseCode());
-				}
-				in.close();
-			} catch (Exception e) {
-				setLastError(e);
-			} finally {
-				if (con != null) {
-					con.disconnect();
-					SdkLog.d(TAG, "Request finished.");
-				}
+		SdkHttpClient.Response response = null;
+		try {
+			response = SdkHttpClient.get(url, REQUEST_HEADERS);
+			if (response.getStatusCode() != 200) {
+				throw new Exception("Server returned HTTP "
+						+ response.getStatusCode());
 			}
-		}
-		// before Gingerbread, DefaultHttpClient should be used
-		else {
-			SdkLog.d(TAG, "Older than Gingerbread - using DefaultHttpClient.");
-			HttpParams httpParameters = new BasicHttpParams();
-			HttpConnectionParams.setConnectionTimeout(httpParameters, 500);
-			HttpConnectionParams.setSoTimeout(httpParameters, 1000);
-			DefaultHttpClient client = new DefaultHttpClient(httpParameters);
-			HttpGet httpGet = new HttpGet(url);
-			httpGet.setHeader(USER_AGENT_HEADER_NAME, SdkUtil.getUserAgent());
-			try {
-				HttpResponse execute = client.execute(httpGet);
-				if (execute.getStatusLine().getStatusCode() != 200) {
-					throw new Exception("Server returned HTTP "
-							+ execute.getStatusLine().getStatusCode());
-				}
-			} catch (Exception e) {
-				setLastError(e);
+		} catch (Exception e) {
+			setLastError(e);
+		} finally {
+			if (response != null) {
+				response.close();
 			}
 			SdkLog.d(TAG, "Request finished.");
 		}
@@ -1,26 +1,36 @@
 package de.guj.ems.mobile.sdk.controllers.adserver;
 
-import android.os.AsyncTask;
-import android.os.Build;
+import java.util.concurrent.Future;
+
+import android.os.Handler;
+import android.os.Looper;
 import de.guj.ems.mobile.sdk.controllers.IAdResponseHandler;
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
 import de.guj.ems.mobile.sdk.util.SdkLog;
 
 /**
  * Performs HTTP communication in the background, i.e. off the UI thread.
  * 
- * Pass the URL to the execute-Method when actually fetching an ad.
+ * Pass the URL to the execute-Method when actually fetching an ad. The request
+ * is run on the sdk executor, the result is passed to the response handler on
+ * the main thread.
  * 
  * @author stein16
  * 
  */
-public abstract class AdRequest extends AsyncTask<String, Void, IAdResponse> {
+public abstract class AdRequest {
 
 	private final String TAG = "AdRequest";
 
+	private final static Handler MAIN_HANDLER = new Handler(
+			Looper.getMainLooper());
+
 	private IAdResponseHandler responseHandler;
 
 	private Throwable lastError;
 
+	private Runnable onComplete;
+
 	@SuppressWarnings("unused")
 	private AdRequest() {
 
@@ -36,14 +46,62 @@ public abstract class AdRequest extends AsyncTask<String, Void, IAdResponse> {
 	 */
 	public AdRequest(IAdResponseHandler handler) {
 		this.responseHandler = handler;
-		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) {
-			System.setProperty("http.keepAlive", "false");
-		}
 	}
 
 	protected abstract IAdResponse httpGet(String url);
 
-	@Override
+	/**
+	 * Lane of the sdk executor the request is run in
+	 * 
+	 * @return executor lane for adserver requests
+	 */
+	protected SdkExecutor.Lane getLane() {
+		return SdkExecutor.Lane.AD_REQUEST;
+	}
+
+	/**
+	 * Perform the request in the background
+	 * 
+	 * @param urls
+	 *            url to request
+	 * @return future of the background task
+	 */
+	public Future<?> execute(final String... urls) {
+		return SdkExecutor.execute(getLane(), new Runnable() {
+			@Override
+			public void run() {
+				final IAdResponse response = doInBackground(urls);
+				MAIN_HANDLER.post(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							onPostExecute(response);
+						} finally {
+							if (onComplete != null) {
+								onComplete.run();
+							}
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Perform the request together with the requests of other ad slots on the
+	 * same page
+	 * 
+	 * @param url
+	 *            url to request
+	 */
+	public void executeBatched(String url) {
+		AdRequestCoordinator.getInstance().add(this, url);
+	}
+
+	void setOnCompleteListener(Runnable r) {
+		this.onComplete = r;
+	}
+
 	protected IAdResponse doInBackground(String... urls) {
 		IAdResponse response = null;
 		for (String url : urls) {
@@ -58,7 +116,6 @@ public abstract class AdRequest extends AsyncTask<String, Void, IAdResponse> {
 		return response;
 	}
 
-	@Override
 	protected void onPostExecute(IAdResponse response) {
 		if (this.responseHandler != null && lastError == null) {
 			SdkLog.d(TAG, "Passing to handler " + responseHandler);
@@ -86,4 +143,4 @@ public abstract class AdRequest extends AsyncTask<String, Void, IAdResponse> {
 		this.lastError = t;
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,176 @@
+package de.guj.ems.mobile.sdk.controllers.adserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import de.guj.ems.mobile.sdk.util.SdkHttpClient;
+import de.guj.ems.mobile.sdk.util.SdkLog;
+
+/**
+ * Page level coordinator for adserver requests of multiple ad slots.
+ *
+ * Requests of all slots loading together (typically all adviews of a layout
+ * being inflated) are collected and issued in parallel, so a page with
+ * several slots does not wait for one round trip after the other. If no other
+ * request is in flight, the batch is issued as soon as the current main
+ * thread message (e.g. the layout pass) is done, so a single slot is not
+ * delayed. Otherwise requests are collected for BATCH_WINDOW.
+ * The requests share the sdk's keep-alive connection pool, at most
+ * SdkHttpClient.MAX_CONNECTIONS_PER_HOST run at the same time. Each response
+ * is passed to its slot's response handler as soon as it arrives.
+ *
+ * A page may also mark its slots explicitly by calling beginPage() before and
+ * endPage() after creating its adviews. Requests are then held until
+ * endPage() is called.
+ *
+ * Usage: AdRequestCoordinator.getInstance().add(request, url);
+ *
+ * @author stein16
+ *
+ */
+public final class AdRequestCoordinator {
+
+	private final static String TAG = "AdRequestCoordinator";
+
+	/**
+	 * Time in milliseconds requests are collected while other requests are in
+	 * flight
+	 */
+	public final static long BATCH_WINDOW = 50;
+
+	private static AdRequestCoordinator instance = null;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private final List<Slot> pending = new ArrayList<Slot>();
+
+	private final List<Slot> queued = new ArrayList<Slot>();
+
+	private int running = 0;
+
+	private int pages = 0;
+
+	private final Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	private AdRequestCoordinator() {
+	}
+
+	public synchronized static AdRequestCoordinator getInstance() {
+		if (AdRequestCoordinator.instance == null) {
+			AdRequestCoordinator.instance = new AdRequestCoordinator();
+		}
+		return AdRequestCoordinator.instance;
+	}
+
+	/**
+	 * Add the request of an ad slot to the current batch
+	 *
+	 * @param request
+	 *            adserver request with the slot's response handler
+	 * @param url
+	 *            request url of the slot
+	 */
+	public synchronized void add(AdRequest request, String url) {
+		pending.add(new Slot(request, url));
+		if (pages == 0 && pending.size() == 1) {
+			if (running == 0 && queued.isEmpty()) {
+				handler.post(flush);
+			} else {
+				handler.postDelayed(flush, BATCH_WINDOW);
+			}
+		}
+	}
+
+	/**
+	 * Hold all ad requests until endPage() is called, e.g. before inflating a
+	 * layout with several adviews
+	 */
+	public synchronized void beginPage() {
+		pages++;
+		handler.removeCallbacks(flush);
+	}
+
+	/**
+	 * Issue all ad requests collected since beginPage()
+	 */
+	public synchronized void endPage() {
+		if (pages > 0 && --pages == 0) {
+			handler.post(flush);
+		}
+	}
+
+	private synchronized void flush() {
+		if (pages > 0 || pending.isEmpty()) {
+			return;
+		}
+		Batch b = new Batch(pending.size());
+		SdkLog.i(TAG, "Issuing " + b.size + " ad request(s) together.");
+		for (Slot s : pending) {
+			s.batch = b;
+			queued.add(s);
+		}
+		pending.clear();
+		issue();
+	}
+
+	private void issue() {
+		while (running < SdkHttpClient.MAX_CONNECTIONS_PER_HOST
+				&& !queued.isEmpty()) {
+			final Slot s = queued.remove(0);
+			running++;
+			s.request.setOnCompleteListener(new Runnable() {
+				@Override
+				public void run() {
+					onComplete(s);
+				}
+			});
+			s.request.execute(s.url);
+		}
+	}
+
+	private synchronized void onComplete(Slot s) {
+		running--;
+		s.batch.done++;
+		if (s.batch.done == s.batch.size && s.batch.size > 1) {
+			SdkLog.i(TAG, "All " + s.batch.size + " ad requests answered in "
+					+ (SystemClock.uptimeMillis() - s.batch.started) + "ms.");
+		}
+		issue();
+	}
+
+	private final static class Batch {
+
+		private final int size;
+
+		private final long started = SystemClock.uptimeMillis();
+
+		private int done;
+
+		private Batch(int size) {
+			this.size = size;
+		}
+	}
+
+	private final static class Slot {
+
+		private final AdRequest request;
+
+		private final String url;
+
+		private Batch batch;
+
+		private Slot(AdRequest request, String url) {
+			this.request = request;
+			this.url = url;
+		}
+	}
+
+}
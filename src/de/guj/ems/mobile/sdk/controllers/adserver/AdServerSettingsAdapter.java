@@ -2,8 +2,8 @@ package de.guj.ems.mobile.sdk.controllers.adserver;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -35,8 +35,6 @@ import de.guj.ems.mobile.sdk.views.GuJEMSAdView;
 public abstract class AdServerSettingsAdapter implements
 		IAdServerSettingsAdapter {
 
-	private String requestQueryString;
-	
 	private static final long serialVersionUID = 314048983271226769L;
 
 	private final static String TAG = "AdServerSettingsAdapter";
@@ -52,6 +50,8 @@ public abstract class AdServerSettingsAdapter implements
 	private IOnAdErrorListener onAdErrorListener = null;
 
 	private final Map<String, String> paramValues;
+
+	private final RequestUrlBuilder urlBuilder;
 	
 	private Context context;
 	
@@ -61,9 +61,9 @@ public abstract class AdServerSettingsAdapter implements
 	private AdServerSettingsAdapter() {
 		this.context = null;
 		this.viewClass = null;
-		this.requestQueryString = null;
-		this.paramValues = new HashMap<String, String>();
-		this.attrsToParams = new HashMap<String, String>();
+		this.paramValues = new LinkedHashMap<String, String>();
+		this.attrsToParams = new LinkedHashMap<String, String>();
+		this.urlBuilder = new RequestUrlBuilder(attrsToParams, paramValues);
 	}
 
 	/**
@@ -77,9 +77,9 @@ public abstract class AdServerSettingsAdapter implements
 	public AdServerSettingsAdapter(Context context, AttributeSet set, Class<?> viewClass) {
 		this.context = context;
 		this.viewClass = viewClass;
-		this.requestQueryString = null;
-		this.paramValues = new HashMap<String, String>();
+		this.paramValues = new LinkedHashMap<String, String>();
 		this.attrsToParams = this.init(set);
+		this.urlBuilder = new RequestUrlBuilder(attrsToParams, paramValues);
 	}
 
 	/**
@@ -93,9 +93,9 @@ public abstract class AdServerSettingsAdapter implements
 	public AdServerSettingsAdapter(Context context, Bundle savedInstance, Class<?> viewClass) {
 		this.context = context;
 		this.viewClass = viewClass;
-		this.requestQueryString = null;
-		this.paramValues = new HashMap<String, String>();
+		this.paramValues = new LinkedHashMap<String, String>();
 		this.attrsToParams = this.init(savedInstance);
+		this.urlBuilder = new RequestUrlBuilder(attrsToParams, paramValues);
 	}
 
 	@Override
@@ -322,30 +322,43 @@ public abstract class AdServerSettingsAdapter implements
 
 	@Override
 	public String getQueryString() {
-		if (this.requestQueryString == null || this.requestQueryString.length() <= 1) { 
-			this.requestQueryString = "";
-			Iterator<String> keys = getAttrsToParams().keySet().iterator();
-			while (keys.hasNext()) {
-				String key = keys.next();
-				String val = paramValues.get(key);
-				String param = attrsToParams.get(key);
-				if (val != null) {
-					SdkLog.d(TAG, "Adding: \"" + val + "\" as \"" + param
-							+ "\" for " + key);
-					this.requestQueryString += "&" + param + "=" + val;
-				}
-			}
-		}
-		return this.requestQueryString;
+		return getSlotQueryString();
+	}
+
+	/**
+	 * Query string containing the ad slot's configured parameters only
+	 * 
+	 * @return query string of the ad slot
+	 */
+	protected final String getSlotQueryString() {
+		return this.urlBuilder.getSlotQuery();
+	}
+
+	/**
+	 * Create a buffer containing the static part of the request url, which
+	 * is only built once per ad slot
+	 * 
+	 * @param dynamicLength
+	 *            expected number of characters appended by the caller
+	 * @return buffer with base url, base query string and slot parameters
+	 */
+	protected final StringBuilder newRequestUrl(int dynamicLength) {
+		return this.urlBuilder.newUrl(getBaseUrlString(),
+				getBaseQueryString(), dynamicLength);
 	}
 
 	@Override
 	public String getRequestUrl() {
-		return getBaseUrlString() + getBaseQueryString() + getQueryString();
+		return newRequestUrl(0).toString();
+	}
+
+	@Override
+	public String getCacheKey() {
+		return getBaseUrlString() + getSlotQueryString();
 	}
 
 	protected final Map<String, String> init(AttributeSet attrs) {
-		Map<String, String> map = new HashMap<String, String>();
+		Map<String, String> map = new LinkedHashMap<String, String>();
 		if (attrs != null) {
 			for (int i = 0; i < attrs.getAttributeCount(); i++) {
 				String attr = attrs.getAttributeName(i);
@@ -392,7 +405,7 @@ public abstract class AdServerSettingsAdapter implements
 
 	protected final Map<String, String> init(Bundle savedInstance) {
 
-		Map<String, String> map = new HashMap<String, String>();
+		Map<String, String> map = new LinkedHashMap<String, String>();
 		if (savedInstance != null && !savedInstance.isEmpty()) {
 			Iterator<String> iterator = savedInstance.keySet().iterator();
 			while (iterator.hasNext()) {
@@ -449,11 +462,13 @@ public abstract class AdServerSettingsAdapter implements
 	@Override
 	public void putAttrToParam(String attr, String param) {
 		this.attrsToParams.put(attr, param);
+		this.urlBuilder.invalidate();
 	}
 
 	@Override
 	public void putAttrValue(String attr, String value) {
 		this.paramValues.put(attr, value);
+		this.urlBuilder.invalidate();
 	}
 
 	@Override
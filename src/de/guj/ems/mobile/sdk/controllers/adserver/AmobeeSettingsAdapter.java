@@ -1,8 +1,5 @@
 package de.guj.ems.mobile.sdk.controllers.adserver;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.os.Bundle;
@@ -10,6 +7,7 @@ import android.util.AttributeSet;
 import de.guj.ems.mobile.sdk.R;
 import de.guj.ems.mobile.sdk.controllers.AdViewConfiguration;
 import de.guj.ems.mobile.sdk.controllers.backfill.BackfillDelegator;
+import de.guj.ems.mobile.sdk.util.DeviceStateMonitor;
 import de.guj.ems.mobile.sdk.util.SdkGlobals;
 import de.guj.ems.mobile.sdk.util.SdkLog;
 import de.guj.ems.mobile.sdk.util.SdkUtil;
@@ -36,22 +34,6 @@ public final class AmobeeSettingsAdapter extends AdServerSettingsAdapter {
 
 	private final static int SECURITY_HEADER_VALUE = 1958013300;
 
-	private final static char STATUS_3G_ON = '3';
-
-	private final static char STATUS_4G_ON = '4';
-
-	private final static char STATUS_GPS_ON = 'g';
-
-	private final static char STATUS_PORTRAIT_MODE = 'p';
-
-	private final static char STATUS_HEADSET_CONNECTED = 'h';
-
-	private final static char STATUS_CHARGER_CONNECTED = 'c';
-
-	private final static char STATUS_WIFI_ON = 'w';
-
-	private final static char STATUS_LANDSCAPE_MODE = 'l';
-
 	private final static String BASE_URL = SdkUtil.getContext().getString(
 			R.string.baseUrl);
 
@@ -61,6 +43,8 @@ public final class AmobeeSettingsAdapter extends AdServerSettingsAdapter {
 
 	private final static String TAG = "AmobeeSettingsAdapter";
 
+	private final static int TIMESTAMP_LENGTH = 16;
+
 	/**
 	 * Constructor with all attributes stored in an AttributeSet
 	 * 
@@ -126,21 +110,13 @@ public final class AmobeeSettingsAdapter extends AdServerSettingsAdapter {
 	}
 
 	private String strArrToString(String[] strs) {
-		try {
-			if (strs != null && strs.length > 0) {
-				String res = new String();
-				for (int i = 0; i < strs.length; i++) {
-					if (i > 0) {
-						res += "%7C" + URLEncoder.encode(strs[i], "utf-8");
-					} else {
-						res = strs[i];
-					}
-				}
-
-				return res;
+		if (strs != null && strs.length > 0) {
+			StringBuilder res = new StringBuilder(strs[0]);
+			for (int i = 1; i < strs.length; i++) {
+				// encoded to %7C by the url builder
+				res.append('|').append(strs[i]);
 			}
-		} catch (UnsupportedEncodingException e) {
-			SdkLog.e(TAG, "Error encoding query string.", e);
+			return res.toString();
 		}
 		return null;
 	}
@@ -322,51 +298,18 @@ public final class AmobeeSettingsAdapter extends AdServerSettingsAdapter {
 
 	@Override
 	public String getRequestUrl() {
-		return super.getRequestUrl() + "&t=" + System.currentTimeMillis();
-	}
-
-	private String getBatteryStatus() {
-		return "&"
-				+ SdkUtil.getContext().getResources()
-						.getString(R.string.bLevelParam) + "="
-				+ SdkUtil.getBatteryLevel();
-	}
-
-	private String getPhoneStatus() {
-		String pStr = "&"
-				+ SdkUtil.getContext().getResources()
-						.getString(R.string.pStatusParam) + "=";
-		if (SdkUtil.is3G()) {
-			pStr += STATUS_3G_ON + ",";
-		}
-		if (SdkUtil.is4G()) {
-			pStr += STATUS_4G_ON + ",";
-		}
-		if (SdkUtil.isGPSActive()) {
-			pStr += STATUS_GPS_ON + ",";
-		}
-		if (SdkUtil.isPortrait()) {
-			pStr += STATUS_PORTRAIT_MODE + ",";
-		} else {
-			pStr += STATUS_LANDSCAPE_MODE + ",";
-		}
-		if (SdkUtil.isHeadsetConnected()) {
-			pStr += STATUS_HEADSET_CONNECTED + ",";
-		}
-		if (SdkUtil.isChargerConnected()) {
-			pStr += STATUS_CHARGER_CONNECTED + ",";
-		}
-		if (SdkUtil.isWifi()) {
-			pStr += STATUS_WIFI_ON;
-		}
-		return pStr.endsWith(",") ? pStr.substring(0, pStr.length() - 1) : pStr;
+		String deviceState = DeviceStateMonitor.getInstance().getState()
+				.getQueryString();
+		return newRequestUrl(deviceState.length() + TIMESTAMP_LENGTH)
+				.append(deviceState).append("&t=")
+				.append(System.currentTimeMillis()).toString();
 	}
 
 	@Override
 	public String getQueryString() {
 		String qStr = super.getQueryString();
-		qStr = qStr.concat(getPhoneStatus());
-		qStr = qStr.concat(getBatteryStatus());
+		qStr = qStr.concat(DeviceStateMonitor.getInstance().getState()
+				.getQueryString());
 		return qStr;
 	}
 
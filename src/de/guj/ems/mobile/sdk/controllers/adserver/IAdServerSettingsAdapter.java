@@ -189,4 +189,12 @@ public interface IAdServerSettingsAdapter extends Serializable {
 	 */
 	public void addCustomParams(Map<String, ?> params);
 
+	/**
+	 * Key identifying the ad slot (zone, site and custom params) independent
+	 * of volatile request parameters like timestamp or device state
+	 * 
+	 * @return key for caching responses of this ad slot
+	 */
+	public String getCacheKey();
+
 }
@@ -0,0 +1,140 @@
+package de.guj.ems.mobile.sdk.controllers.adserver;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Iterator;
+import java.util.Map;
+
+import de.guj.ems.mobile.sdk.util.SdkLog;
+
+/**
+ * Builds ad server request urls from an ad slot's parameters.
+ *
+ * The static part of the url (base url, base parameters and the slot's
+ * parameters) is encoded once and cached until a parameter changes. Request
+ * urls are created in a presized buffer containing the static part, so only
+ * dynamic values (device state, timestamp) have to be appended per request.
+ * Parameters are appended in the order they were added to the slot.
+ *
+ * @author stein16
+ *
+ */
+public final class RequestUrlBuilder implements Serializable {
+
+	private static final long serialVersionUID = -2187372465098014365L;
+
+	private final static String TAG = "RequestUrlBuilder";
+
+	private final static String CHARSET = "utf-8";
+
+	private final Map<String, String> attrsToParams;
+
+	private final Map<String, String> paramValues;
+
+	private transient String slotQuery;
+
+	private transient String prefix;
+
+	/**
+	 * Create a builder for an ad slot
+	 *
+	 * @param attrsToParams
+	 *            mapping of attribute names to request parameter names
+	 * @param paramValues
+	 *            mapping of attribute names to unencoded values
+	 */
+	public RequestUrlBuilder(Map<String, String> attrsToParams,
+			Map<String, String> paramValues) {
+		this.attrsToParams = attrsToParams;
+		this.paramValues = paramValues;
+	}
+
+	/**
+	 * Drop the cached static part after a parameter was changed
+	 */
+	public synchronized void invalidate() {
+		this.slotQuery = null;
+		this.prefix = null;
+	}
+
+	/**
+	 * Encoded query string of the ad slot's parameters
+	 *
+	 * @return query string starting with an ampersand or an empty string
+	 */
+	public synchronized String getSlotQuery() {
+		if (this.slotQuery == null) {
+			StringBuilder sb = new StringBuilder(32 * paramValues.size());
+			Iterator<Map.Entry<String, String>> i = attrsToParams.entrySet()
+					.iterator();
+			while (i.hasNext()) {
+				Map.Entry<String, String> e = i.next();
+				String val = paramValues.get(e.getKey());
+				if (val != null) {
+					SdkLog.d(TAG, "Adding: \"" + val + "\" as \""
+							+ e.getValue() + "\" for " + e.getKey());
+					appendParam(sb, e.getValue(), val);
+				}
+			}
+			this.slotQuery = sb.toString();
+		}
+		return this.slotQuery;
+	}
+
+	/**
+	 * Create a buffer containing the static part of the request url
+	 *
+	 * @param baseUrl
+	 *            the ad server's base url
+	 * @param baseQuery
+	 *            the ad server's base query string
+	 * @param dynamicLength
+	 *            expected number of characters appended by the caller
+	 * @return buffer with the static part of the url
+	 */
+	public StringBuilder newUrl(String baseUrl, String baseQuery,
+			int dynamicLength) {
+		String p = null;
+		synchronized (this) {
+			if (this.prefix == null) {
+				this.prefix = baseUrl + baseQuery + getSlotQuery();
+			}
+			p = this.prefix;
+		}
+		return new StringBuilder(p.length() + dynamicLength).append(p);
+	}
+
+	/**
+	 * Append an encoded parameter to a query string
+	 *
+	 * @param sb
+	 *            the query string
+	 * @param param
+	 *            name of the parameter
+	 * @param value
+	 *            unencoded value
+	 * @return the query string
+	 */
+	public static StringBuilder appendParam(StringBuilder sb, String param,
+			String value) {
+		return sb.append('&').append(param).append('=').append(encode(value));
+	}
+
+	/**
+	 * Encode a parameter value
+	 *
+	 * @param value
+	 *            unencoded value
+	 * @return url encoded value
+	 */
+	public static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			SdkLog.e(TAG, "Error encoding query string.", e);
+			return value;
+		}
+	}
+
+}
@@ -72,7 +72,7 @@ public final class SmartstreamEvents {
 			url += "&t=" + System.currentTimeMillis() + "&as=" + event
 					+ "&plmid=" + placement;
 			try {
-				SdkUtil.adRequest(null).execute(url);
+				SdkUtil.httpRequest(url);
 			} catch (Exception e) {
 				SdkLog.e(TAG, "Error sending tracking event to AdServer", e);
 			}
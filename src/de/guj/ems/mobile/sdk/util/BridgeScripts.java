@@ -0,0 +1,251 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+
+/**
+ * Javascript bridge libraries (ORMMA and MRAID) of the sdk.
+ *
+ * Reading a resource from the sdk jar scans the application package, so the
+ * scripts are only extracted once per sdk version. They are stripped of
+ * comments and indentation and written to a versioned directory together with
+ * a checksum; later launches read the cached file and only extract again if
+ * the checksum does not match. The scripts are kept in memory and injected
+ * inline into ad documents. The cached files remain available for creatives
+ * referencing the scripts by name.
+ *
+ * Usage: BridgeScripts.getInstance(context).getInlineTag(BridgeScripts.MRAID);
+ *
+ * @author stein16
+ *
+ */
+public final class BridgeScripts {
+
+	private final static String TAG = "BridgeScripts";
+
+	/**
+	 * Resource name of the ORMMA bridge script
+	 */
+	public final static String ORMMA_BRIDGE = "/js/ormma_bridge.js";
+
+	/**
+	 * Resource name of the ORMMA script
+	 */
+	public final static String ORMMA = "/js/ormma.js";
+
+	/**
+	 * Resource name of the MRAID script
+	 */
+	public final static String MRAID = "/js/mraid.js";
+
+	private final static String DIRECTORY_PREFIX = "ems_js_";
+
+	private final static String CHECKSUM_PREFIX = "// crc32:";
+
+	private static BridgeScripts instance = null;
+
+	private final File root;
+
+	private final Map<String, String> scripts = new HashMap<String, String>();
+
+	private final Map<String, String> tags = new HashMap<String, String>();
+
+	/**
+	 * Get the bridge scripts of the application
+	 *
+	 * @param c
+	 *            android context
+	 * @return the bridge scripts
+	 */
+	public synchronized static BridgeScripts getInstance(Context c) {
+		if (BridgeScripts.instance == null) {
+			BridgeScripts.instance = new BridgeScripts(
+					c.getApplicationContext());
+		}
+		return BridgeScripts.instance;
+	}
+
+	private BridgeScripts(Context c) {
+		File files = c.getFilesDir();
+		this.root = new File(files, DIRECTORY_PREFIX + SdkUtil.VERSION_STR);
+		// scripts of previous sdk versions
+		File[] dirs = files.listFiles();
+		if (dirs != null) {
+			for (File d : dirs) {
+				if (d.getName().startsWith(DIRECTORY_PREFIX) && !d.equals(root)) {
+					delete(d);
+				}
+			}
+		}
+		this.root.mkdirs();
+	}
+
+	/**
+	 * Get the content of a script
+	 *
+	 * @param name
+	 *            resource name of the script, e.g. BridgeScripts.ORMMA
+	 * @return the minified script or null if it could not be read
+	 */
+	public synchronized String getScript(String name) {
+		String script = scripts.get(name);
+		if (script == null) {
+			script = load(name);
+			if (script != null) {
+				scripts.put(name, script);
+			}
+		}
+		return script;
+	}
+
+	/**
+	 * Get the path of the cached script file
+	 *
+	 * @param name
+	 *            resource name of the script, e.g. BridgeScripts.ORMMA
+	 * @return absolute path of the file or null if it could not be written
+	 */
+	public synchronized String getPath(String name) {
+		File f = getFile(name);
+		return getScript(name) != null && f.exists() ? f.getAbsolutePath()
+				: null;
+	}
+
+	/**
+	 * Get a single inline script element containing one or more scripts
+	 *
+	 * @param names
+	 *            resource names of the scripts in the order of execution
+	 * @return html script element
+	 */
+	public synchronized String getInlineTag(String... names) {
+		StringBuilder key = new StringBuilder();
+		for (String name : names) {
+			key.append(name);
+		}
+		String tag = tags.get(key.toString());
+		if (tag == null) {
+			StringBuilder sb = new StringBuilder(
+					"<script type=\"text/javascript\">");
+			for (String name : names) {
+				String script = getScript(name);
+				if (script != null) {
+					sb.append(script).append('\n');
+				}
+			}
+			sb.append("</script>");
+			tag = sb.toString();
+			tags.put(key.toString(), tag);
+		}
+		return tag;
+	}
+
+	private File getFile(String name) {
+		return new File(root, name.substring(name.lastIndexOf('/') + 1));
+	}
+
+	private String load(String name) {
+		File f = getFile(name);
+		if (f.exists()) {
+			try {
+				String cached = read(new FileInputStream(f));
+				int eol = cached.indexOf('\n');
+				if (eol > 0
+						&& cached.startsWith(CHECKSUM_PREFIX)
+						&& cached.substring(CHECKSUM_PREFIX.length(), eol)
+								.equals(checksum(cached.substring(eol + 1)))) {
+					return cached.substring(eol + 1);
+				}
+				SdkLog.w(TAG, "Checksum mismatch for " + f + ", extracting.");
+			} catch (IOException e) {
+				SdkLog.e(TAG, "Error reading " + f, e);
+			}
+		}
+		InputStream in = BridgeScripts.class.getResourceAsStream(name);
+		if (in == null) {
+			SdkLog.e(TAG, "Script " + name + " not found.");
+			return null;
+		}
+		try {
+			String script = minify(read(in));
+			write(f, CHECKSUM_PREFIX + checksum(script) + "\n" + script);
+			SdkLog.i(TAG, "Extracted " + name + " [" + script.length() + "]");
+			return script;
+		} catch (IOException e) {
+			SdkLog.e(TAG, "Error extracting " + name, e);
+			f.delete();
+			return null;
+		}
+	}
+
+	private static String minify(String script) {
+		// line based only: lines are kept since statements may lack semicolons
+		StringBuilder sb = new StringBuilder(script.length());
+		boolean comment = false;
+		for (String line : script.split("\r?\n")) {
+			String l = line.trim();
+			if (comment) {
+				comment = l.indexOf("*/") < 0;
+			} else if (l.startsWith("/*") && l.indexOf("*/", 2) < 0) {
+				comment = true;
+			} else if (l.length() > 0 && !l.startsWith("//")
+					&& !(l.startsWith("/*") && l.endsWith("*/"))) {
+				sb.append(l).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String checksum(String s) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(s.getBytes("UTF-8"));
+		return Long.toHexString(crc.getValue());
+	}
+
+	private static String read(InputStream in) throws IOException {
+		BufferedReader r = new BufferedReader(new InputStreamReader(in,
+				"UTF-8"), 8192);
+		try {
+			StringBuilder sb = new StringBuilder();
+			char[] buf = new char[4096];
+			int n;
+			while ((n = r.read(buf)) > 0) {
+				sb.append(buf, 0, n);
+			}
+			return sb.toString();
+		} finally {
+			r.close();
+		}
+	}
+
+	private static void write(File f, String s) throws IOException {
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(s.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File c : children) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+}
@@ -0,0 +1,349 @@
+package de.guj.ems.mobile.sdk.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ReceiverCallNotAllowedException;
+import android.location.LocationManager;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import de.guj.ems.mobile.sdk.R;
+import de.guj.ems.mobile.sdk.controllers.TrackingDispatcher;
+
+/**
+ * Keeps a snapshot of the device state used for ad request targeting.
+ *
+ * The monitor subscribes once to connectivity, battery, headset, location
+ * provider and configuration broadcasts and updates only the values affected
+ * by a broadcast. Connectivity changes are also passed to the
+ * TrackingDispatcher. Every update publishes a new immutable DeviceState which
+ * carries the precomputed query string fragment, so building a request url
+ * does not query any system service.
+ *
+ * If the receivers cannot be registered (e.g. when called from within a
+ * broadcast receiver), the state is polled on every call until registration
+ * succeeds.
+ *
+ * Usage: DeviceStateMonitor.getInstance().getState().getQueryString();
+ *
+ * @author stein16
+ *
+ */
+public class DeviceStateMonitor {
+
+	private final static String TAG = "DeviceStateMonitor";
+
+	private final static char STATUS_3G_ON = '3';
+
+	private final static char STATUS_4G_ON = '4';
+
+	private final static char STATUS_GPS_ON = 'g';
+
+	private final static char STATUS_PORTRAIT_MODE = 'p';
+
+	private final static char STATUS_HEADSET_CONNECTED = 'h';
+
+	private final static char STATUS_CHARGER_CONNECTED = 'c';
+
+	private final static char STATUS_WIFI_ON = 'w';
+
+	private final static char STATUS_LANDSCAPE_MODE = 'l';
+
+	private final static int DEFAULT_BATTERY_LEVEL = 100;
+
+	private static DeviceStateMonitor instance = null;
+
+	private volatile DeviceState state;
+
+	private boolean registered = false;
+
+	private boolean wifi;
+
+	private boolean mobile3G;
+
+	private boolean mobile4G;
+
+	private boolean gps;
+
+	private boolean portrait;
+
+	private boolean headset;
+
+	private boolean charger;
+
+	private int batteryLevel = DEFAULT_BATTERY_LEVEL;
+
+	private final BroadcastReceiver receiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			String action = intent.getAction();
+			synchronized (DeviceStateMonitor.this) {
+				if (ConnectivityManager.CONNECTIVITY_ACTION.equals(action)) {
+					pollConnectivity();
+				} else if (Intent.ACTION_BATTERY_CHANGED.equals(action)) {
+					readBattery(intent);
+				} else if (Intent.ACTION_HEADSET_PLUG.equals(action)) {
+					headset = intent.getIntExtra("state", 0) == 1;
+				} else if (LocationManager.PROVIDERS_CHANGED_ACTION
+						.equals(action)) {
+					gps = SdkUtil.isGPSActive();
+				} else if (Intent.ACTION_CONFIGURATION_CHANGED.equals(action)) {
+					portrait = SdkUtil.isPortrait();
+				}
+				publish();
+			}
+			if (ConnectivityManager.CONNECTIVITY_ACTION.equals(action)) {
+				// resend pending tracking pixels once we are back online
+				TrackingDispatcher.getInstance().onConnectivityChanged();
+			}
+		}
+	};
+
+	/**
+	 * Get the device state monitor, registering its receivers on first use
+	 *
+	 * @return the device state monitor
+	 */
+	public synchronized static DeviceStateMonitor getInstance() {
+		if (DeviceStateMonitor.instance == null) {
+			DeviceStateMonitor.instance = new DeviceStateMonitor();
+		}
+		return DeviceStateMonitor.instance;
+	}
+
+	private DeviceStateMonitor() {
+		poll();
+		register();
+	}
+
+	/**
+	 * Get the current device state
+	 *
+	 * @return immutable snapshot of the device state
+	 */
+	public DeviceState getState() {
+		if (!registered) {
+			synchronized (this) {
+				if (!register()) {
+					poll();
+				}
+			}
+		}
+		return state;
+	}
+
+	private synchronized boolean register() {
+		if (registered) {
+			return true;
+		}
+		try {
+			Context c = SdkUtil.getContext().getApplicationContext();
+			c.registerReceiver(receiver, new IntentFilter(
+					ConnectivityManager.CONNECTIVITY_ACTION));
+			c.registerReceiver(receiver, new IntentFilter(
+					Intent.ACTION_CONFIGURATION_CHANGED));
+			c.registerReceiver(receiver, new IntentFilter(
+					LocationManager.PROVIDERS_CHANGED_ACTION));
+			// sticky broadcasts, the current state is delivered immediately
+			c.registerReceiver(receiver, new IntentFilter(
+					Intent.ACTION_HEADSET_PLUG));
+			Intent battery = c.registerReceiver(receiver, new IntentFilter(
+					Intent.ACTION_BATTERY_CHANGED));
+			if (battery != null) {
+				readBattery(battery);
+			}
+			registered = true;
+			publish();
+			SdkLog.d(TAG, "Device state receivers registered.");
+		} catch (ReceiverCallNotAllowedException e) {
+			SdkLog.w(TAG,
+					"Skipping start of phone status receivers from broadcast receiver.");
+			unregister();
+		} catch (Exception e) {
+			SdkLog.e(TAG, "Error registering device state receivers.", e);
+			unregister();
+		}
+		return registered;
+	}
+
+	private void unregister() {
+		try {
+			SdkUtil.getContext().getApplicationContext()
+					.unregisterReceiver(receiver);
+		} catch (Exception e) {
+			// receiver was not registered at all
+		}
+	}
+
+	private void poll() {
+		pollConnectivity();
+		gps = SdkUtil.isGPSActive();
+		portrait = SdkUtil.isPortrait();
+		headset = SdkUtil.isHeadsetConnected();
+		publish();
+	}
+
+	private void pollConnectivity() {
+		wifi = SdkUtil.isWifi();
+		mobile3G = SdkUtil.is3G();
+		mobile4G = SdkUtil.is4G();
+	}
+
+	private void readBattery(Intent intent) {
+		int cp = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
+		charger = cp == BatteryManager.BATTERY_PLUGGED_AC
+		// || cp == BatteryManager.BATTERY_PLUGGED_WIRELESS
+				|| cp == BatteryManager.BATTERY_PLUGGED_USB;
+		int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+		int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+		if (level >= 0 && scale > 0) {
+			batteryLevel = (int) (100.0f * (level / (float) scale));
+		}
+	}
+
+	private void publish() {
+		state = new DeviceState(wifi, mobile3G, mobile4G, gps, portrait,
+				headset, charger, batteryLevel);
+	}
+
+	/**
+	 * Immutable snapshot of the device state
+	 *
+	 * @author stein16
+	 *
+	 */
+	public final static class DeviceState {
+
+		private final boolean wifi;
+
+		private final boolean mobile3G;
+
+		private final boolean mobile4G;
+
+		private final boolean gps;
+
+		private final boolean portrait;
+
+		private final boolean headset;
+
+		private final boolean charger;
+
+		private final int batteryLevel;
+
+		private final String queryString;
+
+		private DeviceState(boolean wifi, boolean mobile3G, boolean mobile4G,
+				boolean gps, boolean portrait, boolean headset,
+				boolean charger, int batteryLevel) {
+			this.wifi = wifi;
+			this.mobile3G = mobile3G;
+			this.mobile4G = mobile4G;
+			this.gps = gps;
+			this.portrait = portrait;
+			this.headset = headset;
+			this.charger = charger;
+			this.batteryLevel = batteryLevel;
+			this.queryString = buildQueryString();
+		}
+
+		private String buildQueryString() {
+			StringBuilder sb = new StringBuilder(32);
+			sb.append('&')
+					.append(SdkUtil.getContext().getResources()
+							.getString(R.string.pStatusParam)).append('=');
+			if (mobile3G) {
+				sb.append(STATUS_3G_ON).append(',');
+			}
+			if (mobile4G) {
+				sb.append(STATUS_4G_ON).append(',');
+			}
+			if (gps) {
+				sb.append(STATUS_GPS_ON).append(',');
+			}
+			sb.append(portrait ? STATUS_PORTRAIT_MODE : STATUS_LANDSCAPE_MODE)
+					.append(',');
+			if (headset) {
+				sb.append(STATUS_HEADSET_CONNECTED).append(',');
+			}
+			if (charger) {
+				sb.append(STATUS_CHARGER_CONNECTED).append(',');
+			}
+			if (wifi) {
+				sb.append(STATUS_WIFI_ON).append(',');
+			}
+			sb.setLength(sb.length() - 1);
+			sb.append('&')
+					.append(SdkUtil.getContext().getResources()
+							.getString(R.string.bLevelParam)).append('=')
+					.append(batteryLevel);
+			return sb.toString();
+		}
+
+		/**
+		 * Phone status and battery level as query string fragment
+		 *
+		 * @return query string fragment starting with an ampersand
+		 */
+		public String getQueryString() {
+			return queryString;
+		}
+
+		/**
+		 * @return true if the device is connected via wifi
+		 */
+		public boolean isWifi() {
+			return wifi;
+		}
+
+		/**
+		 * @return true if the device has a mobile 3G connection
+		 */
+		public boolean is3G() {
+			return mobile3G;
+		}
+
+		/**
+		 * @return true if the device has a mobile 4G connection
+		 */
+		public boolean is4G() {
+			return mobile4G;
+		}
+
+		/**
+		 * @return true if GPS is active
+		 */
+		public boolean isGPSActive() {
+			return gps;
+		}
+
+		/**
+		 * @return true if the device is in portrait mode
+		 */
+		public boolean isPortrait() {
+			return portrait;
+		}
+
+		/**
+		 * @return true if a headset is connected
+		 */
+		public boolean isHeadsetConnected() {
+			return headset;
+		}
+
+		/**
+		 * @return true if a charger is connected
+		 */
+		public boolean isChargerConnected() {
+			return charger;
+		}
+
+		/**
+		 * @return battery charge level in percent [0..100]
+		 */
+		public int getBatteryLevel() {
+			return batteryLevel;
+		}
+	}
+
+}
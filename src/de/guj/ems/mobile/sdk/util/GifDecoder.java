@@ -0,0 +1,402 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.graphics.Bitmap;
+
+/**
+ * Incremental decoder for (animated) GIF images.
+ *
+ * The constructor only reads the headers of all frames. Frames are decoded
+ * one at a time by advance(), which composes the next frame according to its
+ * disposal method and copies the result into a bitmap of the image's size.
+ * An instance is not thread safe and must be used by one thread at a time.
+ *
+ * Usage: GifDecoder d = new GifDecoder(data); d.advance(bitmap);
+ *
+ * @author stein16
+ *
+ */
+public final class GifDecoder {
+
+	private final static int MAX_CODES = 4096;
+
+	/**
+	 * Delay of frames without (or with a too short) delay in milliseconds
+	 */
+	public final static int DEFAULT_DELAY = 100;
+
+	private final static int MIN_DELAY = 20;
+
+	private final static int DISPOSAL_BACKGROUND = 2;
+
+	private final static int DISPOSAL_PREVIOUS = 3;
+
+	private final byte[] data;
+
+	private final int width;
+
+	private final int height;
+
+	private final int[] globalColors;
+
+	private final List<Frame> frames = new ArrayList<Frame>();
+
+	private int loopCount = 1;
+
+	private int pos;
+
+	private int current = -1;
+
+	private int[] canvas;
+
+	private int[] previous;
+
+	private byte[] indices;
+
+	private final short[] prefix = new short[MAX_CODES];
+
+	private final byte[] suffix = new byte[MAX_CODES];
+
+	private final byte[] stack = new byte[MAX_CODES + 1];
+
+	/**
+	 * Read the headers of a GIF image
+	 *
+	 * @param data
+	 *            content of the GIF file
+	 * @throws IOException
+	 *             if the data is not a GIF image or contains no frame
+	 */
+	public GifDecoder(byte[] data) throws IOException {
+		this.data = data;
+		if (data.length < 13 || data[0] != 'G' || data[1] != 'I'
+				|| data[2] != 'F') {
+			throw new IOException("Not a GIF image.");
+		}
+		pos = 6;
+		width = readShort();
+		height = readShort();
+		int packed = read();
+		pos += 2; // background color and aspect ratio
+		globalColors = (packed & 0x80) != 0 ? readColors(2 << (packed & 7))
+				: null;
+		readFrames();
+		if (frames.isEmpty() || width <= 0 || height <= 0) {
+			throw new IOException("GIF image without frames.");
+		}
+	}
+
+	/**
+	 * @return width of the image in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the image in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return number of frames
+	 */
+	public int getFrameCount() {
+		return frames.size();
+	}
+
+	/**
+	 * @return number of times the animation is played, 0 for infinite
+	 */
+	public int getLoopCount() {
+		return loopCount;
+	}
+
+	/**
+	 * Get the display time of a frame
+	 *
+	 * @param n
+	 *            frame index
+	 * @return delay in milliseconds before the next frame is shown
+	 */
+	public int getDelay(int n) {
+		int delay = frames.get(n).delay;
+		return delay < MIN_DELAY ? DEFAULT_DELAY : delay;
+	}
+
+	/**
+	 * Decode the next frame, starting over after the last one
+	 *
+	 * @param target
+	 *            mutable ARGB_8888 bitmap of the image's size receiving the
+	 *            composed frame
+	 * @return index of the decoded frame
+	 */
+	public int advance(Bitmap target) {
+		if (canvas == null) {
+			canvas = new int[width * height];
+		}
+		if (current >= 0) {
+			dispose(frames.get(current));
+		}
+		current = (current + 1) % frames.size();
+		if (current == 0) {
+			Arrays.fill(canvas, 0);
+		}
+		Frame f = frames.get(current);
+		if (f.disposal == DISPOSAL_PREVIOUS) {
+			if (previous == null) {
+				previous = new int[canvas.length];
+			}
+			System.arraycopy(canvas, 0, previous, 0, canvas.length);
+		}
+		draw(f);
+		target.setPixels(canvas, 0, width, 0, 0, width, height);
+		return current;
+	}
+
+	private void readFrames() {
+		int disposal = 0;
+		int delay = 0;
+		int transparent = -1;
+		while (pos < data.length) {
+			int block = read();
+			if (block == 0x2C) {
+				Frame f = new Frame();
+				f.x = readShort();
+				f.y = readShort();
+				f.width = readShort();
+				f.height = readShort();
+				int packed = read();
+				f.interlaced = (packed & 0x40) != 0;
+				f.colors = (packed & 0x80) != 0 ? readColors(2 << (packed & 7))
+						: globalColors;
+				f.disposal = disposal;
+				f.delay = delay;
+				f.transparent = transparent;
+				f.dataStart = pos;
+				pos++; // lzw minimum code size
+				skipBlocks();
+				if (f.colors != null && f.width > 0 && f.height > 0) {
+					frames.add(f);
+				}
+				disposal = 0;
+				delay = 0;
+				transparent = -1;
+			} else if (block == 0x21) {
+				int label = read();
+				if (label == 0xF9) {
+					// graphic control extension
+					pos++; // block size
+					int packed = read();
+					disposal = (packed & 0x1C) >> 2;
+					delay = readShort() * 10;
+					int index = read();
+					transparent = (packed & 1) != 0 ? index : -1;
+					skipBlocks();
+				} else if (label == 0xFF) {
+					// application extension, NETSCAPE2.0 holds the loop count
+					int size = read();
+					boolean netscape = size == 11
+							&& pos + 11 <= data.length
+							&& new String(data, pos, 8).equals("NETSCAPE");
+					pos += size;
+					if (netscape && pos + 4 < data.length
+							&& data[pos] == 3 && data[pos + 1] == 1) {
+						loopCount = (data[pos + 2] & 0xff)
+								| ((data[pos + 3] & 0xff) << 8);
+					}
+					skipBlocks();
+				} else {
+					skipBlocks();
+				}
+			} else {
+				// trailer or corrupt data
+				break;
+			}
+		}
+	}
+
+	private void dispose(Frame f) {
+		if (f.disposal == DISPOSAL_BACKGROUND) {
+			int right = Math.min(width, f.x + f.width);
+			int bottom = Math.min(height, f.y + f.height);
+			for (int y = f.y; y < bottom; y++) {
+				Arrays.fill(canvas, y * width + f.x, y * width
+						+ Math.max(f.x, right), 0);
+			}
+		} else if (f.disposal == DISPOSAL_PREVIOUS && previous != null) {
+			System.arraycopy(previous, 0, canvas, 0, canvas.length);
+		}
+	}
+
+	private void draw(Frame f) {
+		int n = f.width * f.height;
+		if (indices == null || indices.length < n) {
+			indices = new byte[n];
+		}
+		decodeIndices(f, n);
+		int pass = 0;
+		int step = f.interlaced ? 8 : 1;
+		int row = 0;
+		for (int i = 0; i < f.height; i++) {
+			int line = i;
+			if (f.interlaced) {
+				if (row >= f.height) {
+					pass++;
+					row = pass == 1 ? 4 : (pass == 2 ? 2 : 1);
+					step = pass == 1 ? 8 : (pass == 2 ? 4 : 2);
+				}
+				line = row;
+				row += step;
+			}
+			int y = f.y + line;
+			if (y >= height) {
+				continue;
+			}
+			int src = i * f.width;
+			int dst = y * width + f.x;
+			int end = Math.min(f.width, width - f.x);
+			for (int x = 0; x < end; x++) {
+				int index = indices[src + x] & 0xff;
+				if (index != f.transparent && index < f.colors.length) {
+					canvas[dst + x] = f.colors[index];
+				}
+			}
+		}
+	}
+
+	private void decodeIndices(Frame f, int n) {
+		pos = f.dataStart;
+		int minCodeSize = read();
+		int clear = 1 << minCodeSize;
+		int end = clear + 1;
+		int codeSize = minCodeSize + 1;
+		int codeMask = (1 << codeSize) - 1;
+		int available = clear + 2;
+		int oldCode = -1;
+		for (int code = 0; code < clear && code < MAX_CODES; code++) {
+			prefix[code] = 0;
+			suffix[code] = (byte) code;
+		}
+		int datum = 0;
+		int bits = 0;
+		int count = 0;
+		int first = 0;
+		int top = 0;
+		int i = 0;
+		while (i < n) {
+			if (top == 0) {
+				if (bits < codeSize) {
+					if (count == 0) {
+						count = read();
+						if (count <= 0) {
+							break;
+						}
+					}
+					datum += read() << bits;
+					bits += 8;
+					count--;
+					continue;
+				}
+				int code = datum & codeMask;
+				datum >>= codeSize;
+				bits -= codeSize;
+				if (code > available || code == end) {
+					break;
+				}
+				if (code == clear) {
+					codeSize = minCodeSize + 1;
+					codeMask = (1 << codeSize) - 1;
+					available = clear + 2;
+					oldCode = -1;
+					continue;
+				}
+				if (oldCode == -1) {
+					stack[top++] = suffix[code];
+					oldCode = code;
+					first = code;
+					continue;
+				}
+				int inCode = code;
+				if (code == available) {
+					stack[top++] = (byte) first;
+					code = oldCode;
+				}
+				while (code > clear) {
+					stack[top++] = suffix[code];
+					code = prefix[code];
+				}
+				first = suffix[code] & 0xff;
+				stack[top++] = (byte) first;
+				if (available < MAX_CODES) {
+					prefix[available] = (short) oldCode;
+					suffix[available] = (byte) first;
+					available++;
+					if ((available & codeMask) == 0 && available < MAX_CODES) {
+						codeSize++;
+						codeMask += available;
+					}
+				}
+				oldCode = inCode;
+			}
+			indices[i++] = stack[--top];
+		}
+		// missing pixels of truncated frames are transparent if possible
+		Arrays.fill(indices, i, n,
+				(byte) (f.transparent >= 0 ? f.transparent : 0));
+	}
+
+	private int[] readColors(int n) {
+		int[] colors = new int[n];
+		for (int i = 0; i < n && pos + 2 < data.length; i++) {
+			colors[i] = 0xFF000000 | (read() << 16) | (read() << 8) | read();
+		}
+		return colors;
+	}
+
+	private void skipBlocks() {
+		int size = 0;
+		while (pos < data.length && (size = read()) > 0) {
+			pos += size;
+		}
+	}
+
+	private int read() {
+		return pos < data.length ? data[pos++] & 0xff : -1;
+	}
+
+	private int readShort() {
+		return read() | (read() << 8);
+	}
+
+	private final static class Frame {
+
+		private int x;
+
+		private int y;
+
+		private int width;
+
+		private int height;
+
+		private boolean interlaced;
+
+		private int[] colors;
+
+		private int disposal;
+
+		private int delay;
+
+		private int transparent;
+
+		private int dataStart;
+	}
+
+}
@@ -0,0 +1,237 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.View;
+
+/**
+ * Single refresh scheduler for all ad slots of the sdk.
+ *
+ * All slots are refreshed from one runnable on the main looper instead of a
+ * timer thread per view. A due slot is only refreshed while its view is
+ * viewable (as reported by the ViewabilityTracker) and attached to a visible
+ * window; slots of invisible, detached or backgrounded views are paused and
+ * refreshed as soon as they become viewable again. Slots becoming due within ALIGN_WINDOW are refreshed
+ * together to batch network wakeups. After empty or failed responses the
+ * period is doubled up to MAX_BACKOFF. Views usually hide themselves after an
+ * empty response, so such slots are refreshed while their view is attached
+ * to a visible window even if the view itself is not viewable.
+ *
+ * Views are referenced weakly. Methods may be called from any thread, slots
+ * are refreshed on the main thread.
+ *
+ * Usage: RefreshScheduler.getInstance().start(view, 60000);
+ *
+ * @author stein16
+ *
+ */
+public final class RefreshScheduler {
+
+	private final static String TAG = "RefreshScheduler";
+
+	/**
+	 * Slots due within this time in milliseconds are refreshed together
+	 */
+	public final static long ALIGN_WINDOW = 10000;
+
+	/**
+	 * Maximum refresh period in milliseconds after empty responses
+	 */
+	public final static long MAX_BACKOFF = 10 * 60 * 1000;
+
+	private final static int MAX_BACKOFF_STEPS = 4;
+
+	private static RefreshScheduler instance = null;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private final WeakHashMap<View, Entry> entries = new WeakHashMap<View, Entry>();
+
+	private final Runnable tick = new Runnable() {
+		@Override
+		public void run() {
+			refreshDue();
+		}
+	};
+
+	/**
+	 * Interface for views which can be refreshed by the scheduler
+	 *
+	 * @author stein16
+	 *
+	 */
+	public interface Refreshable {
+
+		/**
+		 * Request and display a new ad. Called on the main thread, the view
+		 * must restart the scheduler once the response was handled.
+		 */
+		void refresh();
+	}
+
+	private RefreshScheduler() {
+	}
+
+	public synchronized static RefreshScheduler getInstance() {
+		if (RefreshScheduler.instance == null) {
+			RefreshScheduler.instance = new RefreshScheduler();
+		}
+		return RefreshScheduler.instance;
+	}
+
+	/**
+	 * Schedule the next refresh of a slot after an ad was displayed
+	 *
+	 * @param view
+	 *            ad view of the slot
+	 * @param period
+	 *            refresh period in milliseconds, 0 or less to stop refreshing
+	 */
+	public <T extends View & Refreshable> void start(T view, long period) {
+		schedule(view, period, false);
+	}
+
+	/**
+	 * Schedule the next refresh of a slot after an empty or failed response.
+	 * The period is doubled for each consecutive call.
+	 *
+	 * @param view
+	 *            ad view of the slot
+	 * @param period
+	 *            regular refresh period in milliseconds, 0 or less to stop
+	 *            refreshing
+	 */
+	public <T extends View & Refreshable> void backoff(T view, long period) {
+		schedule(view, period, true);
+	}
+
+	/**
+	 * Stop refreshing a slot
+	 *
+	 * @param view
+	 *            ad view of the slot
+	 */
+	public synchronized void stop(View view) {
+		Entry e = entries.get(view);
+		if (e != null && e.due >= 0) {
+			e.due = -1;
+			reschedule();
+		}
+	}
+
+	/**
+	 * Update the viewable state of an ad view. Refreshes which became due
+	 * while the view was not viewable are performed once it is viewable again.
+	 *
+	 * @param view
+	 *            ad view of the slot
+	 * @param viewable
+	 *            true if any part of the view is on screen
+	 */
+	public synchronized void setViewable(View view, boolean viewable) {
+		Entry e = getEntry(view);
+		if (e.viewable != viewable) {
+			e.viewable = viewable;
+			reschedule();
+		}
+	}
+
+	private synchronized void schedule(View view, long period, boolean empty) {
+		Entry e = getEntry(view);
+		e.empty = empty;
+		if (period <= 0) {
+			e.due = -1;
+		} else {
+			e.failures = empty ? Math.min(e.failures + 1, MAX_BACKOFF_STEPS)
+					: 0;
+			long delay = empty ? Math.min(MAX_BACKOFF,
+					period << e.failures) : period;
+			e.period = period;
+			e.due = SystemClock.uptimeMillis() + delay;
+			SdkLog.d(TAG, view.getClass().getSimpleName() + "@"
+					+ view.hashCode() + " refresh in " + delay / 1000 + "s");
+		}
+		reschedule();
+	}
+
+	private Entry getEntry(View view) {
+		Entry e = entries.get(view);
+		if (e == null) {
+			e = new Entry();
+			entries.put(view, e);
+		}
+		return e;
+	}
+
+	private void reschedule() {
+		long next = -1;
+		for (Entry e : entries.values()) {
+			if ((e.viewable || e.empty) && e.due >= 0
+					&& (next < 0 || e.due < next)) {
+				next = e.due;
+			}
+		}
+		handler.removeCallbacks(tick);
+		if (next >= 0) {
+			handler.postAtTime(tick, next);
+		}
+	}
+
+	private void refreshDue() {
+		List<Refreshable> due = new ArrayList<Refreshable>();
+		synchronized (this) {
+			long now = SystemClock.uptimeMillis();
+			for (Map.Entry<View, Entry> me : entries.entrySet()) {
+				View view = me.getKey();
+				Entry e = me.getValue();
+				if (view == null || !(e.viewable || e.empty) || e.due < 0) {
+					continue;
+				}
+				// refresh slightly early to share the radio wakeup
+				if (e.due <= now + Math.min(ALIGN_WINDOW, e.period / 4)) {
+					if (!isWindowVisible(view)) {
+						// detached or backgrounded view, e.g. an empty slot
+						// or a viewable state not sampled since
+						e.due = now + e.period;
+						continue;
+					}
+					due.add((Refreshable) view);
+					// fallback if the view does not restart the scheduler
+					e.due = now + e.period;
+				}
+			}
+			reschedule();
+		}
+		if (due.size() > 1) {
+			SdkLog.d(TAG, "Refreshing " + due.size() + " slots together.");
+		}
+		for (Refreshable r : due) {
+			r.refresh();
+		}
+	}
+
+	private static boolean isWindowVisible(View view) {
+		return view.getWindowToken() != null
+				&& view.getWindowVisibility() == View.VISIBLE;
+	}
+
+	private final static class Entry {
+
+		private long period;
+
+		private long due = -1;
+
+		private int failures;
+
+		private boolean viewable;
+
+		private boolean empty;
+	}
+
+}
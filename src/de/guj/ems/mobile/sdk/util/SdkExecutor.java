@@ -0,0 +1,291 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Process;
+
+/**
+ * Central background executor of the sdk.
+ *
+ * All background work is submitted to a bounded thread pool with a priority
+ * queue. Tasks are assigned to a lane which determines their priority: ad
+ * requests before asset downloads before tracking requests. Delayed tasks
+ * (timers) are kept by a single scheduler thread and handed to the pool once
+ * they are due. Large media downloads run on a dedicated thread outside the
+ * pool, so they never occupy its workers.
+ *
+ * Usage: SdkExecutor.execute(SdkExecutor.Lane.TRACKER, runnable);
+ *
+ * @author stein16
+ *
+ */
+public final class SdkExecutor {
+
+	private final static String TAG = "SdkExecutor";
+
+	/**
+	 * Lanes of background work ordered by priority (highest first)
+	 *
+	 * @author stein16
+	 *
+	 */
+	public enum Lane {
+		/**
+		 * Adserver requests
+		 */
+		AD_REQUEST,
+		/**
+		 * Delayed tasks which became due
+		 */
+		TIMER,
+		/**
+		 * Asset and creative downloads
+		 */
+		ASSET,
+		/**
+		 * Tracking pixels and impressions
+		 */
+		TRACKER,
+		/**
+		 * Large media downloads, executed one after the other outside the
+		 * pool
+		 */
+		MEDIA
+	}
+
+	/**
+	 * Number of worker threads
+	 */
+	public final static int POOL_SIZE = Math.max(2, Math.min(4, Runtime
+			.getRuntime().availableProcessors() + 1));
+
+	private final static long KEEP_ALIVE_SECONDS = 30;
+
+	private final static Lane[] LANES = Lane.values();
+
+	private final static AtomicLong SEQUENCE = new AtomicLong();
+
+	private final static AtomicInteger[] QUEUED = new AtomicInteger[LANES.length];
+
+	private final static AtomicInteger[] ACTIVE = new AtomicInteger[LANES.length];
+
+	private final static AtomicLong[] COMPLETED = new AtomicLong[LANES.length];
+
+	private final static AtomicLong[] MAX_WAIT = new AtomicLong[LANES.length];
+
+	private final static ThreadPoolExecutor POOL;
+
+	private final static ThreadPoolExecutor MEDIA_POOL;
+
+	private final static ScheduledExecutorService SCHEDULER;
+
+	static {
+		for (int i = 0; i < LANES.length; i++) {
+			QUEUED[i] = new AtomicInteger();
+			ACTIVE[i] = new AtomicInteger();
+			COMPLETED[i] = new AtomicLong();
+			MAX_WAIT[i] = new AtomicLong();
+		}
+		POOL = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS,
+				TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+				new SdkThreadFactory("[SdkExecutor] worker"));
+		MEDIA_POOL = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new SdkThreadFactory("[SdkExecutor] media"));
+		SCHEDULER = new ScheduledThreadPoolExecutor(1, new SdkThreadFactory(
+				"[SdkExecutor] timer"));
+	}
+
+	private SdkExecutor() {
+	}
+
+	/**
+	 * Run a task in the background
+	 *
+	 * @param lane
+	 *            the lane determining the task's priority
+	 * @param task
+	 *            the task
+	 * @return future of the task which may be used for cancellation
+	 */
+	public static Future<?> execute(Lane lane, Runnable task) {
+		LaneTask t = new LaneTask(lane, task);
+		QUEUED[lane.ordinal()].incrementAndGet();
+		(lane == Lane.MEDIA ? MEDIA_POOL : POOL).execute(t);
+		return t;
+	}
+
+	/**
+	 * Run a task in the background after a delay
+	 *
+	 * @param lane
+	 *            the lane the task is executed in when due
+	 * @param task
+	 *            the task
+	 * @param delayMs
+	 *            delay in milliseconds
+	 * @return future of the timer which may be used for cancellation
+	 */
+	public static ScheduledFuture<?> schedule(final Lane lane,
+			final Runnable task, long delayMs) {
+		return SCHEDULER.schedule(new Runnable() {
+			@Override
+			public void run() {
+				execute(lane, task);
+			}
+		}, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Number of tasks waiting for execution in a lane
+	 *
+	 * @param lane
+	 *            the lane
+	 * @return number of queued tasks
+	 */
+	public static int getQueueLength(Lane lane) {
+		return QUEUED[lane.ordinal()].get();
+	}
+
+	/**
+	 * Number of tasks currently executed in a lane
+	 *
+	 * @param lane
+	 *            the lane
+	 * @return number of running tasks
+	 */
+	public static int getActiveCount(Lane lane) {
+		return ACTIVE[lane.ordinal()].get();
+	}
+
+	/**
+	 * Number of tasks completed in a lane
+	 *
+	 * @param lane
+	 *            the lane
+	 * @return number of completed tasks
+	 */
+	public static long getCompletedCount(Lane lane) {
+		return COMPLETED[lane.ordinal()].get();
+	}
+
+	/**
+	 * Longest time a task of a lane had to wait in the queue
+	 *
+	 * @param lane
+	 *            the lane
+	 * @return maximum queue wait in milliseconds
+	 */
+	public static long getMaxQueueWait(Lane lane) {
+		return MAX_WAIT[lane.ordinal()].get();
+	}
+
+	/**
+	 * Human readable summary of queue metrics
+	 *
+	 * @return metrics as string
+	 */
+	public static String getMetrics() {
+		StringBuilder sb = new StringBuilder("pool=");
+		sb.append(POOL.getActiveCount()).append('/').append(POOL_SIZE);
+		for (Lane lane : LANES) {
+			int i = lane.ordinal();
+			sb.append(", ").append(lane).append("[q=")
+					.append(QUEUED[i].get()).append(",a=")
+					.append(ACTIVE[i].get()).append(",c=")
+					.append(COMPLETED[i].get()).append(",maxWait=")
+					.append(MAX_WAIT[i].get()).append("ms]");
+		}
+		return sb.toString();
+	}
+
+	private final static class LaneTask extends FutureTask<Object> implements
+			Comparable<LaneTask> {
+
+		private final Lane lane;
+
+		private final long seq;
+
+		private final long queued;
+
+		private LaneTask(Lane lane, Runnable task) {
+			super(task, null);
+			this.lane = lane;
+			this.seq = SEQUENCE.getAndIncrement();
+			this.queued = System.currentTimeMillis();
+		}
+
+		@Override
+		public int compareTo(LaneTask other) {
+			int c = lane.ordinal() - other.lane.ordinal();
+			if (c == 0) {
+				c = seq < other.seq ? -1 : (seq > other.seq ? 1 : 0);
+			}
+			return c;
+		}
+
+		@Override
+		public void run() {
+			int i = lane.ordinal();
+			long wait = System.currentTimeMillis() - queued;
+			QUEUED[i].decrementAndGet();
+			if (wait > MAX_WAIT[i].get()) {
+				MAX_WAIT[i].set(wait);
+			}
+			ACTIVE[i].incrementAndGet();
+			try {
+				super.run();
+			} finally {
+				ACTIVE[i].decrementAndGet();
+				COMPLETED[i].incrementAndGet();
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (!isCancelled()) {
+				try {
+					get();
+				} catch (Exception e) {
+					SdkLog.e(TAG, "Uncaught error in " + lane + " task.", e);
+				}
+			}
+		}
+	}
+
+	private final static class SdkThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		private final String name;
+
+		private SdkThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					r.run();
+				}
+			}, name + " #" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
@@ -0,0 +1,362 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+import android.os.Build;
+
+/**
+ * SDK wide http transport shared by ad, tracking and asset requests.
+ *
+ * From Gingerbread on the platform's HttpURLConnection is used with keep-alive
+ * enabled, before Gingerbread a single DefaultHttpClient with a thread safe
+ * connection pool is shared. Both variants limit the number of connections per
+ * host, request gzip encoded content and use common default timeouts.
+ *
+ * Usage: SdkHttpClient.Response r = SdkHttpClient.get(url); ... r.close();
+ *
+ * Responses must always be closed so that the connection can be reused.
+ *
+ * @author stein16
+ *
+ */
+public final class SdkHttpClient {
+
+	private final static String TAG = "SdkHttpClient";
+
+	private final static boolean USE_HTTPURLCONNECTION = Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD;
+
+	/**
+	 * Maximum number of pooled connections per host
+	 */
+	public final static int MAX_CONNECTIONS_PER_HOST = 4;
+
+	/**
+	 * Maximum number of pooled connections in total (pre Gingerbread only)
+	 */
+	public final static int MAX_CONNECTIONS_TOTAL = 12;
+
+	/**
+	 * Default connect timeout in milliseconds
+	 */
+	public final static int CONNECT_TIMEOUT = 2500;
+
+	/**
+	 * Default read timeout in milliseconds
+	 */
+	public final static int READ_TIMEOUT = 5000;
+
+	/**
+	 * Connect timeout for adserver requests in milliseconds
+	 */
+	public final static int AD_CONNECT_TIMEOUT = 750;
+
+	/**
+	 * Read timeout for adserver requests in milliseconds
+	 */
+	public final static int AD_READ_TIMEOUT = 2500;
+
+	/**
+	 * Name of user agent header
+	 */
+	public final static String USER_AGENT_HEADER_NAME = "User-Agent";
+
+	private final static String ACCEPT_ENCODING_HEADER_NAME = "Accept-Encoding";
+
+	private final static String CONTENT_ENCODING_HEADER_NAME = "Content-Encoding";
+
+	private final static String CONTENT_TYPE_HEADER_NAME = "Content-Type";
+
+	private final static String GZIP = "gzip";
+
+	private static DefaultHttpClient CLIENT;
+
+	static {
+		if (USE_HTTPURLCONNECTION) {
+			System.setProperty("http.keepAlive", "true");
+			System.setProperty("http.maxConnections",
+					String.valueOf(MAX_CONNECTIONS_PER_HOST));
+		}
+	}
+
+	private SdkHttpClient() {
+	}
+
+	private synchronized static DefaultHttpClient getClient() {
+		if (CLIENT == null) {
+			HttpParams params = new BasicHttpParams();
+			HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+			HttpProtocolParams.setContentCharset(params, "utf-8");
+			HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+			HttpConnectionParams.setSoTimeout(params, READ_TIMEOUT);
+			HttpConnectionParams.setStaleCheckingEnabled(params, true);
+			ConnManagerParams.setMaxTotalConnections(params,
+					MAX_CONNECTIONS_TOTAL);
+			ConnManagerParams.setMaxConnectionsPerRoute(params,
+					new ConnPerRouteBean(MAX_CONNECTIONS_PER_HOST));
+			ConnManagerParams.setTimeout(params, CONNECT_TIMEOUT);
+
+			SchemeRegistry registry = new SchemeRegistry();
+			registry.register(new Scheme("http", PlainSocketFactory
+					.getSocketFactory(), 80));
+			registry.register(new Scheme("https", SSLSocketFactory
+					.getSocketFactory(), 443));
+			ClientConnectionManager manager = new ThreadSafeClientConnManager(
+					params, registry);
+			CLIENT = new DefaultHttpClient(manager, params);
+			SdkLog.d(TAG, "Created pooled DefaultHttpClient.");
+		}
+		return CLIENT;
+	}
+
+	/**
+	 * Perform a GET request with default timeouts and no additional headers
+	 *
+	 * @param url
+	 *            the url to request
+	 * @return the response, which must be closed by the caller
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	public static Response get(String url) throws IOException {
+		return get(url, null, CONNECT_TIMEOUT, READ_TIMEOUT);
+	}
+
+	/**
+	 * Perform a GET request with default timeouts
+	 *
+	 * @param url
+	 *            the url to request
+	 * @param headers
+	 *            additional request headers or null
+	 * @return the response, which must be closed by the caller
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	public static Response get(String url, Map<String, String> headers)
+			throws IOException {
+		return get(url, headers, CONNECT_TIMEOUT, READ_TIMEOUT);
+	}
+
+	/**
+	 * Perform a GET request
+	 *
+	 * @param url
+	 *            the url to request
+	 * @param headers
+	 *            additional request headers or null
+	 * @param connectTimeout
+	 *            connect timeout in milliseconds
+	 * @param readTimeout
+	 *            read timeout in milliseconds
+	 * @return the response, which must be closed by the caller
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	public static Response get(String url, Map<String, String> headers,
+			int connectTimeout, int readTimeout) throws IOException {
+		if (USE_HTTPURLCONNECTION) {
+			HttpURLConnection con = (HttpURLConnection) new URL(url)
+					.openConnection();
+			con.setConnectTimeout(connectTimeout);
+			con.setReadTimeout(readTimeout);
+			con.setRequestProperty(ACCEPT_ENCODING_HEADER_NAME, GZIP);
+			if (headers != null) {
+				Iterator<Map.Entry<String, String>> i = headers.entrySet()
+						.iterator();
+				while (i.hasNext()) {
+					Map.Entry<String, String> h = i.next();
+					con.setRequestProperty(h.getKey(), h.getValue());
+				}
+			}
+			return new Response(con);
+		} else {
+			HttpGet get = new HttpGet(url);
+			HttpConnectionParams.setConnectionTimeout(get.getParams(),
+					connectTimeout);
+			HttpConnectionParams.setSoTimeout(get.getParams(), readTimeout);
+			get.setHeader(ACCEPT_ENCODING_HEADER_NAME, GZIP);
+			if (headers != null) {
+				Iterator<Map.Entry<String, String>> i = headers.entrySet()
+						.iterator();
+				while (i.hasNext()) {
+					Map.Entry<String, String> h = i.next();
+					get.setHeader(h.getKey(), h.getValue());
+				}
+			}
+			try {
+				return new Response(getClient().execute(get));
+			} catch (IOException e) {
+				get.abort();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Response of a request made through the shared transport. The content
+	 * stream is transparently gunzipped. Closing the response returns the
+	 * underlying connection to the pool.
+	 *
+	 * @author stein16
+	 *
+	 */
+	public final static class Response {
+
+		private final HttpURLConnection connection;
+
+		private final HttpResponse response;
+
+		private final int statusCode;
+
+		private InputStream stream;
+
+		private boolean closed;
+
+		private Response(HttpURLConnection con) throws IOException {
+			this.connection = con;
+			this.response = null;
+			this.statusCode = con.getResponseCode();
+		}
+
+		private Response(HttpResponse response) {
+			this.connection = null;
+			this.response = response;
+			this.statusCode = response.getStatusLine().getStatusCode();
+		}
+
+		/**
+		 * Http status code of the response
+		 *
+		 * @return status code
+		 */
+		public int getStatusCode() {
+			return statusCode;
+		}
+
+		/**
+		 * Value of a response header
+		 *
+		 * @param name
+		 *            header name
+		 * @return header value or null if not present
+		 */
+		public String getHeader(String name) {
+			if (connection != null) {
+				return connection.getHeaderField(name);
+			}
+			Header h = response.getLastHeader(name);
+			return h != null ? h.getValue() : null;
+		}
+
+		/**
+		 * Content type of the response
+		 *
+		 * @return content type or null if unknown
+		 */
+		public String getContentType() {
+			return getHeader(CONTENT_TYPE_HEADER_NAME);
+		}
+
+		/**
+		 * Length of the (possibly compressed) response body
+		 *
+		 * @return content length or -1 if unknown
+		 */
+		public long getContentLength() {
+			if (connection != null) {
+				return connection.getContentLength();
+			}
+			HttpEntity entity = response.getEntity();
+			return entity != null ? entity.getContentLength() : -1;
+		}
+
+		/**
+		 * Whether the response body is gzip encoded on the wire
+		 *
+		 * @return true if the body is decompressed on the fly
+		 */
+		public boolean isGzipped() {
+			String enc = getHeader(CONTENT_ENCODING_HEADER_NAME);
+			return enc != null && enc.toLowerCase().indexOf(GZIP) >= 0;
+		}
+
+		/**
+		 * Get the (decompressed) response body
+		 *
+		 * @return body stream or null if the response has no body
+		 * @throws IOException
+		 *             if the stream cannot be opened
+		 */
+		public InputStream getInputStream() throws IOException {
+			if (stream == null) {
+				InputStream in = null;
+				if (connection != null) {
+					in = statusCode < 400 ? connection.getInputStream()
+							: connection.getErrorStream();
+				} else if (response.getEntity() != null) {
+					in = response.getEntity().getContent();
+				}
+				if (in != null && isGzipped()) {
+					in = new GZIPInputStream(in);
+				}
+				stream = in;
+			}
+			return stream;
+		}
+
+		/**
+		 * Release the response. The connection is kept alive and returned to
+		 * the pool if possible.
+		 */
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (stream != null) {
+					stream.close();
+				} else if (connection != null) {
+					InputStream in = statusCode < 400 ? connection
+							.getInputStream() : connection.getErrorStream();
+					if (in != null) {
+						in.close();
+					}
+				} else if (response.getEntity() != null) {
+					response.getEntity().consumeContent();
+				}
+			} catch (IOException e) {
+				SdkLog.w(TAG, "Error releasing connection: " + e.getMessage());
+				if (connection != null) {
+					connection.disconnect();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,511 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import de.guj.ems.mobile.sdk.R;
+
+/**
+ * Loads and caches images of native and image ads.
+ *
+ * Images are downloaded once into a disk cache below the app's cache directory
+ * (ems_image_cache_max_bytes, least recently used files are deleted first).
+ * Bitmaps are decoded with a sample size matching the requested size and kept
+ * in a memory cache bounded to an eighth of the heap. Bitmaps are handed out
+ * reference counted: a bitmap which was released by all its views and left the
+ * memory cache is pooled and reused for decoding an image of the same size
+ * (Honeycomb and later).
+ *
+ * Usage: Bitmap b = SdkImageLoader.getInstance(context).getBitmap(url, w, h);
+ * ... SdkImageLoader.getInstance(context).release(b);
+ *
+ * @author stein16
+ *
+ */
+public final class SdkImageLoader {
+
+	private final static String TAG = "SdkImageLoader";
+
+	private final static String DIRECTORY = "ems_images";
+
+	private final static String TMP = ".tmp";
+
+	private final static int BUFFER_SIZE = 8192;
+
+	/**
+	 * Share of the heap used for decoded bitmaps (1/n)
+	 */
+	private final static int MEMORY_SHARE = 8;
+
+	/**
+	 * Share of the memory cache size used for pooled bitmaps (1/n)
+	 */
+	private final static int POOL_SHARE = 4;
+
+	private final static boolean REUSE_BITMAPS = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+
+	private static SdkImageLoader instance = null;
+
+	private final File root;
+
+	private final long maxDiskSize;
+
+	private final long maxMemorySize;
+
+	private long diskSize = 0;
+
+	private long memorySize = 0;
+
+	private long poolSize = 0;
+
+	private final LinkedHashMap<String, Bitmap> memory = new LinkedHashMap<String, Bitmap>(
+			16, 0.75f, true);
+
+	private final IdentityHashMap<Bitmap, Integer> references = new IdentityHashMap<Bitmap, Integer>();
+
+	private final WeakHashMap<Bitmap, Boolean> detached = new WeakHashMap<Bitmap, Boolean>();
+
+	private final List<Bitmap> pool = new ArrayList<Bitmap>();
+
+	private final Map<String, Object> locks = new HashMap<String, Object>();
+
+	private final Map<String, String> headers = new HashMap<String, String>();
+
+	/**
+	 * Get the image loader of the application
+	 *
+	 * @param c
+	 *            android context
+	 * @return the image loader
+	 */
+	public synchronized static SdkImageLoader getInstance(Context c) {
+		if (SdkImageLoader.instance == null) {
+			SdkImageLoader.instance = new SdkImageLoader(
+					c.getApplicationContext());
+		}
+		return SdkImageLoader.instance;
+	}
+
+	private SdkImageLoader(Context c) {
+		this.root = new File(c.getCacheDir(), DIRECTORY);
+		this.maxDiskSize = c.getResources().getInteger(
+				R.integer.ems_image_cache_max_bytes);
+		this.maxMemorySize = Runtime.getRuntime().maxMemory() / MEMORY_SHARE;
+		headers.put(SdkHttpClient.USER_AGENT_HEADER_NAME,
+				SdkUtil.getUserAgent());
+		this.root.mkdirs();
+		File[] files = root.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].getName().endsWith(TMP)) {
+				files[i].delete();
+			} else {
+				diskSize += files[i].length();
+			}
+		}
+		SdkLog.d(TAG, "Image cache [" + diskSize + " of " + maxDiskSize
+				+ " bytes on disk, " + maxMemorySize + " bytes in memory]");
+	}
+
+	/**
+	 * Get a decoded image from the memory cache. May be called from the main
+	 * thread. A returned bitmap must be released when it is no longer
+	 * displayed.
+	 *
+	 * @param url
+	 *            url of the image
+	 * @param reqWidth
+	 *            width the image is displayed with or 0
+	 * @param reqHeight
+	 *            height the image is displayed with or 0
+	 * @return the bitmap or null if it is not in memory
+	 */
+	public synchronized Bitmap peekBitmap(String url, int reqWidth,
+			int reqHeight) {
+		String key = memoryKey(url, reqWidth, reqHeight);
+		Bitmap b = memory.get(key);
+		if (b != null) {
+			acquire(b);
+		}
+		return b;
+	}
+
+	/**
+	 * Get a decoded image, downloading it if it is not cached. Must not be
+	 * called from the main thread. A returned bitmap must be released when it
+	 * is no longer displayed.
+	 *
+	 * @param url
+	 *            url of the image
+	 * @param reqWidth
+	 *            width the image is displayed with or 0
+	 * @param reqHeight
+	 *            height the image is displayed with or 0
+	 * @return the bitmap or null if the image could not be decoded
+	 * @throws IOException
+	 *             if the image could not be downloaded
+	 */
+	public Bitmap getBitmap(String url, int reqWidth, int reqHeight)
+			throws IOException {
+		String key = memoryKey(url, reqWidth, reqHeight);
+		Bitmap b = peekBitmap(url, reqWidth, reqHeight);
+		if (b != null) {
+			return b;
+		}
+		File f = getFile(url);
+		synchronized (lockFor(key)) {
+			b = peekBitmap(url, reqWidth, reqHeight);
+			if (b == null) {
+				b = decode(f, reqWidth, reqHeight);
+				if (b != null) {
+					synchronized (this) {
+						memory.put(key, b);
+						memorySize += sizeOf(b);
+						acquire(b);
+						trimMemory();
+					}
+				}
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Get the raw data of an image, e.g. for decoding animations, downloading
+	 * it if it is not cached. Must not be called from the main thread.
+	 *
+	 * @param url
+	 *            url of the image
+	 * @return content of the image file
+	 * @throws IOException
+	 *             if the image could not be downloaded or read
+	 */
+	public byte[] getBytes(String url) throws IOException {
+		File f = getFile(url);
+		byte[] data = new byte[(int) f.length()];
+		InputStream in = null;
+		try {
+			in = new FileInputStream(f);
+			int offset = 0;
+			int l = 0;
+			while (offset < data.length
+					&& (l = in.read(data, offset, data.length - offset)) > 0) {
+				offset += l;
+			}
+		} finally {
+			close(in);
+		}
+		return data;
+	}
+
+	/**
+	 * Get the cached image file, downloading it if it is not cached. Must not
+	 * be called from the main thread.
+	 *
+	 * @param url
+	 *            url of the image
+	 * @return the image file
+	 * @throws IOException
+	 *             if the image could not be downloaded
+	 */
+	public File getFile(String url) throws IOException {
+		String key = diskKey(url);
+		synchronized (lockFor(key)) {
+			File f = new File(root, key);
+			if (f.exists()) {
+				f.setLastModified(System.currentTimeMillis());
+				return f;
+			}
+			download(url, f);
+			return f;
+		}
+	}
+
+	/**
+	 * Release a bitmap which is no longer displayed. Bitmaps may be reused
+	 * afterwards, so they must not be drawn anymore.
+	 *
+	 * @param b
+	 *            a bitmap returned by peekBitmap or getBitmap, may be null
+	 */
+	public synchronized void release(Bitmap b) {
+		Integer count = b != null ? references.get(b) : null;
+		if (count == null) {
+			return;
+		}
+		if (count.intValue() > 1) {
+			references.put(b, Integer.valueOf(count.intValue() - 1));
+		} else {
+			references.remove(b);
+			if (!memory.containsValue(b)) {
+				recycle(b);
+			}
+		}
+	}
+
+	/**
+	 * Hand a bitmap over to a view which never releases it. The bitmap is not
+	 * reference counted anymore and never reused.
+	 *
+	 * @param b
+	 *            a bitmap returned by peekBitmap or getBitmap, may be null
+	 */
+	public synchronized void detach(Bitmap b) {
+		if (b != null) {
+			references.remove(b);
+			detached.put(b, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Remove all decoded bitmaps which are not displayed from memory, e.g.
+	 * when the system is low on memory
+	 */
+	public synchronized void clearMemory() {
+		Iterator<Map.Entry<String, Bitmap>> i = memory.entrySet().iterator();
+		while (i.hasNext()) {
+			Bitmap b = i.next().getValue();
+			if (!references.containsKey(b)) {
+				i.remove();
+				memorySize -= sizeOf(b);
+			}
+		}
+		pool.clear();
+		poolSize = 0;
+	}
+
+	private void trimMemory() {
+		Iterator<Map.Entry<String, Bitmap>> i = memory.entrySet().iterator();
+		while (memorySize > maxMemorySize && i.hasNext()) {
+			Bitmap b = i.next().getValue();
+			i.remove();
+			memorySize -= sizeOf(b);
+			if (!references.containsKey(b)) {
+				recycle(b);
+			}
+		}
+	}
+
+	private void recycle(Bitmap b) {
+		if (!REUSE_BITMAPS || !b.isMutable() || b.isRecycled()
+				|| detached.containsKey(b)) {
+			return;
+		}
+		pool.add(b);
+		poolSize += sizeOf(b);
+		while (poolSize > maxMemorySize / POOL_SHARE) {
+			poolSize -= sizeOf(pool.remove(0));
+		}
+	}
+
+	private synchronized Bitmap takeFromPool(int width, int height,
+			Bitmap.Config config) {
+		for (int i = 0; i < pool.size(); i++) {
+			Bitmap b = pool.get(i);
+			if (b.getWidth() == width && b.getHeight() == height
+					&& b.getConfig() == config) {
+				pool.remove(i);
+				poolSize -= sizeOf(b);
+				return b;
+			}
+		}
+		return null;
+	}
+
+	private void acquire(Bitmap b) {
+		Integer count = references.get(b);
+		references.put(b,
+				Integer.valueOf(count != null ? count.intValue() + 1 : 1));
+	}
+
+	private Bitmap decode(File f, int reqWidth, int reqHeight) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(f.getPath(), options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			SdkLog.w(TAG, "Could not decode image bounds of " + f);
+			return null;
+		}
+		int width = options.outWidth;
+		int height = options.outHeight;
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize(width, height, reqWidth, reqHeight);
+		boolean reused = REUSE_BITMAPS && reuse(options, width, height);
+		Bitmap b = null;
+		try {
+			try {
+				b = BitmapFactory.decodeFile(f.getPath(), options);
+			} catch (IllegalArgumentException e) {
+				if (!reused) {
+					throw e;
+				}
+				SdkLog.w(TAG, "Could not reuse bitmap: " + e.getMessage());
+				reused = reuse(options, 0, 0);
+				b = BitmapFactory.decodeFile(f.getPath(), options);
+			}
+		} catch (OutOfMemoryError e) {
+			SdkLog.e(TAG, "Out of memory decoding " + f, e);
+			clearMemory();
+			return null;
+		}
+		if (b != null) {
+			SdkLog.d(TAG, "Decoded image [" + width + "x" + height + " / "
+					+ options.inSampleSize + (reused ? ", reused]" : "]"));
+		}
+		return b;
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private boolean reuse(BitmapFactory.Options options, int width,
+			int height) {
+		options.inMutable = true;
+		// before KitKat only bitmaps of the exact size can be reused
+		options.inBitmap = options.inSampleSize == 1 ? takeFromPool(width,
+				height, Bitmap.Config.ARGB_8888) : null;
+		return options.inBitmap != null;
+	}
+
+	private void download(String url, File f) throws IOException {
+		File tmp = new File(root, f.getName() + TMP);
+		SdkHttpClient.Response response = null;
+		OutputStream out = null;
+		boolean ok = false;
+		try {
+			response = SdkHttpClient.get(url, headers);
+			if (response.getStatusCode() != 200) {
+				throw new IOException("Server returned HTTP "
+						+ response.getStatusCode());
+			}
+			InputStream in = response.getInputStream();
+			out = new FileOutputStream(tmp);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int l = 0;
+			while ((l = in.read(buffer)) > 0) {
+				out.write(buffer, 0, l);
+			}
+			ok = true;
+		} finally {
+			close(out);
+			if (response != null) {
+				response.close();
+			}
+			if (!ok) {
+				tmp.delete();
+			}
+		}
+		if (!tmp.renameTo(f)) {
+			tmp.delete();
+			throw new IOException("Could not move image to " + f);
+		}
+		SdkLog.d(TAG, "Cached image " + url + " [" + f.length() + " bytes]");
+		trimDisk(f.length());
+	}
+
+	private synchronized void trimDisk(long added) {
+		diskSize += added;
+		if (diskSize <= maxDiskSize) {
+			return;
+		}
+		File[] files = root.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				Long d1 = f1.lastModified();
+				Long d2 = f2.lastModified();
+				return d1.compareTo(d2);
+			}
+		});
+		diskSize = 0;
+		for (File f : files) {
+			diskSize += f.length();
+		}
+		// the newest file is kept even if it exceeds the limit on its own
+		for (int i = 0; diskSize > maxDiskSize && i < files.length - 1; i++) {
+			if (!files[i].getName().endsWith(TMP)) {
+				diskSize -= files[i].length();
+				files[i].delete();
+				SdkLog.d(TAG, "Evicted image " + files[i].getName());
+			}
+		}
+	}
+
+	private synchronized Object lockFor(String key) {
+		Object lock = locks.get(key);
+		if (lock == null) {
+			lock = new Object();
+			locks.put(key, lock);
+		}
+		return lock;
+	}
+
+	private static int sampleSize(int width, int height, int reqWidth,
+			int reqHeight) {
+		int sample = 1;
+		while ((reqWidth > 0 || reqHeight > 0)
+				&& (reqWidth <= 0 || width / (2 * sample) >= reqWidth)
+				&& (reqHeight <= 0 || height / (2 * sample) >= reqHeight)) {
+			sample *= 2;
+		}
+		return sample;
+	}
+
+	private static String memoryKey(String url, int reqWidth, int reqHeight) {
+		return url + "#" + reqWidth + "x" + reqHeight;
+	}
+
+	private static String diskKey(String url) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			byte[] hash = digest.digest(url.getBytes("utf-8"));
+			StringBuilder sb = new StringBuilder(2 * hash.length);
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+						Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(url.hashCode());
+		} catch (IOException e) {
+			return Integer.toHexString(url.hashCode());
+		}
+	}
+
+	private static long sizeOf(Bitmap b) {
+		return (long) b.getRowBytes() * b.getHeight();
+	}
+
+	private static void close(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				SdkLog.w(TAG, "Error closing image file.");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,217 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads http response bodies into strings.
+ *
+ * The content length is used to presize the result, byte and char buffers are
+ * pooled and reused by subsequent requests. Bytes are decoded with a streaming
+ * decoder, so multi-byte characters spanning buffer boundaries stay intact.
+ * Bodies larger than a maximum size are rejected.
+ *
+ * Usage: String body = SdkResponseReader.read(response, maxSize);
+ *
+ * @author stein16
+ *
+ */
+public final class SdkResponseReader {
+
+	private final static String TAG = "SdkResponseReader";
+
+	/**
+	 * Default maximum size of a response body in bytes
+	 */
+	public final static int MAX_BODY_SIZE = 1024 * 1024;
+
+	/**
+	 * Charset used if the response does not specify one
+	 */
+	public final static String DEFAULT_CHARSET = "utf-8";
+
+	private final static int BUFFER_SIZE = 8192;
+
+	private final static int DEFAULT_CAPACITY = 1024;
+
+	private final static String CHARSET_PARAM = "charset=";
+
+	private final static List<Buffers> POOL = new ArrayList<Buffers>(
+			SdkExecutor.POOL_SIZE);
+
+	private SdkResponseReader() {
+	}
+
+	/**
+	 * Read the body of a response with the default maximum size
+	 *
+	 * @param response
+	 *            the response, which is not closed
+	 * @return the decoded body, empty if the response has none
+	 * @throws IOException
+	 *             if reading fails or the body is too large
+	 */
+	public static String read(SdkHttpClient.Response response)
+			throws IOException {
+		return read(response, MAX_BODY_SIZE);
+	}
+
+	/**
+	 * Read the body of a response
+	 *
+	 * @param response
+	 *            the response, which is not closed
+	 * @param maxSize
+	 *            maximum number of bytes read
+	 * @return the decoded body, empty if the response has none
+	 * @throws IOException
+	 *             if reading fails or the body is too large
+	 */
+	public static String read(SdkHttpClient.Response response, int maxSize)
+			throws IOException {
+		InputStream in = response.getInputStream();
+		if (in == null) {
+			return "";
+		}
+		// content length refers to compressed data if gzipped
+		return read(in, response.isGzipped() ? -1 : response
+				.getContentLength(), getCharset(response.getContentType()),
+				maxSize);
+	}
+
+	/**
+	 * Read a stream into a string
+	 *
+	 * @param in
+	 *            the stream, which is not closed
+	 * @param contentLength
+	 *            expected number of bytes or -1 if unknown
+	 * @param charset
+	 *            name of the charset to decode with
+	 * @param maxSize
+	 *            maximum number of bytes read
+	 * @return the decoded string
+	 * @throws IOException
+	 *             if reading fails or the stream is too large
+	 */
+	public static String read(InputStream in, long contentLength,
+			String charset, int maxSize) throws IOException {
+		if (contentLength > maxSize) {
+			throw new IOException("Response body too large [" + contentLength
+					+ " bytes]");
+		}
+		CharsetDecoder decoder = getDecoder(charset);
+		StringBuilder sb = new StringBuilder(
+				contentLength > 0 ? (int) contentLength : DEFAULT_CAPACITY);
+		Buffers buffers = acquire();
+		try {
+			ByteBuffer bb = buffers.bytes;
+			CharBuffer cb = buffers.chars;
+			byte[] bytes = bb.array();
+			long total = 0;
+			int n = 0;
+			while ((n = in.read(bytes, bb.position(), bb.remaining())) != -1) {
+				total += n;
+				if (total > maxSize) {
+					throw new IOException("Response body exceeds " + maxSize
+							+ " bytes.");
+				}
+				bb.position(bb.position() + n);
+				bb.flip();
+				decode(decoder, bb, cb, sb, false);
+				// keep an incomplete trailing character for the next read
+				bb.compact();
+			}
+			bb.flip();
+			decode(decoder, bb, cb, sb, true);
+			while (decoder.flush(cb).isOverflow()) {
+				drain(cb, sb);
+			}
+			drain(cb, sb);
+		} finally {
+			release(buffers);
+		}
+		return sb.toString();
+	}
+
+	private static void decode(CharsetDecoder decoder, ByteBuffer bb,
+			CharBuffer cb, StringBuilder sb, boolean endOfInput) {
+		CoderResult r = null;
+		do {
+			r = decoder.decode(bb, cb, endOfInput);
+			drain(cb, sb);
+		} while (r.isOverflow());
+	}
+
+	private static void drain(CharBuffer cb, StringBuilder sb) {
+		cb.flip();
+		sb.append(cb.array(), 0, cb.limit());
+		cb.clear();
+	}
+
+	private static CharsetDecoder getDecoder(String charset) {
+		Charset cs = null;
+		try {
+			cs = Charset.forName(charset);
+		} catch (Exception e) {
+			SdkLog.w(TAG, "Unsupported charset " + charset + ", using "
+					+ DEFAULT_CHARSET);
+			cs = Charset.forName(DEFAULT_CHARSET);
+		}
+		return cs.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	private static String getCharset(String contentType) {
+		if (contentType != null) {
+			int i = contentType.toLowerCase().indexOf(CHARSET_PARAM);
+			if (i >= 0) {
+				String cs = contentType.substring(i + CHARSET_PARAM.length());
+				int j = cs.indexOf(';');
+				cs = (j >= 0 ? cs.substring(0, j) : cs).trim();
+				if (cs.startsWith("\"") && cs.endsWith("\"") && cs.length() > 1) {
+					cs = cs.substring(1, cs.length() - 1);
+				}
+				if (cs.length() > 0) {
+					return cs;
+				}
+			}
+		}
+		return DEFAULT_CHARSET;
+	}
+
+	private static Buffers acquire() {
+		synchronized (POOL) {
+			if (!POOL.isEmpty()) {
+				return POOL.remove(POOL.size() - 1);
+			}
+		}
+		return new Buffers();
+	}
+
+	private static void release(Buffers buffers) {
+		buffers.bytes.clear();
+		buffers.chars.clear();
+		synchronized (POOL) {
+			if (POOL.size() < SdkExecutor.POOL_SIZE) {
+				POOL.add(buffers);
+			}
+		}
+	}
+
+	private final static class Buffers {
+
+		private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+		private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+	}
+
+}
@@ -10,16 +10,13 @@ import java.util.UUID;
 import android.Manifest.permission;
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.ReceiverCallNotAllowedException;
 import android.content.pm.PackageManager;
 import android.location.LocationManager;
 import android.media.AudioManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.os.BatteryManager;
 import android.os.Build;
+import android.os.Looper;
 import android.provider.Settings.Secure;
 import android.telephony.TelephonyManager;
 import android.util.DisplayMetrics;
@@ -29,7 +26,7 @@ import android.webkit.ValueCallback;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import de.guj.ems.mobile.sdk.controllers.IAdResponseHandler;
-import de.guj.ems.mobile.sdk.controllers.TrackingRequest;
+import de.guj.ems.mobile.sdk.controllers.TrackingDispatcher;
 import de.guj.ems.mobile.sdk.controllers.adserver.AdRequest;
 import de.guj.ems.mobile.sdk.controllers.adserver.AmobeeAdRequest;
 
@@ -49,8 +46,6 @@ public class SdkUtil {
 
 	private static Method KITKAT_JS_METHOD = null;
 
-	private static Intent BATTERY_INTENT = null;
-
 	private static TelephonyManager TELEPHONY_MANAGER;
 
 	private static DisplayMetrics METRICS = new DisplayMetrics();
@@ -210,10 +205,17 @@ public class SdkUtil {
 			// determine user-agent
 			if (Build.VERSION.SDK_INT < 17) {
 				try {
-					WebView w = new WebView(CONTEXT);
-					USER_AGENT = w.getSettings().getUserAgentString();
-					w.destroy();
-					w = null;
+					if (Looper.myLooper() == Looper.getMainLooper()) {
+						// borrow a (pre-created) webview from the pool
+						WebViewPool pool = WebViewPool.getInstance();
+						WebView w = pool.obtain(CONTEXT);
+						USER_AGENT = w.getSettings().getUserAgentString();
+						pool.release(w);
+					} else {
+						WebView w = new WebView(CONTEXT);
+						USER_AGENT = w.getSettings().getUserAgentString();
+						w.destroy();
+					}
 				}
 				catch (Exception e) {
 					USER_AGENT = DEBUG_USER_AGENT;
@@ -421,6 +423,9 @@ public class SdkUtil {
 	 *            android application context
 	 */
 	public final static void setContext(Context c) {
+		if (CONTEXT == null && c != null) {
+			WebViewPool.getInstance().prewarm(c);
+		}
 		CONTEXT = c;
 	}
 
@@ -437,23 +442,7 @@ public class SdkUtil {
 	 * @return true if a charger is connected
 	 */
 	public static boolean isChargerConnected() {
-		if (BATTERY_INTENT == null) {
-			try {
-				IntentFilter ifilter = new IntentFilter(
-						Intent.ACTION_BATTERY_CHANGED);
-				BATTERY_INTENT = getContext().getApplicationContext()
-						.registerReceiver(null, ifilter);
-			} catch (ReceiverCallNotAllowedException e) {
-				SdkLog.w(TAG,
-						"Skipping start of phone status receivers from start interstitial.");
-				BATTERY_INTENT = null;
-				return false;
-			}
-		}
-		int cp = BATTERY_INTENT.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
-		return cp == BatteryManager.BATTERY_PLUGGED_AC
-		// || cp == BatteryManager.BATTERY_PLUGGED_WIRELESS
-				|| cp == BatteryManager.BATTERY_PLUGGED_USB;
+		return DeviceStateMonitor.getInstance().getState().isChargerConnected();
 	}
 
 	/**
@@ -463,23 +452,7 @@ public class SdkUtil {
 	 *         percent
 	 */
 	public static int getBatteryLevel() {
-		if (BATTERY_INTENT == null) {
-			try {
-				IntentFilter ifilter = new IntentFilter(
-						Intent.ACTION_BATTERY_CHANGED);
-				BATTERY_INTENT = getContext().getApplicationContext()
-						.registerReceiver(null, ifilter);
-			} catch (ReceiverCallNotAllowedException e) {
-				SdkLog.w(TAG,
-						"Skipping start of phone status receivers from start interstitial.");
-				BATTERY_INTENT = null;
-				return 100;
-			}
-		}
-		int level = BATTERY_INTENT.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-		int scale = BATTERY_INTENT.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-
-		return (int) (100.0f * (level / (float) scale));
+		return DeviceStateMonitor.getInstance().getState().getBatteryLevel();
 	}
 
 	/**
@@ -536,13 +509,14 @@ public class SdkUtil {
 
 	/**
 	 * Perform quick simple http requests without processing the response.
-	 * Errors are written to log output.
+	 * Requests are queued and sent in bursts, undelivered requests are
+	 * persisted and retried later.
 	 * 
 	 * @param url
 	 *            An array of url strings
 	 */
 	public static void httpRequests(final String[] url) {
-		new TrackingRequest().execute(url);
+		TrackingDispatcher.getInstance().track(url);
 	}
 
 	/**
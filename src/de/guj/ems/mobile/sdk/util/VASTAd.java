@@ -0,0 +1,461 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Model of a single Ad element of a VAST 2.0 / 3.0 xml.
+ *
+ * An ad holds all impressions, error urls, linear trackings, media files and
+ * companions of its inline or wrapper element. Ads with a sequence number are
+ * part of an ad pod. Instances are filled by VASTXmlParser and must not be
+ * modified afterwards.
+ *
+ * @author stein16
+ *
+ */
+public final class VASTAd {
+
+	private final String id;
+
+	private final int sequence;
+
+	private boolean wrapper;
+
+	private String adSystem;
+
+	private String adTitle;
+
+	private String wrapperUrl;
+
+	private String duration;
+
+	private String skipOffset;
+
+	private String clickThroughUrl;
+
+	private final List<String> impressionUrls = new ArrayList<String>();
+
+	private final List<String> errorUrls = new ArrayList<String>();
+
+	private final List<String> clickTrackingUrls = new ArrayList<String>();
+
+	private final List<VASTXmlParser.Tracking> trackings = new ArrayList<VASTXmlParser.Tracking>();
+
+	private final List<MediaFile> mediaFiles = new ArrayList<MediaFile>();
+
+	private final List<Companion> companions = new ArrayList<Companion>();
+
+	VASTAd(String id, int sequence) {
+		this.id = id;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return id attribute of the ad or null
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return position of the ad within an ad pod, 0 if the ad is not part of
+	 *         a pod
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return true if the ad is part of an ad pod
+	 */
+	public boolean isPodded() {
+		return sequence > 0;
+	}
+
+	/**
+	 * @return true if the ad is a wrapper for another VAST xml
+	 */
+	public boolean isWrapper() {
+		return wrapper;
+	}
+
+	/**
+	 * @return name of the ad server which returned the ad
+	 */
+	public String getAdSystem() {
+		return adSystem;
+	}
+
+	/**
+	 * @return title of the ad
+	 */
+	public String getAdTitle() {
+		return adTitle;
+	}
+
+	/**
+	 * @return url of the wrapped VAST xml if the ad is a wrapper
+	 */
+	public String getWrapperUrl() {
+		return wrapperUrl;
+	}
+
+	/**
+	 * @return duration of the linear creative (HH:MM:SS[.mmm])
+	 */
+	public String getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return skipoffset attribute of the linear creative (HH:MM:SS[.mmm] or
+	 *         percentage)
+	 */
+	public String getSkipOffset() {
+		return skipOffset;
+	}
+
+	/**
+	 * @return target url for clicks on the linear creative
+	 */
+	public String getClickThroughUrl() {
+		return clickThroughUrl;
+	}
+
+	/**
+	 * @return all impression tracking urls
+	 */
+	public List<String> getImpressionUrls() {
+		return Collections.unmodifiableList(impressionUrls);
+	}
+
+	/**
+	 * @return all error tracking urls
+	 */
+	public List<String> getErrorUrls() {
+		return Collections.unmodifiableList(errorUrls);
+	}
+
+	/**
+	 * @return all click tracking urls of the linear creative
+	 */
+	public List<String> getClickTrackingUrls() {
+		return Collections.unmodifiableList(clickTrackingUrls);
+	}
+
+	/**
+	 * @return all event trackings of the linear creative
+	 */
+	public List<VASTXmlParser.Tracking> getTrackings() {
+		return Collections.unmodifiableList(trackings);
+	}
+
+	/**
+	 * @return all renditions of the linear creative in document order
+	 */
+	public List<MediaFile> getMediaFiles() {
+		return Collections.unmodifiableList(mediaFiles);
+	}
+
+	/**
+	 * @return all companion creatives
+	 */
+	public List<Companion> getCompanions() {
+		return Collections.unmodifiableList(companions);
+	}
+
+	void setWrapper(boolean wrapper) {
+		this.wrapper = wrapper;
+	}
+
+	void setAdSystem(String adSystem) {
+		this.adSystem = adSystem;
+	}
+
+	void setAdTitle(String adTitle) {
+		this.adTitle = adTitle;
+	}
+
+	void setWrapperUrl(String wrapperUrl) {
+		this.wrapperUrl = wrapperUrl;
+	}
+
+	void setDuration(String duration) {
+		this.duration = duration;
+	}
+
+	void setSkipOffset(String skipOffset) {
+		this.skipOffset = skipOffset;
+	}
+
+	void setClickThroughUrl(String clickThroughUrl) {
+		this.clickThroughUrl = clickThroughUrl;
+	}
+
+	void addImpressionUrl(String url) {
+		impressionUrls.add(url);
+	}
+
+	void addErrorUrl(String url) {
+		errorUrls.add(url);
+	}
+
+	void addClickTrackingUrl(String url) {
+		clickTrackingUrls.add(url);
+	}
+
+	void addTracking(VASTXmlParser.Tracking t) {
+		trackings.add(t);
+	}
+
+	void addMediaFile(MediaFile m) {
+		mediaFiles.add(m);
+	}
+
+	void addCompanion(Companion c) {
+		companions.add(c);
+	}
+
+	/**
+	 * A single rendition of a linear creative
+	 *
+	 * @author stein16
+	 *
+	 */
+	public final static class MediaFile {
+
+		private final static String DELIVERY_PROGRESSIVE = "progressive";
+
+		private final static String[] PLAYABLE_TYPES = { "video/mp4",
+				"video/3gpp", "video/webm" };
+
+		private final String url;
+
+		private final String type;
+
+		private final String delivery;
+
+		private final int bitrate;
+
+		private final int width;
+
+		private final int height;
+
+		MediaFile(String url, String type, String delivery, int bitrate,
+				int width, int height) {
+			this.url = url;
+			this.type = type;
+			this.delivery = delivery;
+			this.bitrate = bitrate;
+			this.width = width;
+			this.height = height;
+		}
+
+		/**
+		 * @return url of the rendition
+		 */
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * @return mime type of the rendition
+		 */
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * @return delivery method (progressive or streaming)
+		 */
+		public String getDelivery() {
+			return delivery;
+		}
+
+		/**
+		 * @return average bitrate in kbit/s, 0 if unknown
+		 */
+		public int getBitrate() {
+			return bitrate;
+		}
+
+		/**
+		 * @return width in pixels, 0 if unknown
+		 */
+		public int getWidth() {
+			return width;
+		}
+
+		/**
+		 * @return height in pixels, 0 if unknown
+		 */
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * Determine whether the rendition can be played by the android media
+		 * player
+		 *
+		 * @return true if the rendition is delivered progressively in a
+		 *         supported container
+		 */
+		public boolean isPlayable() {
+			if (url == null || url.length() == 0) {
+				return false;
+			}
+			if (delivery != null
+					&& !DELIVERY_PROGRESSIVE.equalsIgnoreCase(delivery)) {
+				return false;
+			}
+			if (type == null) {
+				return true;
+			}
+			for (String t : PLAYABLE_TYPES) {
+				if (t.equalsIgnoreCase(type)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public String toString() {
+			return url + " [" + type + ", " + width + "x" + height + ", "
+					+ bitrate + " kbit/s]";
+		}
+	}
+
+	/**
+	 * A companion creative displayed next to the linear creative
+	 *
+	 * @author stein16
+	 *
+	 */
+	public final static class Companion {
+
+		private final String id;
+
+		private final int width;
+
+		private final int height;
+
+		private String staticResource;
+
+		private String creativeType;
+
+		private String iFrameResource;
+
+		private String htmlResource;
+
+		private String clickThroughUrl;
+
+		private final List<String> clickTrackingUrls = new ArrayList<String>();
+
+		private final List<String> creativeViewUrls = new ArrayList<String>();
+
+		Companion(String id, int width, int height) {
+			this.id = id;
+			this.width = width;
+			this.height = height;
+		}
+
+		/**
+		 * @return id attribute of the companion or null
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return width in pixels
+		 */
+		public int getWidth() {
+			return width;
+		}
+
+		/**
+		 * @return height in pixels
+		 */
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * @return url of a static resource (image) or null
+		 */
+		public String getStaticResource() {
+			return staticResource;
+		}
+
+		/**
+		 * @return mime type of the static resource
+		 */
+		public String getCreativeType() {
+			return creativeType;
+		}
+
+		/**
+		 * @return url of an iframe resource or null
+		 */
+		public String getIFrameResource() {
+			return iFrameResource;
+		}
+
+		/**
+		 * @return html of an html resource or null
+		 */
+		public String getHtmlResource() {
+			return htmlResource;
+		}
+
+		/**
+		 * @return target url for clicks on the companion
+		 */
+		public String getClickThroughUrl() {
+			return clickThroughUrl;
+		}
+
+		/**
+		 * @return click tracking urls of the companion
+		 */
+		public List<String> getClickTrackingUrls() {
+			return Collections.unmodifiableList(clickTrackingUrls);
+		}
+
+		/**
+		 * @return tracking urls for displaying the companion
+		 */
+		public List<String> getCreativeViewUrls() {
+			return Collections.unmodifiableList(creativeViewUrls);
+		}
+
+		void setStaticResource(String staticResource, String creativeType) {
+			this.staticResource = staticResource;
+			this.creativeType = creativeType;
+		}
+
+		void setIFrameResource(String iFrameResource) {
+			this.iFrameResource = iFrameResource;
+		}
+
+		void setHtmlResource(String htmlResource) {
+			this.htmlResource = htmlResource;
+		}
+
+		void setClickThroughUrl(String clickThroughUrl) {
+			this.clickThroughUrl = clickThroughUrl;
+		}
+
+		void addClickTrackingUrl(String url) {
+			clickTrackingUrls.add(url);
+		}
+
+		void addCreativeViewUrl(String url) {
+			creativeViewUrls.add(url);
+		}
+	}
+
+}
@@ -0,0 +1,610 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.os.Build;
+import de.guj.ems.mobile.sdk.R;
+
+/**
+ * Disk cache for media files of VAST creatives.
+ *
+ * Media files are stored below the app's cache directory in a file named after
+ * the MD5 hash of their url. Downloads may stop after a number of bytes or
+ * when a deadline passes; the partial file is kept and later completed with a
+ * range request. Complete downloads run in the media lane of the SdkExecutor
+ * so they do not hold up asset downloads. The cache keeps a journal with size
+ * and last access of every entry and evicts least recently used entries when
+ * its configured size (ems_media_cache_max_bytes) is exceeded.
+ *
+ * Usage: File f = VASTMediaCache.getInstance(context).get(url);
+ *
+ * @author stein16
+ *
+ */
+public final class VASTMediaCache {
+
+	private final static String TAG = "VASTMediaCache";
+
+	private final static String DIRECTORY = "ems_media";
+
+	private final static String JOURNAL = ".journal";
+
+	private final static String PART = ".part";
+
+	private final static String SEPARATOR = "\t";
+
+	private final static String RANGE_HEADER_NAME = "Range";
+
+	private final static String CONTENT_RANGE_HEADER_NAME = "Content-Range";
+
+	private final static String ACCEPT_ENCODING_HEADER_NAME = "Accept-Encoding";
+
+	private final static int BUFFER_SIZE = 8192;
+
+	/**
+	 * Maximum size of a single cached media file
+	 */
+	public final static long MAX_FILE_SIZE = 10 * 1024 * 1024;
+
+	private static VASTMediaCache instance = null;
+
+	private final File root;
+
+	private final long maxSize;
+
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(
+			16, 0.75f, true);
+
+	private final Map<String, Object> locks = new HashMap<String, Object>();
+
+	private final Map<String, String> headers = new HashMap<String, String>();
+
+	private long size = 0;
+
+	private boolean persistScheduled = false;
+
+	/**
+	 * Get the media cache of the application
+	 *
+	 * @param c
+	 *            android context
+	 * @return the media cache
+	 */
+	public synchronized static VASTMediaCache getInstance(Context c) {
+		if (VASTMediaCache.instance == null) {
+			VASTMediaCache.instance = new VASTMediaCache(
+					c.getApplicationContext());
+		}
+		return VASTMediaCache.instance;
+	}
+
+	private VASTMediaCache(Context c) {
+		this.root = new File(c.getCacheDir(), DIRECTORY);
+		this.maxSize = c.getResources().getInteger(
+				R.integer.ems_media_cache_max_bytes);
+		headers.put(SdkHttpClient.USER_AGENT_HEADER_NAME,
+				SdkUtil.getUserAgent());
+		// byte ranges refer to the unencoded file
+		headers.put(ACCEPT_ENCODING_HEADER_NAME, "identity");
+		this.root.mkdirs();
+		makeReadable(this.root);
+		load();
+	}
+
+	/**
+	 * Find a completely cached media file
+	 *
+	 * @param url
+	 *            url of the media file
+	 * @return the cached file or null if the media file is not (completely)
+	 *         cached
+	 */
+	public synchronized File get(String url) {
+		String key = keyFor(url);
+		CacheEntry e = entries.get(key);
+		if (e != null && e.complete) {
+			File f = new File(root, key);
+			if (f.exists()) {
+				e.lastAccess = System.currentTimeMillis();
+				schedulePersist();
+				SdkLog.d(TAG, "Cache hit for media file " + url);
+				return f;
+			}
+			remove(key);
+		}
+		return null;
+	}
+
+	/**
+	 * Find a completely cached rendition of a linear creative. The rendition
+	 * chosen by VASTMediaSelector is preferred, otherwise any cached playable
+	 * rendition is returned.
+	 *
+	 * @param mediaFiles
+	 *            all renditions of the creative
+	 * @return the cached file or null if no rendition is cached
+	 */
+	public File get(List<VASTAd.MediaFile> mediaFiles) {
+		VASTAd.MediaFile selected = VASTMediaSelector.select(mediaFiles);
+		File f = selected != null ? get(selected.getUrl()) : null;
+		for (int i = 0; f == null && i < mediaFiles.size(); i++) {
+			VASTAd.MediaFile m = mediaFiles.get(i);
+			if (m != selected && m.isPlayable()) {
+				f = get(m.getUrl());
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * Download a media file completely into the cache. Must not be called
+	 * from the main thread.
+	 *
+	 * @param url
+	 *            url of the media file
+	 * @return the cached file or null if the download was incomplete
+	 * @throws IOException
+	 *             if the media file could not be downloaded
+	 */
+	public File fetch(String url) throws IOException {
+		return fetch(url, -1, 0);
+	}
+
+	/**
+	 * Download (the beginning of) a media file into the cache. Bytes already
+	 * cached are not downloaded again. Must not be called from the main
+	 * thread.
+	 *
+	 * @param url
+	 *            url of the media file
+	 * @param limit
+	 *            number of bytes to cache at least or -1 for the whole file
+	 * @param timeout
+	 *            time in milliseconds after which downloading stops or 0 for
+	 *            no timeout
+	 * @return the cached file if the media file is complete, null otherwise
+	 * @throws IOException
+	 *             if the media file could not be downloaded
+	 */
+	public File fetch(String url, long limit, long timeout) throws IOException {
+		String key = keyFor(url);
+		synchronized (lockFor(key)) {
+			File f = get(url);
+			if (f != null) {
+				return f;
+			}
+			return download(key, url, limit,
+					timeout > 0 ? System.currentTimeMillis() + timeout
+							: Long.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Download a media file completely into the cache in the background
+	 *
+	 * @param url
+	 *            url of the media file
+	 */
+	public void prefetch(final String url) {
+		SdkExecutor.execute(SdkExecutor.Lane.MEDIA, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					fetch(url);
+				} catch (IOException e) {
+					SdkLog.w(TAG, "Error caching media file " + url + ": "
+							+ e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Remove all cached media files
+	 */
+	public synchronized void clear() {
+		Iterator<String> i = new ArrayList<String>(entries.keySet())
+				.iterator();
+		while (i.hasNext()) {
+			remove(i.next());
+		}
+		schedulePersist();
+	}
+
+	/**
+	 * Number of bytes used by cached media files
+	 *
+	 * @return size of the cache in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Maximum number of bytes used by cached media files
+	 *
+	 * @return maximum size of the cache in bytes
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	private File download(String key, String url, long limit, long deadline)
+			throws IOException {
+		File part = new File(root, key + PART);
+		long offset = part.exists() ? part.length() : 0;
+		long length = -1;
+		synchronized (this) {
+			CacheEntry e = entries.get(key);
+			if (e != null) {
+				length = e.length;
+			}
+		}
+		if (limit >= 0 && offset >= limit) {
+			return null;
+		}
+		int connectTimeout = SdkHttpClient.CONNECT_TIMEOUT;
+		int readTimeout = SdkHttpClient.READ_TIMEOUT;
+		if (deadline < Long.MAX_VALUE) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return null;
+			}
+			// a stalled connection must not outlast the deadline
+			connectTimeout = (int) Math.min(connectTimeout, remaining);
+			readTimeout = (int) Math.min(readTimeout, remaining);
+		}
+		Map<String, String> h = headers;
+		if (offset > 0) {
+			h = new HashMap<String, String>(headers);
+			h.put(RANGE_HEADER_NAME, "bytes=" + offset + "-");
+		}
+
+		SdkHttpClient.Response response = null;
+		OutputStream out = null;
+		boolean complete = false;
+		boolean discard = false;
+		long start = System.currentTimeMillis();
+		long read = 0;
+		try {
+			response = SdkHttpClient.get(url, h, connectTimeout, readTimeout);
+			int status = response.getStatusCode();
+			if (status == 416 && offset > 0 && offset == length) {
+				// the partial file had already been completed
+				complete = true;
+			} else if (status == 206 && offset > 0) {
+				long[] range = parseContentRange(response
+						.getHeader(CONTENT_RANGE_HEADER_NAME));
+				if (range == null || range[0] != offset) {
+					discard = true;
+					throw new IOException("Unexpected content range "
+							+ response.getHeader(CONTENT_RANGE_HEADER_NAME));
+				}
+				length = range[1];
+				SdkLog.d(TAG, "Resuming media file " + url + " at " + offset);
+			} else if (status == 200) {
+				// no partial file or the server ignored the range
+				offset = 0;
+				length = response.isGzipped() ? -1 : response
+						.getContentLength();
+			} else {
+				discard = true;
+				throw new IOException("Server returned HTTP " + status);
+			}
+			if (length > MAX_FILE_SIZE) {
+				discard = true;
+				throw new IOException("Media file too large [" + length
+						+ " bytes]");
+			}
+			if (!complete) {
+				out = new FileOutputStream(part, offset > 0);
+				InputStream in = response.getInputStream();
+				byte[] buffer = new byte[BUFFER_SIZE];
+				boolean eof = false;
+				while ((limit < 0 || offset < limit)
+						&& System.currentTimeMillis() < deadline) {
+					int l = 0;
+					try {
+						l = in.read(buffer);
+					} catch (SocketTimeoutException e) {
+						if (System.currentTimeMillis() < deadline) {
+							throw e;
+						}
+						// deadline passed, keep what was read so far
+						break;
+					}
+					if (l < 0) {
+						eof = true;
+						break;
+					}
+					out.write(buffer, 0, l);
+					offset += l;
+					read += l;
+					if (offset > MAX_FILE_SIZE) {
+						discard = true;
+						throw new IOException("Media file too large.");
+					}
+				}
+				complete = length >= 0 ? offset == length : eof;
+			}
+		} finally {
+			close(out);
+			if (response != null) {
+				response.close();
+			}
+			VASTMediaSelector.recordDownload(read, System.currentTimeMillis()
+					- start);
+			if (discard) {
+				synchronized (this) {
+					remove(key);
+					schedulePersist();
+				}
+			}
+		}
+		SdkLog.d(TAG, (complete ? "Cached media file " : "Partially cached ")
+				+ url + " [" + offset + " of " + length + " bytes]");
+		// partial data written before a network error is kept and accounted
+		// on the next attempt, which resumes at the end of the partial file
+		return commit(key, part, length, complete);
+	}
+
+	private synchronized File commit(String key, File part, long length,
+			boolean complete) {
+		File f = new File(root, key);
+		if (complete) {
+			if (!part.renameTo(f)) {
+				SdkLog.w(TAG, "Could not move media file to " + f);
+				remove(key);
+				return null;
+			}
+			makeReadable(f);
+		}
+		CacheEntry old = entries.remove(key);
+		if (old != null) {
+			size -= old.size;
+		}
+		CacheEntry e = new CacheEntry(complete ? f.length() : part.length(),
+				System.currentTimeMillis(), length, complete);
+		entries.put(key, e);
+		size += e.size;
+		trim(key);
+		schedulePersist();
+		return complete ? f : null;
+	}
+
+	private synchronized Object lockFor(String key) {
+		Object lock = locks.get(key);
+		if (lock == null) {
+			lock = new Object();
+			locks.put(key, lock);
+		}
+		return lock;
+	}
+
+	private void trim(String keep) {
+		Iterator<Map.Entry<String, CacheEntry>> i = entries.entrySet()
+				.iterator();
+		while (size > maxSize && i.hasNext()) {
+			Map.Entry<String, CacheEntry> eldest = i.next();
+			if (!eldest.getKey().equals(keep)) {
+				i.remove();
+				size -= eldest.getValue().size;
+				new File(root, eldest.getKey()).delete();
+				new File(root, eldest.getKey() + PART).delete();
+				SdkLog.d(TAG, "Evicted media file " + eldest.getKey());
+			}
+		}
+	}
+
+	private void remove(String key) {
+		CacheEntry e = entries.remove(key);
+		if (e != null) {
+			size -= e.size;
+		}
+		new File(root, key).delete();
+		new File(root, key + PART).delete();
+	}
+
+	private void schedulePersist() {
+		if (!persistScheduled) {
+			persistScheduled = true;
+			SdkExecutor.execute(SdkExecutor.Lane.ASSET, new Runnable() {
+				@Override
+				public void run() {
+					persist();
+				}
+			});
+		}
+	}
+
+	private void persist() {
+		StringBuilder sb = new StringBuilder();
+		synchronized (this) {
+			persistScheduled = false;
+			Iterator<Map.Entry<String, CacheEntry>> i = entries.entrySet()
+					.iterator();
+			while (i.hasNext()) {
+				Map.Entry<String, CacheEntry> e = i.next();
+				sb.append(e.getKey()).append(SEPARATOR)
+						.append(e.getValue().size).append(SEPARATOR)
+						.append(e.getValue().lastAccess).append(SEPARATOR)
+						.append(e.getValue().length).append(SEPARATOR)
+						.append(e.getValue().complete ? 1 : 0).append('\n');
+			}
+		}
+		BufferedWriter out = null;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(new File(root, JOURNAL)), "utf-8"));
+			out.write(sb.toString());
+		} catch (IOException e) {
+			SdkLog.e(TAG, "Error writing media cache journal.", e);
+		} finally {
+			close(out);
+		}
+	}
+
+	private void load() {
+		List<String[]> lines = new ArrayList<String[]>();
+		File journal = new File(root, JOURNAL);
+		if (journal.exists()) {
+			BufferedReader in = null;
+			try {
+				in = new BufferedReader(new InputStreamReader(
+						new FileInputStream(journal), "utf-8"));
+				String line = null;
+				while ((line = in.readLine()) != null) {
+					String[] l = line.split(SEPARATOR);
+					if (l.length == 5) {
+						lines.add(l);
+					}
+				}
+			} catch (IOException e) {
+				SdkLog.e(TAG, "Error reading media cache journal.", e);
+			} finally {
+				close(in);
+			}
+		}
+		// the journal is ordered least recently used first
+		for (String[] l : lines) {
+			boolean complete = "1".equals(l[4]);
+			File f = new File(root, complete ? l[0] : l[0] + PART);
+			if (f.exists()) {
+				try {
+					CacheEntry e = new CacheEntry(f.length(),
+							Long.parseLong(l[2]), Long.parseLong(l[3]),
+							complete);
+					entries.put(l[0], e);
+					size += e.size;
+				} catch (NumberFormatException ex) {
+					SdkLog.w(TAG, "Skipping corrupt journal line.");
+				}
+			}
+		}
+		// adopt files missing in the journal, oldest first
+		File[] files = root.listFiles();
+		if (files != null) {
+			Arrays.sort(files, new Comparator<File>() {
+				@Override
+				public int compare(File f1, File f2) {
+					Long d1 = f1.lastModified();
+					Long d2 = f2.lastModified();
+					return d1.compareTo(d2);
+				}
+			});
+			for (File f : files) {
+				String name = f.getName();
+				boolean complete = !name.endsWith(PART);
+				String key = complete ? name : name.substring(0, name.length()
+						- PART.length());
+				if (!JOURNAL.equals(name) && !entries.containsKey(key)) {
+					CacheEntry e = new CacheEntry(f.length(),
+							f.lastModified(), -1, complete);
+					entries.put(key, e);
+					size += e.size;
+				}
+			}
+		}
+		SdkLog.d(TAG, entries.size() + " cached media files [" + size + " of "
+				+ maxSize + " bytes]");
+		trim(null);
+	}
+
+	private static long[] parseContentRange(String range) {
+		// bytes <first>-<last>/<length or *>
+		if (range == null || !range.startsWith("bytes ")) {
+			return null;
+		}
+		int dash = range.indexOf('-');
+		int slash = range.indexOf('/');
+		if (dash < 0 || slash < dash) {
+			return null;
+		}
+		try {
+			long first = Long.parseLong(range.substring(6, dash).trim());
+			String l = range.substring(slash + 1).trim();
+			return new long[] { first, "*".equals(l) ? -1 : Long.parseLong(l) };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static String keyFor(String url) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			byte[] hash = digest.digest(url.getBytes("utf-8"));
+			StringBuilder sb = new StringBuilder(2 * hash.length);
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+						Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(url.hashCode());
+		} catch (IOException e) {
+			return Integer.toHexString(url.hashCode());
+		}
+	}
+
+	private static void makeReadable(File f) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			// the media player may run in a different process
+			f.setReadable(true, false);
+			if (f.isDirectory()) {
+				f.setExecutable(true, false);
+			}
+		}
+	}
+
+	private static void close(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				SdkLog.w(TAG, "Error closing media cache file.");
+			}
+		}
+	}
+
+	private static final class CacheEntry {
+
+		private final long size;
+
+		private long lastAccess;
+
+		private final long length;
+
+		private final boolean complete;
+
+		private CacheEntry(long size, long lastAccess, long length,
+				boolean complete) {
+			this.size = size;
+			this.lastAccess = lastAccess;
+			this.length = length;
+			this.complete = complete;
+		}
+	}
+
+}
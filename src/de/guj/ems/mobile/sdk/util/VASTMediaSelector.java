@@ -0,0 +1,189 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.util.List;
+
+/**
+ * Chooses the rendition of a linear VAST creative to play.
+ *
+ * The bitrate budget is derived from the connection class (wifi, 4G, 3G or
+ * slower) and, once media files were downloaded, from the measured
+ * throughput. Of all playable renditions within the budget the one with the
+ * highest bitrate not exceeding the screen size is chosen. If no rendition
+ * fits the budget, the one with the lowest bitrate is played.
+ *
+ * Usage: VASTMediaSelector.select(vastXml.getMediaFiles());
+ *
+ * @author stein16
+ *
+ */
+public final class VASTMediaSelector {
+
+	private final static String TAG = "VASTMediaSelector";
+
+	/**
+	 * Maximum bitrate in kbit/s on wifi
+	 */
+	public final static int MAX_BITRATE_WIFI = 2500;
+
+	/**
+	 * Maximum bitrate in kbit/s on 4G
+	 */
+	public final static int MAX_BITRATE_4G = 1500;
+
+	/**
+	 * Maximum bitrate in kbit/s on 3G
+	 */
+	public final static int MAX_BITRATE_3G = 600;
+
+	/**
+	 * Maximum bitrate in kbit/s on slower connections
+	 */
+	public final static int MAX_BITRATE_2G = 250;
+
+	/**
+	 * Share of the measured throughput used for playback
+	 */
+	private final static float THROUGHPUT_SHARE = 0.75f;
+
+	/**
+	 * Weight of a new throughput sample in the moving average
+	 */
+	private final static float SAMPLE_WEIGHT = 0.3f;
+
+	/**
+	 * Downloads smaller than this are too short for a meaningful sample
+	 */
+	private final static long MIN_SAMPLE_BYTES = 64 * 1024;
+
+	/**
+	 * Renditions may exceed the screen by this factor
+	 */
+	private final static float SCREEN_TOLERANCE = 1.25f;
+
+	private static float throughput = -1.0f;
+
+	private VASTMediaSelector() {
+	}
+
+	/**
+	 * Record a finished media download for estimating the throughput
+	 *
+	 * @param bytes
+	 *            number of bytes downloaded
+	 * @param millis
+	 *            duration of the download in milliseconds
+	 */
+	public synchronized static void recordDownload(long bytes, long millis) {
+		if (bytes < MIN_SAMPLE_BYTES || millis <= 0) {
+			return;
+		}
+		float kbps = bytes * 8.0f / millis;
+		throughput = throughput < 0 ? kbps : SAMPLE_WEIGHT * kbps
+				+ (1.0f - SAMPLE_WEIGHT) * throughput;
+		SdkLog.d(TAG, "Measured " + (int) kbps + " kbit/s, estimate is "
+				+ (int) throughput + " kbit/s");
+	}
+
+	/**
+	 * Get the estimated throughput of media downloads
+	 *
+	 * @return throughput in kbit/s or -1 if nothing was measured, yet
+	 */
+	public synchronized static int getThroughput() {
+		return (int) throughput;
+	}
+
+	/**
+	 * Get the maximum bitrate for the current connection
+	 *
+	 * @return bitrate budget in kbit/s
+	 */
+	public static int getBitrateBudget() {
+		DeviceStateMonitor.DeviceState state = DeviceStateMonitor
+				.getInstance().getState();
+		int budget = MAX_BITRATE_2G;
+		if (state.isWifi()) {
+			budget = MAX_BITRATE_WIFI;
+		} else if (state.is4G()) {
+			budget = MAX_BITRATE_4G;
+		} else if (state.is3G()) {
+			budget = MAX_BITRATE_3G;
+		}
+		int measured = getThroughput();
+		if (measured > 0) {
+			budget = Math.min(budget,
+					Math.max(MAX_BITRATE_2G, (int) (THROUGHPUT_SHARE * measured)));
+		}
+		return budget;
+	}
+
+	/**
+	 * Choose the rendition to play
+	 *
+	 * @param mediaFiles
+	 *            all renditions of the creative
+	 * @return the rendition to play or null if there is none
+	 */
+	public static VASTAd.MediaFile select(List<VASTAd.MediaFile> mediaFiles) {
+		int budget = getBitrateBudget();
+		int screen = Math.max(SdkUtil.getScreenWidth(),
+				SdkUtil.getScreenHeight());
+		VASTAd.MediaFile best = null;
+		VASTAd.MediaFile lowest = null;
+		VASTAd.MediaFile fallback = null;
+		for (VASTAd.MediaFile m : mediaFiles) {
+			if (!m.isPlayable()) {
+				if (fallback == null) {
+					fallback = m;
+				}
+				continue;
+			}
+			if (lowest == null || bitrate(m) < bitrate(lowest)) {
+				lowest = m;
+			}
+			if (bitrate(m) > budget) {
+				continue;
+			}
+			if (best == null || better(m, best, screen)) {
+				best = m;
+			}
+		}
+		VASTAd.MediaFile selected = best != null ? best
+				: (lowest != null ? lowest : fallback);
+		SdkLog.i(TAG, "Selected media file " + selected + " of "
+				+ mediaFiles.size() + " [budget " + budget + " kbit/s, screen "
+				+ screen + " px]");
+		return selected;
+	}
+
+	private static boolean better(VASTAd.MediaFile m, VASTAd.MediaFile best,
+			int screen) {
+		boolean fits = fits(m, screen);
+		boolean bestFits = fits(best, screen);
+		if (fits != bestFits) {
+			return fits;
+		}
+		if (!fits) {
+			// both too large for the screen, prefer the smaller one
+			return size(m) < size(best);
+		}
+		if (bitrate(m) != bitrate(best)) {
+			return bitrate(m) > bitrate(best);
+		}
+		return size(m) > size(best);
+	}
+
+	private static boolean fits(VASTAd.MediaFile m, int screen) {
+		return size(m) <= screen * SCREEN_TOLERANCE;
+	}
+
+	private static int size(VASTAd.MediaFile m) {
+		return Math.max(m.getWidth(), m.getHeight());
+	}
+
+	private static int bitrate(VASTAd.MediaFile m) {
+		// renditions without bitrate are assumed to fit any budget
+		return m.getBitrate() > 0 ? m.getBitrate() : 0;
+	}
+
+}
@@ -0,0 +1,198 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import de.guj.ems.mobile.sdk.R;
+
+/**
+ * Resolves chains of wrapped VAST xml.
+ *
+ * Every wrapped VAST xml is fetched over the shared http transport and parsed
+ * once; the parsers are chained, so the returned root parser delivers the
+ * trackings of all levels. The number of followed wrappers
+ * (ems_vast_max_wrapper_depth) and the time for resolving the whole chain
+ * (ems_vast_wrapper_timeout_ms) are limited.
+ *
+ * Usage: VASTWrapperResolver.resolve(context, xml, listener);
+ *
+ * @author stein16
+ *
+ */
+public final class VASTWrapperResolver {
+
+	private final static String TAG = "VASTWrapperResolver";
+
+	private final static Handler MAIN_HANDLER = new Handler(
+			Looper.getMainLooper());
+
+	private VASTWrapperResolver() {
+	}
+
+	/**
+	 * Resolve a VAST xml and all wrapped VAST xml in the background
+	 *
+	 * @param c
+	 *            android context
+	 * @param xml
+	 *            the initial VAST xml
+	 * @param listener
+	 *            listener called on the main thread when the chain is
+	 *            resolved or resolving failed, may be null
+	 * @return future of the resolved parser which may be used for
+	 *         cancellation, the listener is not called if it is canceled
+	 */
+	public static Future<VASTXmlParser> resolve(final Context c,
+			final String xml, final VASTResolvedListener listener) {
+		FutureTask<VASTXmlParser> task = new FutureTask<VASTXmlParser>(
+				new Callable<VASTXmlParser>() {
+					@Override
+					public VASTXmlParser call() throws Exception {
+						return resolve(c, xml, (List<String>) null);
+					}
+				}) {
+			@Override
+			protected void done() {
+				if (listener == null || isCancelled()) {
+					return;
+				}
+				try {
+					final VASTXmlParser vast = get();
+					MAIN_HANDLER.post(new Runnable() {
+						@Override
+						public void run() {
+							listener.onVASTResolved(vast);
+						}
+					});
+				} catch (final ExecutionException e) {
+					MAIN_HANDLER.post(new Runnable() {
+						@Override
+						public void run() {
+							listener.onVASTError(
+									"Error resolving wrapped VAST xml",
+									e.getCause());
+						}
+					});
+				} catch (InterruptedException e) {
+					SdkLog.w(TAG, "Interrupted while resolving VAST xml.");
+				}
+			}
+		};
+		SdkExecutor.execute(SdkExecutor.Lane.AD_REQUEST, task);
+		return task;
+	}
+
+	/**
+	 * Resolve a VAST xml and all wrapped VAST xml in the calling thread. Must
+	 * not be called from the main thread.
+	 *
+	 * @param c
+	 *            android context
+	 * @param xml
+	 *            the initial VAST xml
+	 * @param wrapped
+	 *            list receiving the fetched VAST xml in order of nesting, may
+	 *            be null
+	 * @return parser of the initial VAST xml with all wrapped VAST xml
+	 *         attached
+	 * @throws IOException
+	 *             if a wrapped VAST xml could not be fetched in time or the
+	 *             chain is too deep
+	 */
+	public static VASTXmlParser resolve(Context c, String xml,
+			List<String> wrapped) throws IOException {
+		int maxDepth = c.getResources().getInteger(
+				R.integer.ems_vast_max_wrapper_depth);
+		long deadline = System.currentTimeMillis()
+				+ c.getResources().getInteger(
+						R.integer.ems_vast_wrapper_timeout_ms);
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(SdkHttpClient.USER_AGENT_HEADER_NAME,
+				SdkUtil.getUserAgent());
+
+		VASTXmlParser root = new VASTXmlParser(c, null, xml);
+		VASTXmlParser vast = root;
+		int depth = 0;
+		while (vast.hasWrapper()) {
+			String url = vast.getWrapperUrl();
+			if (url == null || url.length() == 0) {
+				throw new IOException("Wrapped VAST xml without url.");
+			}
+			if (++depth > maxDepth) {
+				throw new IOException("More than " + maxDepth
+						+ " wrapped VAST xml.");
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+				throw new IOException("Timeout resolving wrapped VAST xml.");
+			}
+			SdkLog.d(TAG, "Fetching wrapped VAST xml " + url);
+			String next = fetch(url, headers, remaining);
+			if (wrapped != null) {
+				wrapped.add(next);
+			}
+			VASTXmlParser w = new VASTXmlParser(c, null, next);
+			vast.setWrapper(w);
+			vast = w;
+		}
+		SdkLog.i(TAG, "Resolved VAST xml with " + depth + " wrappers.");
+		return root;
+	}
+
+	private static String fetch(String url, Map<String, String> headers,
+			long remaining) throws IOException {
+		SdkHttpClient.Response response = null;
+		try {
+			response = SdkHttpClient.get(url, headers,
+					(int) Math.min(SdkHttpClient.AD_CONNECT_TIMEOUT, remaining),
+					(int) Math.min(SdkHttpClient.AD_READ_TIMEOUT, remaining));
+			if (response.getStatusCode() != 200) {
+				throw new IOException("Server returned HTTP "
+						+ response.getStatusCode());
+			}
+			return SdkResponseReader.read(response);
+		} finally {
+			if (response != null) {
+				response.close();
+			}
+		}
+	}
+
+	/**
+	 * Listener for resolved VAST xml
+	 *
+	 * @author stein16
+	 *
+	 */
+	public interface VASTResolvedListener {
+
+		/**
+		 * Called on the main thread when all wrapped VAST xml were fetched
+		 *
+		 * @param vast
+		 *            parser of the initial VAST xml with all wrapped VAST xml
+		 *            attached
+		 */
+		public void onVASTResolved(VASTXmlParser vast);
+
+		/**
+		 * Called on the main thread when resolving failed
+		 *
+		 * @param msg
+		 *            error message
+		 * @param t
+		 *            cause
+		 */
+		public void onVASTError(String msg, Throwable t);
+	}
+
+}
@@ -3,6 +3,8 @@ package de.guj.ems.mobile.sdk.util;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
@@ -13,13 +15,17 @@ import android.content.Context;
 import android.util.Xml;
 
 /**
- * Implementation of VAST 2.0 XML Parser using XmlPullParser. The parser finds
- * all trackings, settings and the actual mediafile. If the plain data contains
- * a wrapped VAST xml, it is fetched by triggering a callback on the UI thread
- * which should fetch the additional file.
+ * Implementation of VAST 2.0 / 3.0 XML Parser using XmlPullParser. The parser
+ * reads all ads of the xml in one pass into VASTAd objects holding all
+ * impressions, error urls, trackings, media files and companions. Of an ad pod
+ * the first ad is played, otherwise the first standalone ad. If this ad is a
+ * wrapper, the url of the wrapped VAST xml is passed to the wrapper listener
+ * and available via getWrapperUrl(). VASTWrapperResolver fetches whole wrapper chains in the
+ * background.
  * 
  * Wrapped VAST xml trackings and original trackings will be combined, i.e. you
- * will receive a list of URLs for all trackings.
+ * will receive a list of URLs for all trackings. The trackings of all levels
+ * are merged once the chain is complete.
  * 
  * @author stein16
  * 
@@ -66,25 +72,50 @@ public class VASTXmlParser {
 
 	private final static String VAST_CLICKTRACKING_TAG = "ClickTracking";
 
+	private final static String VAST_ERROR_TAG = "Error";
+
+	private final static String VAST_ADSYSTEM_TAG = "AdSystem";
+
+	private final static String VAST_ADTITLE_TAG = "AdTitle";
+
+	private final static String VAST_COMPANIONADS_TAG = "CompanionAds";
+
+	private final static String VAST_COMPANION_TAG = "Companion";
+
+	private final static String VAST_STATICRESOURCE_TAG = "StaticResource";
+
+	private final static String VAST_IFRAMERESOURCE_TAG = "IFrameResource";
+
+	private final static String VAST_HTMLRESOURCE_TAG = "HTMLResource";
+
+	private final static String VAST_COMPANIONCLICKTHROUGH_TAG = "CompanionClickThrough";
+
+	private final static String VAST_COMPANIONCLICKTRACKING_TAG = "CompanionClickTracking";
+
+	private final static String VAST_CREATIVEVIEW_EVENT = "creativeView";
+
+	private final static VASTWrapperListener RESOLVED_WRAPPER_LISTENER = new VASTWrapperListener() {
+		@Override
+		public void onVASTWrapperFound(String url) {
+			SdkLog.d(TAG, "Wrapped VAST xml already fetched [" + url + "]");
+		}
+	};
+
 	private boolean ready;
 
 	private volatile boolean hasWrapper;
 
 	private volatile VASTXmlParser wrappedVASTXml;
 
-	private String clickThroughUrl;
-
-	private String clickTrackingUrl;
-
 	private int skipOffset;
 
-	private String impressionTrackerUrl;
+	private final List<VASTAd> ads = new ArrayList<VASTAd>();
 
-	private String duration;
+	private final List<String> errorUrls = new ArrayList<String>();
 
-	private String mediaFileUrl;
+	private VASTAd ad;
 
-	private List<Tracking> trackings;
+	private volatile Merged merged;
 
 	/**
 	 * Simple bean to hold trackign URLs for various VAST events
@@ -92,7 +123,7 @@ public class VASTXmlParser {
 	 * @author stein16
 	 * 
 	 */
-	public class Tracking {
+	public static class Tracking {
 
 		/**
 		 * The player has closed
@@ -157,7 +188,7 @@ public class VASTXmlParser {
 		/**
 		 * Mapping of event descriptions in VAST xml to internal names
 		 */
-		public final String[] EVENT_MAPPING = new String[] { "finalReturn",
+		public final static String[] EVENT_MAPPING = new String[] { "finalReturn",
 				"impression", "start", "firstQuartile", "midpoint",
 				"thirdQuartile", "complete", "mute", "unmute", "pause",
 				"resume", "fullscreen" };
@@ -221,7 +252,6 @@ public class VASTXmlParser {
 	 *            data of the initial VAST response/file
 	 */
 	public VASTXmlParser(Context c, VASTWrapperListener listener, String data) {
-		this.trackings = new ArrayList<Tracking>();
 		this.ready = false;
 		this.context = c;
 		this.wrapperListener = listener;
@@ -233,9 +263,32 @@ public class VASTXmlParser {
 		} catch (Exception e) {
 			SdkLog.e(TAG, "Error parsing VAST XML", e);
 		}
+		selectAd();
 		this.ready = true;
 	}
 
+	/**
+	 * Constructor for VAST parser whose wrapped VAST xml have already been
+	 * fetched
+	 *
+	 * @param c
+	 *            Android Application context
+	 * @param data
+	 *            data of the initial VAST response/file
+	 * @param wrapped
+	 *            data of all wrapped VAST xml in order of nesting
+	 */
+	public VASTXmlParser(Context c, String data, List<String> wrapped) {
+		this(c, RESOLVED_WRAPPER_LISTENER, data);
+		VASTXmlParser vast = this;
+		for (String w : wrapped) {
+			VASTXmlParser next = new VASTXmlParser(c,
+					RESOLVED_WRAPPER_LISTENER, w);
+			vast.setWrapper(next);
+			vast = next;
+		}
+	}
+
 	private void readVAST(String data) throws XmlPullParserException,
 			IOException {
 
@@ -248,8 +301,13 @@ public class VASTXmlParser {
 			if (parser.getEventType() != XmlPullParser.START_TAG) {
 				continue;
 			}
-			if (parser.getName().equals(VAST_AD_TAG)) {
+			String name = parser.getName();
+			if (name.equals(VAST_AD_TAG)) {
 				readAd(parser);
+			} else if (name.equals(VAST_ERROR_TAG)) {
+				this.errorUrls.add(readText(parser));
+			} else {
+				skip(parser);
 			}
 		}
 	}
@@ -257,6 +315,8 @@ public class VASTXmlParser {
 	private void readAd(XmlPullParser p) throws IOException,
 			XmlPullParserException {
 		p.require(XmlPullParser.START_TAG, null, VAST_AD_TAG);
+		VASTAd ad = new VASTAd(p.getAttributeValue(null, "id"), parseInt(p
+				.getAttributeValue(null, "sequence")));
 		while (p.next() != XmlPullParser.END_TAG) {
 			if (p.getEventType() != XmlPullParser.START_TAG) {
 				continue;
@@ -264,209 +324,237 @@ public class VASTXmlParser {
 			String name = p.getName();
 			if (name.equals(VAST_INLINE_TAG)) {
 				SdkLog.i(TAG, "VAST file contains inline ad information.");
-				readInLine(p);
-			}
-			if (name.equals(VAST_WRAPPER_TAG)) {
+				readAdContent(p, ad, VAST_INLINE_TAG);
+			} else if (name.equals(VAST_WRAPPER_TAG)) {
 				SdkLog.i(TAG, "VAST file contains wrapped ad information.");
-				hasWrapper = true;
-				readWrapper(p);
+				ad.setWrapper(true);
+				readAdContent(p, ad, VAST_WRAPPER_TAG);
+			} else {
+				skip(p);
 			}
 		}
+		this.ads.add(ad);
 	}
 
-	private void readMediaFiles(XmlPullParser p) throws IOException,
-			XmlPullParserException {
-		p.require(XmlPullParser.START_TAG, null, VAST_MEDIAFILES_TAG);
+	private void readAdContent(XmlPullParser p, VASTAd ad, String tag)
+			throws IOException, XmlPullParserException {
+		p.require(XmlPullParser.START_TAG, null, tag);
 		while (p.next() != XmlPullParser.END_TAG) {
 			if (p.getEventType() != XmlPullParser.START_TAG) {
 				continue;
 			}
 			String name = p.getName();
-			if (name != null && name.equals(VAST_MEDIAFILE_TAG)) {
-				p.require(XmlPullParser.START_TAG, null, VAST_MEDIAFILE_TAG);
-				this.mediaFileUrl = readText(p);
-				p.require(XmlPullParser.END_TAG, null, VAST_MEDIAFILE_TAG);
-				SdkLog.i(TAG, "Mediafile url: " + this.mediaFileUrl);
+			if (name.equals(VAST_IMPRESSION_TAG)) {
+				String url = readText(p);
+				if (url.length() > 0) {
+					ad.addImpressionUrl(url);
+					SdkLog.d(TAG, "Impression tracker url: " + url);
+				}
+			} else if (name.equals(VAST_ERROR_TAG)) {
+				ad.addErrorUrl(readText(p));
+			} else if (name.equals(VAST_ADSYSTEM_TAG)) {
+				ad.setAdSystem(readText(p));
+			} else if (name.equals(VAST_ADTITLE_TAG)) {
+				ad.setAdTitle(readText(p));
+			} else if (name.equals(VAST_CREATIVES_TAG)) {
+				readCreatives(p, ad);
+			} else if (name.equals(VAST_ADTAGURI_TAG)) {
+				getWrappedVast(p, ad);
 			} else {
 				skip(p);
 			}
 		}
 	}
 
-	private void readTrackingEvents(XmlPullParser p) throws IOException,
-			XmlPullParserException {
-		p.require(XmlPullParser.START_TAG, null, VAST_TRACKINGEVENTS_TAG);
+	private void readCreatives(XmlPullParser p, VASTAd ad)
+			throws IOException, XmlPullParserException {
+		p.require(XmlPullParser.START_TAG, null, VAST_CREATIVES_TAG);
 		while (p.next() != XmlPullParser.END_TAG) {
 			if (p.getEventType() != XmlPullParser.START_TAG) {
 				continue;
 			}
-			String name = p.getName();
-			if (name != null && name.equals(VAST_TRACKING_TAG)) {
-				String ev = p.getAttributeValue(null, "event");
-				p.require(XmlPullParser.START_TAG, null, VAST_TRACKING_TAG);
-				this.trackings.add(new Tracking(ev, readText(p)));
-				SdkLog.d(TAG, "Added VAST tracking \"" + ev + "\"");
-				p.require(XmlPullParser.END_TAG, null, VAST_TRACKING_TAG);
+			if (p.getName().equals(VAST_CREATIVE_TAG)) {
+				readCreative(p, ad);
 			} else {
 				skip(p);
 			}
 		}
 	}
 
-	private void readVideoClicks(XmlPullParser p) throws IOException,
+	private void readCreative(XmlPullParser p, VASTAd ad) throws IOException,
 			XmlPullParserException {
-		p.require(XmlPullParser.START_TAG, null, VAST_VIDEOCLICKS_TAG);
+		p.require(XmlPullParser.START_TAG, null, VAST_CREATIVE_TAG);
 		while (p.next() != XmlPullParser.END_TAG) {
 			if (p.getEventType() != XmlPullParser.START_TAG) {
 				continue;
 			}
 			String name = p.getName();
-			if (name != null && name.equals(VAST_CLICKTHROUGH_TAG)) {
-				p.require(XmlPullParser.START_TAG, null, VAST_CLICKTHROUGH_TAG);
-				this.clickThroughUrl = readText(p);
-				SdkLog.d(TAG, "Video clickthrough url: " + clickThroughUrl);
-				p.require(XmlPullParser.END_TAG, null, VAST_CLICKTHROUGH_TAG);
-			} else if (name != null && name.equals(VAST_CLICKTRACKING_TAG)) {
-				p.require(XmlPullParser.START_TAG, null, VAST_CLICKTRACKING_TAG);
-				this.clickTrackingUrl = readText(p);
-				SdkLog.d(TAG, "Video clicktracking url: " + clickThroughUrl);
-				p.require(XmlPullParser.END_TAG, null, VAST_CLICKTRACKING_TAG);
+			if (name.equals(VAST_LINEAR_TAG)) {
+				String skipOffset = p.getAttributeValue(null, "skipoffset");
+				if (skipOffset != null) {
+					ad.setSkipOffset(skipOffset);
+				}
+				readLinear(p, ad);
+			} else if (name.equals(VAST_COMPANIONADS_TAG)) {
+				readCompanionAds(p, ad);
 			} else {
 				skip(p);
 			}
 		}
 	}
 
-	private void readLinear(XmlPullParser p) throws IOException,
+	private void readLinear(XmlPullParser p, VASTAd ad) throws IOException,
 			XmlPullParserException {
 		p.require(XmlPullParser.START_TAG, null, VAST_LINEAR_TAG);
 		while (p.next() != XmlPullParser.END_TAG) {
-			String name = p.getName();
 			if (p.getEventType() != XmlPullParser.START_TAG) {
 				continue;
 			}
-			if (name != null && name.equals(VAST_DURATION_TAG)) {
-				p.require(XmlPullParser.START_TAG, null, VAST_DURATION_TAG);
-				this.duration = readText(p);
-				p.require(XmlPullParser.END_TAG, null, VAST_DURATION_TAG);
-
-				SdkLog.d(TAG, "Video duration: " + this.duration);
-			} else if (name != null && name.equals(VAST_TRACKINGEVENTS_TAG)) {
-				readTrackingEvents(p);
-			} else if (name != null && name.equals(VAST_MEDIAFILES_TAG)) {
-				readMediaFiles(p);
-			} else if (name != null && name.equals(VAST_VIDEOCLICKS_TAG)) {
-				readVideoClicks(p);
+			String name = p.getName();
+			if (name.equals(VAST_DURATION_TAG)) {
+				ad.setDuration(readText(p));
+				SdkLog.d(TAG, "Video duration: " + ad.getDuration());
+			} else if (name.equals(VAST_TRACKINGEVENTS_TAG)) {
+				readTrackingEvents(p, ad);
+			} else if (name.equals(VAST_MEDIAFILES_TAG)) {
+				readMediaFiles(p, ad);
+			} else if (name.equals(VAST_VIDEOCLICKS_TAG)) {
+				readVideoClicks(p, ad);
 			} else {
 				skip(p);
 			}
 		}
 	}
 
-	private void readCreative(XmlPullParser p) throws IOException,
-			XmlPullParserException {
-		p.require(XmlPullParser.START_TAG, null, VAST_CREATIVE_TAG);
+	private void readTrackingEvents(XmlPullParser p, VASTAd ad)
+			throws IOException, XmlPullParserException {
+		p.require(XmlPullParser.START_TAG, null, VAST_TRACKINGEVENTS_TAG);
 		while (p.next() != XmlPullParser.END_TAG) {
 			if (p.getEventType() != XmlPullParser.START_TAG) {
 				continue;
 			}
-			String name = p.getName();
-			if (name != null && name.equals(VAST_LINEAR_TAG)) {
-				String skipoffsetStr = p.getAttributeValue(null, "skipoffset");
-				if (skipoffsetStr != null && skipoffsetStr.indexOf(":") < 0) {
-					skipOffset = Integer.parseInt(skipoffsetStr.substring(0,
-							skipoffsetStr.length() - 1));
-					SdkLog.i(TAG, "Linear skipoffset is " + skipOffset + " [%]");
-				} else if (skipoffsetStr != null
-						&& skipoffsetStr.indexOf(":") >= 0) {
-					skipOffset = -1;
-					SdkLog.w(
-							TAG,
-							"Absolute time value ignored for skipOffset in VAST xml. Only percentage values will pe parsed.");
-				}
-				readLinear(p);
+			if (p.getName().equals(VAST_TRACKING_TAG)) {
+				String ev = p.getAttributeValue(null, "event");
+				ad.addTracking(new Tracking(ev, readText(p)));
+				SdkLog.d(TAG, "Added VAST tracking \"" + ev + "\"");
 			} else {
 				skip(p);
 			}
 		}
 	}
 
-	private void readCreatives(XmlPullParser p) throws IOException,
-			XmlPullParserException {
-		p.require(XmlPullParser.START_TAG, null, VAST_CREATIVES_TAG);
+	private void readMediaFiles(XmlPullParser p, VASTAd ad)
+			throws IOException, XmlPullParserException {
+		p.require(XmlPullParser.START_TAG, null, VAST_MEDIAFILES_TAG);
 		while (p.next() != XmlPullParser.END_TAG) {
 			if (p.getEventType() != XmlPullParser.START_TAG) {
 				continue;
 			}
-			String name = p.getName();
-			if (name != null && name.equals(VAST_CREATIVE_TAG)) {
-				readCreative(p);
+			if (p.getName().equals(VAST_MEDIAFILE_TAG)) {
+				String type = p.getAttributeValue(null, "type");
+				String delivery = p.getAttributeValue(null, "delivery");
+				int bitrate = parseInt(p.getAttributeValue(null, "bitrate"));
+				int width = parseInt(p.getAttributeValue(null, "width"));
+				int height = parseInt(p.getAttributeValue(null, "height"));
+				VASTAd.MediaFile m = new VASTAd.MediaFile(readText(p), type,
+						delivery, bitrate, width, height);
+				ad.addMediaFile(m);
+				SdkLog.i(TAG, "Mediafile: " + m);
 			} else {
 				skip(p);
 			}
 		}
 	}
 
-	private void getWrappedVast(XmlPullParser p) throws IOException,
-			XmlPullParserException {
-		p.require(XmlPullParser.START_TAG, null, VAST_ADTAGURI_TAG);
-		String url = readText(p);
-		p.require(XmlPullParser.END_TAG, null, VAST_ADTAGURI_TAG);
-		if (wrapperListener != null) {
-			wrapperListener.onVASTWrapperFound(url);
-		} else {
-			SdkLog.e(TAG, "No listener set for wrapped VAST xml.");
+	private void readVideoClicks(XmlPullParser p, VASTAd ad)
+			throws IOException, XmlPullParserException {
+		p.require(XmlPullParser.START_TAG, null, VAST_VIDEOCLICKS_TAG);
+		while (p.next() != XmlPullParser.END_TAG) {
+			if (p.getEventType() != XmlPullParser.START_TAG) {
+				continue;
+			}
+			String name = p.getName();
+			if (name.equals(VAST_CLICKTHROUGH_TAG)) {
+				ad.setClickThroughUrl(readText(p));
+				SdkLog.d(TAG,
+						"Video clickthrough url: " + ad.getClickThroughUrl());
+			} else if (name.equals(VAST_CLICKTRACKING_TAG)) {
+				String url = readText(p);
+				ad.addClickTrackingUrl(url);
+				SdkLog.d(TAG, "Video clicktracking url: " + url);
+			} else {
+				skip(p);
+			}
 		}
-		// this.wrappedVASTXml = new VASTXmlParser(context, new URL(url));
-
 	}
 
-	private void readWrapper(XmlPullParser p) throws IOException,
-			XmlPullParserException {
-		p.require(XmlPullParser.START_TAG, null, VAST_WRAPPER_TAG);
+	private void readCompanionAds(XmlPullParser p, VASTAd ad)
+			throws IOException, XmlPullParserException {
+		p.require(XmlPullParser.START_TAG, null, VAST_COMPANIONADS_TAG);
 		while (p.next() != XmlPullParser.END_TAG) {
 			if (p.getEventType() != XmlPullParser.START_TAG) {
 				continue;
 			}
-			String name = p.getName();
-			if (name != null && name.equals(VAST_IMPRESSION_TAG)) {
-				p.require(XmlPullParser.START_TAG, null, VAST_IMPRESSION_TAG);
-				this.impressionTrackerUrl = readText(p);
-				p.require(XmlPullParser.END_TAG, null, VAST_IMPRESSION_TAG);
-
-				SdkLog.d(TAG, "Impression tracker url: "
-						+ this.impressionTrackerUrl);
-			} else if (name != null && name.equals(VAST_CREATIVES_TAG)) {
-				readCreatives(p);
-			} else if (name != null && name.equals(VAST_ADTAGURI_TAG)) {
-				getWrappedVast(p);
+			if (p.getName().equals(VAST_COMPANION_TAG)) {
+				readCompanion(p, ad);
 			} else {
 				skip(p);
 			}
 		}
 	}
 
-	private void readInLine(XmlPullParser p) throws IOException,
-			XmlPullParserException {
-		p.require(XmlPullParser.START_TAG, null, VAST_INLINE_TAG);
+	private void readCompanion(XmlPullParser p, VASTAd ad)
+			throws IOException, XmlPullParserException {
+		p.require(XmlPullParser.START_TAG, null, VAST_COMPANION_TAG);
+		VASTAd.Companion c = new VASTAd.Companion(p.getAttributeValue(null,
+				"id"), parseInt(p.getAttributeValue(null, "width")),
+				parseInt(p.getAttributeValue(null, "height")));
 		while (p.next() != XmlPullParser.END_TAG) {
 			if (p.getEventType() != XmlPullParser.START_TAG) {
 				continue;
 			}
 			String name = p.getName();
-			if (name != null && name.equals(VAST_IMPRESSION_TAG)) {
-				p.require(XmlPullParser.START_TAG, null, VAST_IMPRESSION_TAG);
-				this.impressionTrackerUrl = readText(p);
-				p.require(XmlPullParser.END_TAG, null, VAST_IMPRESSION_TAG);
-
-				SdkLog.d(TAG, "Impression tracker url: "
-						+ this.impressionTrackerUrl);
-			} else if (name != null && name.equals(VAST_CREATIVES_TAG)) {
-				readCreatives(p);
+			if (name.equals(VAST_STATICRESOURCE_TAG)) {
+				String type = p.getAttributeValue(null, "creativeType");
+				c.setStaticResource(readText(p), type);
+			} else if (name.equals(VAST_IFRAMERESOURCE_TAG)) {
+				c.setIFrameResource(readText(p));
+			} else if (name.equals(VAST_HTMLRESOURCE_TAG)) {
+				c.setHtmlResource(readText(p));
+			} else if (name.equals(VAST_COMPANIONCLICKTHROUGH_TAG)) {
+				c.setClickThroughUrl(readText(p));
+			} else if (name.equals(VAST_COMPANIONCLICKTRACKING_TAG)) {
+				c.addClickTrackingUrl(readText(p));
+			} else if (name.equals(VAST_TRACKINGEVENTS_TAG)) {
+				// companions only track the creativeView event
+				while (p.next() != XmlPullParser.END_TAG) {
+					if (p.getEventType() != XmlPullParser.START_TAG) {
+						continue;
+					}
+					if (!p.getName().equals(VAST_TRACKING_TAG)) {
+						skip(p);
+						continue;
+					}
+					String ev = p.getAttributeValue(null, "event");
+					String url = readText(p);
+					if (VAST_CREATIVEVIEW_EVENT.equals(ev)) {
+						c.addCreativeViewUrl(url);
+					}
+				}
 			} else {
 				skip(p);
 			}
 		}
+		ad.addCompanion(c);
+		SdkLog.d(TAG, "Companion " + c.getWidth() + "x" + c.getHeight());
+	}
+
+	private void getWrappedVast(XmlPullParser p, VASTAd ad)
+			throws IOException, XmlPullParserException {
+		p.require(XmlPullParser.START_TAG, null, VAST_ADTAGURI_TAG);
+		String url = readText(p);
+		p.require(XmlPullParser.END_TAG, null, VAST_ADTAGURI_TAG);
+		ad.setWrapperUrl(url);
 	}
 
 	private void skip(XmlPullParser p) throws XmlPullParserException,
@@ -499,21 +587,118 @@ public class VASTXmlParser {
 		return result.trim();
 	}
 
+	private static int parseInt(String s) {
+		if (s != null) {
+			try {
+				return Integer.parseInt(s.trim());
+			} catch (NumberFormatException e) {
+				SdkLog.w(TAG, "Invalid number in VAST xml: " + s);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Convert a VAST time value (HH:MM:SS[.mmm]) to milliseconds
+	 * 
+	 * @param time
+	 *            the time value
+	 * @return time in milliseconds or -1 if the value is invalid
+	 */
+	public static long parseTime(String time) {
+		if (time == null) {
+			return -1;
+		}
+		String[] parts = time.trim().split(":");
+		if (parts.length != 3) {
+			return -1;
+		}
+		try {
+			return (Integer.parseInt(parts[0]) * 3600L + Integer
+					.parseInt(parts[1]) * 60L) * 1000L
+					+ (long) (Double.parseDouble(parts[2]) * 1000.0);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Select the primary ad, i.e. the first ad of an ad pod or the first
+	 * standalone ad if there is no pod. Fires the wrapper listener if the
+	 * primary ad is a wrapper.
+	 */
+	private void selectAd() {
+		VASTAd primary = null;
+		for (VASTAd a : ads) {
+			if (a.isPodded()
+					&& (primary == null || !primary.isPodded() || a
+							.getSequence() < primary.getSequence())) {
+				primary = a;
+			} else if (primary == null) {
+				primary = a;
+			}
+		}
+		if (primary == null) {
+			SdkLog.w(TAG, "VAST xml does not contain any ad.");
+			return;
+		}
+		if (ads.size() > 1) {
+			SdkLog.i(TAG, "VAST xml contains " + ads.size() + " ads, using "
+					+ (primary.isPodded() ? "sequence " + primary.getSequence()
+							: "first standalone ad") + ".");
+		}
+		this.ad = primary;
+		this.hasWrapper = primary.isWrapper();
+		this.skipOffset = toPercent(primary.getSkipOffset(),
+				primary.getDuration());
+		if (hasWrapper) {
+			if (wrapperListener != null) {
+				wrapperListener.onVASTWrapperFound(primary.getWrapperUrl());
+			} else {
+				SdkLog.d(TAG, "Wrapped VAST xml found [" + primary.getWrapperUrl()
+						+ "]");
+			}
+		}
+	}
+
+	private static int toPercent(String offset, String duration) {
+		if (offset == null) {
+			return 0;
+		}
+		offset = offset.trim();
+		if (offset.endsWith("%")) {
+			int percent = parseInt(offset.substring(0, offset.length() - 1));
+			SdkLog.i(TAG, "Linear skipoffset is " + percent + " [%]");
+			return percent;
+		}
+		long o = parseTime(offset);
+		long d = parseTime(duration);
+		if (o >= 0 && d > 0) {
+			int percent = (int) (100 * o / d);
+			SdkLog.i(TAG, "Linear skipoffset is " + offset + " ["
+					+ percent + "%]");
+			return percent;
+		}
+		SdkLog.w(TAG, "Invalid skipoffset in VAST xml: " + offset);
+		return -1;
+	}
+
 	/**
 	 * Get a list of all impression tracking URLs
 	 * 
 	 * @return List of impression tracking URLs
 	 */
 	public List<String> getImpressionTrackerUrl() {
-		waitForWrapper();
-
-		List<String> urls = new ArrayList<String>();
-		urls.add(this.impressionTrackerUrl);
-		if (wrappedVASTXml != null) {
-			urls.addAll(wrappedVASTXml.getImpressionTrackerUrl());
-		}
+		return new ArrayList<String>(merge().impressionTrackerUrls);
+	}
 
-		return urls;
+	/**
+	 * Get a list of all error tracking URLs
+	 * 
+	 * @return List of error tracking URLs
+	 */
+	public List<String> getErrorUrls() {
+		return new ArrayList<String>(merge().errorUrls);
 	}
 
 	/**
@@ -522,26 +707,57 @@ public class VASTXmlParser {
 	 * @return String containing duration
 	 */
 	public String getDuration() {
-		waitForWrapper();
+		for (VASTXmlParser v = this; v != null; v = v.wrappedVASTXml) {
+			if (v.ad != null && v.ad.getDuration() != null) {
+				return v.ad.getDuration();
+			}
+		}
+		return null;
+	}
 
-		if (duration == null && wrappedVASTXml != null) {
-			return wrappedVASTXml.getDuration();
+	/**
+	 * Get all renditions of the linear creative, i.e. the media files of the
+	 * innermost ad providing any
+	 * 
+	 * @return List of media files in document order
+	 */
+	public List<VASTAd.MediaFile> getMediaFiles() {
+		for (VASTXmlParser v = this; v != null; v = v.wrappedVASTXml) {
+			if (v.ad != null && !v.ad.getMediaFiles().isEmpty()) {
+				return v.ad.getMediaFiles();
+			}
 		}
-		return duration;
+		return new ArrayList<VASTAd.MediaFile>();
 	}
 
 	/**
-	 * Get URL of actual media file
+	 * Get URL of actual media file. The rendition is chosen by
+	 * VASTMediaSelector according to connection, measured throughput and
+	 * screen size.
 	 * 
 	 * @return Mediafile URL string
 	 */
 	public String getMediaFileUrl() {
-		waitForWrapper();
+		VASTAd.MediaFile m = getMediaFile();
+		return m != null ? m.getUrl() : null;
+	}
 
-		if (mediaFileUrl == null && wrappedVASTXml != null) {
-			return wrappedVASTXml.getMediaFileUrl();
-		}
-		return mediaFileUrl;
+	/**
+	 * Get the rendition to play, chosen by bitrate and screen size
+	 * 
+	 * @return rendition to play or null if there is none
+	 */
+	public VASTAd.MediaFile getMediaFile() {
+		return VASTMediaSelector.select(getMediaFiles());
+	}
+
+	/**
+	 * Get all companion creatives of the wrapper chain
+	 * 
+	 * @return List of companions
+	 */
+	public List<VASTAd.Companion> getCompanions() {
+		return new ArrayList<VASTAd.Companion>(merge().companions);
 	}
 
 	/**
@@ -550,13 +766,7 @@ public class VASTXmlParser {
 	 * @return List of tracking beans
 	 */
 	public List<Tracking> getTrackings() {
-		waitForWrapper();
-
-		List<Tracking> t = trackings;
-		if (wrappedVASTXml != null) {
-			t.addAll(wrappedVASTXml.getTrackings());
-		}
-		return t;
+		return new ArrayList<Tracking>(merge().trackings);
 	}
 
 	/**
@@ -567,9 +777,7 @@ public class VASTXmlParser {
 	 * @return List of tracking URLs for event
 	 */
 	public List<String> getTrackingByType(int type) {
-		waitForWrapper();
-
-		Iterator<Tracking> i = this.trackings.iterator();
+		Iterator<Tracking> i = merge().trackings.iterator();
 		List<String> urls = new ArrayList<String>();
 		while (i.hasNext()) {
 			Tracking t = i.next();
@@ -577,22 +785,20 @@ public class VASTXmlParser {
 				urls.add(t.getUrl());
 			}
 		}
-		if (wrappedVASTXml != null) {
-			urls.addAll(wrappedVASTXml.getTrackingByType(type));
-		}
 		return urls;
 	}
 
 	/**
 	 * Get time until skip button should be shown
 	 * 
-	 * @return Integer defining time in millis until skip button should be shown
+	 * @return Integer defining the percentage of the video played until the
+	 *         skip button should be shown
 	 */
 	public int getSkipOffset() {
-		waitForWrapper();
-
-		if (skipOffset <= 0 && wrappedVASTXml != null) {
-			return wrappedVASTXml.getSkipOffset();
+		for (VASTXmlParser v = this; v != null; v = v.wrappedVASTXml) {
+			if (v.skipOffset > 0 || v.wrappedVASTXml == null) {
+				return v.skipOffset;
+			}
 		}
 		return skipOffset;
 	}
@@ -603,14 +809,12 @@ public class VASTXmlParser {
 	 * @return Target URL for clicks on player
 	 */
 	public String getClickThroughUrl() {
-		waitForWrapper();
-
-		String url = this.clickThroughUrl;
-		if (url == null && wrappedVASTXml != null) {
-			url = wrappedVASTXml.getClickThroughUrl();
+		for (VASTXmlParser v = this; v != null; v = v.wrappedVASTXml) {
+			if (v.ad != null && v.ad.getClickThroughUrl() != null) {
+				return v.ad.getClickThroughUrl();
+			}
 		}
-
-		return url;
+		return null;
 	}
 
 	/**
@@ -619,49 +823,92 @@ public class VASTXmlParser {
 	 * @return List of clicktracking URLs
 	 */
 	public List<String> getClickTrackingUrl() {
-		waitForWrapper();
+		return new ArrayList<String>(merge().clickTrackingUrls);
+	}
 
-		List<String> urls = new ArrayList<String>();
-		if (this.clickTrackingUrl != null) {
-			urls.add(this.clickTrackingUrl);
-		}
-		if (wrappedVASTXml != null) {
-			urls.addAll(wrappedVASTXml.getClickTrackingUrl());
+	/**
+	 * Get all ads of this VAST xml (not including wrapped VAST xml)
+	 * 
+	 * @return List of ads in document order
+	 */
+	public List<VASTAd> getAds() {
+		return new ArrayList<VASTAd>(ads);
+	}
+
+	/**
+	 * Get the ad pod of this VAST xml
+	 * 
+	 * @return List of ads with a sequence number in order of their sequence,
+	 *         empty if the VAST xml does not contain a pod
+	 */
+	public List<VASTAd> getPod() {
+		List<VASTAd> pod = new ArrayList<VASTAd>();
+		for (VASTAd a : ads) {
+			if (a.isPodded()) {
+				pod.add(a);
+			}
 		}
+		Collections.sort(pod, new Comparator<VASTAd>() {
+			@Override
+			public int compare(VASTAd a1, VASTAd a2) {
+				return a1.getSequence() - a2.getSequence();
+			}
+		});
+		return pod;
+	}
 
-		return urls;
+	/**
+	 * Get the ad which is played, i.e. the first ad of a pod or the first
+	 * standalone ad
+	 * 
+	 * @return the primary ad or null if the VAST xml is empty
+	 */
+	public VASTAd getAd() {
+		return ad;
 	}
 
 	/**
-	 * Determine whether the contents of a wrapped VAST XML have been loaded
+	 * Determine whether the contents of a wrapped VAST XML have been loaded.
+	 * Does not block.
 	 * 
 	 * @return true if wrapped XML is loaded
 	 */
-	public synchronized boolean isReady() {
-		waitForWrapper();
-
+	public boolean isReady() {
 		return ready
 				&& (wrappedVASTXml != null ? wrappedVASTXml.isReady()
 						: !hasWrapper);
 	}
 
-	private void waitForWrapper() {
-		if (!hasWrapper) {
-			return;
-		}
-		while (true) {
-			if (hasWrapper
-					&& (wrappedVASTXml == null || !wrappedVASTXml.isReady())) {
-				try {
-					Thread.sleep(750);
-				} catch (Exception e) {
-					SdkLog.e(TAG, "Error wraiting for wrapper", e);
-				}
-				Thread.yield();
-			} else {
-				return;
+	/**
+	 * Merge the trackings of all levels of the wrapper chain in one pass. The
+	 * result is kept once the chain is complete.
+	 */
+	private Merged merge() {
+		Merged m = this.merged;
+		if (m != null) {
+			return m;
+		}
+		m = new Merged();
+		boolean complete = true;
+		for (VASTXmlParser v = this; v != null; v = v.wrappedVASTXml) {
+			m.errorUrls.addAll(v.errorUrls);
+			if (v.ad != null) {
+				m.trackings.addAll(v.ad.getTrackings());
+				m.impressionTrackerUrls.addAll(v.ad.getImpressionUrls());
+				m.clickTrackingUrls.addAll(v.ad.getClickTrackingUrls());
+				m.errorUrls.addAll(v.ad.getErrorUrls());
+				m.companions.addAll(v.ad.getCompanions());
+			}
+			complete = v.ready && (v.wrappedVASTXml != null || !v.hasWrapper);
+			if (!complete) {
+				SdkLog.w(TAG, "Wrapped VAST xml not resolved, yet.");
+				break;
 			}
 		}
+		if (complete) {
+			this.merged = m;
+		}
+		return m;
 	}
 
 	/**
@@ -672,6 +919,7 @@ public class VASTXmlParser {
 	 */
 	public void setWrapper(VASTXmlParser vastXml) {
 		this.wrappedVASTXml = vastXml;
+		this.merged = null;
 	}
 
 	/**
@@ -701,6 +949,14 @@ public class VASTXmlParser {
 		return this.wrappedVASTXml;
 	}
 
+	/**
+	 * 
+	 * @return url of the wrapped VAST xml or null if there is none
+	 */
+	public String getWrapperUrl() {
+		return hasWrapper ? ad.getWrapperUrl() : null;
+	}
+
 	/**
 	 * 
 	 * @return true if VAST XML contains wrapped VAST
@@ -709,4 +965,17 @@ public class VASTXmlParser {
 		return hasWrapper;
 	}
 
+	private final static class Merged {
+
+		private final List<Tracking> trackings = new ArrayList<Tracking>();
+
+		private final List<String> impressionTrackerUrls = new ArrayList<String>();
+
+		private final List<String> clickTrackingUrls = new ArrayList<String>();
+
+		private final List<String> errorUrls = new ArrayList<String>();
+
+		private final List<VASTAd.Companion> companions = new ArrayList<VASTAd.Companion>();
+	}
+
 }
@@ -0,0 +1,317 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Shared viewability tracker for ad views.
+ *
+ * Scroll and layout changes of registered views only request a sample, the
+ * visible area of all registered views is then measured at most once per
+ * SAMPLE_INTERVAL. Listeners are notified only if a view's viewable state
+ * changes and once per ad if at least MIN_VISIBLE_PERCENT of the view were
+ * visible for MIN_VIEWABLE_TIME (IAB viewable impression).
+ *
+ * Views and listeners are referenced weakly, so the registering view must keep
+ * a reference to its listener. Views should be registered when attached to a
+ * window and unregistered when detached; a view which already counted a
+ * viewable impression does not count another one when attached again. All
+ * methods must be called on the main thread.
+ *
+ * Usage: ViewabilityTracker.getInstance().register(view, listener); ...
+ * ViewabilityTracker.getInstance().unregister(view);
+ *
+ * @author stein16
+ *
+ */
+public final class ViewabilityTracker {
+
+	private final static String TAG = "ViewabilityTracker";
+
+	/**
+	 * Minimum time in milliseconds between two samples
+	 */
+	public final static long SAMPLE_INTERVAL = 100;
+
+	/**
+	 * Visible area in percent required for a viewable impression
+	 */
+	public final static int MIN_VISIBLE_PERCENT = 50;
+
+	/**
+	 * Time in milliseconds a view must be visible for a viewable impression
+	 */
+	public final static long MIN_VIEWABLE_TIME = 1000;
+
+	private static ViewabilityTracker instance = null;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private final WeakHashMap<View, Entry> entries = new WeakHashMap<View, Entry>();
+
+	private final WeakHashMap<View, Boolean> counted = new WeakHashMap<View, Boolean>();
+
+	private final Rect rect = new Rect();
+
+	private long lastSample = 0;
+
+	private boolean scheduled = false;
+
+	private final Runnable sampler = new Runnable() {
+		@Override
+		public void run() {
+			scheduled = false;
+			sample();
+		}
+	};
+
+	private final Runnable impressionCheck = new Runnable() {
+		@Override
+		public void run() {
+			update();
+		}
+	};
+
+	/**
+	 * Listener for viewability changes of a registered view
+	 *
+	 * @author stein16
+	 *
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when the view scrolled on or off screen
+		 *
+		 * @param view
+		 *            the registered view
+		 * @param viewable
+		 *            true if any part of the view is on screen
+		 */
+		void onViewableChange(View view, boolean viewable);
+
+		/**
+		 * Called once per ad when the view was viewable according to the IAB
+		 * definition
+		 *
+		 * @param view
+		 *            the registered view
+		 */
+		void onViewableImpression(View view);
+	}
+
+	private ViewabilityTracker() {
+	}
+
+	public synchronized static ViewabilityTracker getInstance() {
+		if (ViewabilityTracker.instance == null) {
+			ViewabilityTracker.instance = new ViewabilityTracker();
+		}
+		return ViewabilityTracker.instance;
+	}
+
+	/**
+	 * Start tracking a view. Registering a view again replaces its listener.
+	 *
+	 * @param view
+	 *            ad view to track
+	 * @param listener
+	 *            listener for viewability changes, only weakly referenced
+	 */
+	public void register(View view, Listener listener) {
+		Entry e = entries.get(view);
+		if (e == null) {
+			e = new Entry();
+			e.impression = counted.remove(view) != null;
+			entries.put(view, e);
+		}
+		e.listener = new WeakReference<Listener>(listener);
+		observe(view, e);
+		update();
+	}
+
+	/**
+	 * Stop tracking a view. If the view was viewable, its listener is
+	 * notified that it is not viewable any more.
+	 *
+	 * @param view
+	 *            tracked ad view
+	 */
+	public void unregister(View view) {
+		Entry e = entries.remove(view);
+		if (e == null) {
+			return;
+		}
+		if (e.observer != null && e.observer.isAlive()) {
+			e.observer.removeOnScrollChangedListener(e);
+			e.observer.removeGlobalOnLayoutListener(e);
+		}
+		e.observer = null;
+		if (e.impression) {
+			counted.put(view, Boolean.TRUE);
+		}
+		Listener l = e.listener.get();
+		if (e.viewable && l != null) {
+			l.onViewableChange(view, false);
+		}
+	}
+
+	/**
+	 * Reset the state of a view when it displays a new ad. Its viewable state
+	 * is assumed to be false and a new viewable impression may be counted.
+	 *
+	 * @param view
+	 *            tracked ad view
+	 */
+	public void reset(View view) {
+		counted.remove(view);
+		Entry e = entries.get(view);
+		if (e != null) {
+			e.viewable = false;
+			e.impression = false;
+			e.visibleSince = -1;
+			update();
+		}
+	}
+
+	/**
+	 * Request a sample, e.g. if a view was attached, detached or hidden.
+	 * Samples are throttled to SAMPLE_INTERVAL.
+	 */
+	public void update() {
+		if (scheduled) {
+			return;
+		}
+		scheduled = true;
+		long delay = lastSample + SAMPLE_INTERVAL - SystemClock.uptimeMillis();
+		handler.postDelayed(sampler, Math.max(0, delay));
+	}
+
+	/**
+	 * Measure the visible area of a view
+	 *
+	 * @param view
+	 *            any view
+	 * @return visible area in percent
+	 */
+	public int getVisiblePercent(View view) {
+		if (view.getWindowToken() == null
+				|| view.getWindowVisibility() != View.VISIBLE
+				|| !view.isShown() || view.getWidth() <= 0
+				|| view.getHeight() <= 0 || !view.getGlobalVisibleRect(rect)) {
+			return 0;
+		}
+		long visible = (long) rect.width() * rect.height();
+		return (int) (visible * 100 / ((long) view.getWidth() * view
+				.getHeight()));
+	}
+
+	private void sample() {
+		long now = SystemClock.uptimeMillis();
+		lastSample = now;
+		long nextCheck = -1;
+		// listeners may (un)register views
+		List<Map.Entry<View, Entry>> tracked = new ArrayList<Map.Entry<View, Entry>>(
+				entries.entrySet());
+		for (Map.Entry<View, Entry> me : tracked) {
+			View view = me.getKey();
+			Entry e = me.getValue();
+			Listener listener = e.listener.get();
+			if (view == null || entries.get(view) != e) {
+				// collected or unregistered by a listener
+				continue;
+			}
+			if (listener == null) {
+				unregister(view);
+				continue;
+			}
+			observe(view, e);
+			int percent = getVisiblePercent(view);
+			boolean viewable = percent > 0;
+			if (viewable != e.viewable) {
+				e.viewable = viewable;
+				SdkLog.d(TAG, view.getClass().getSimpleName() + "@"
+						+ view.hashCode() + " viewable: " + viewable + " ["
+						+ percent + "%]");
+				listener.onViewableChange(view, viewable);
+			}
+			if (e.impression) {
+				continue;
+			}
+			if (percent < MIN_VISIBLE_PERCENT) {
+				e.visibleSince = -1;
+			} else {
+				if (e.visibleSince < 0) {
+					e.visibleSince = now;
+				}
+				long due = e.visibleSince + MIN_VIEWABLE_TIME;
+				if (now >= due) {
+					e.impression = true;
+					SdkLog.i(TAG, view.getClass().getSimpleName() + "@"
+							+ view.hashCode() + " counted viewable impression.");
+					listener.onViewableImpression(view);
+				} else if (nextCheck < 0 || due < nextCheck) {
+					nextCheck = due;
+				}
+			}
+		}
+		handler.removeCallbacks(impressionCheck);
+		if (nextCheck >= 0) {
+			handler.postAtTime(impressionCheck, nextCheck);
+		}
+	}
+
+	private void observe(View view, Entry e) {
+		ViewTreeObserver observer = view.getViewTreeObserver();
+		if (observer == e.observer || !observer.isAlive()) {
+			return;
+		}
+		if (e.observer != null && e.observer.isAlive()) {
+			e.observer.removeOnScrollChangedListener(e);
+			e.observer.removeGlobalOnLayoutListener(e);
+		}
+		// the observer changes when the view is attached to a window, listeners
+		// added before may have been merged into it already
+		observer.removeOnScrollChangedListener(e);
+		observer.removeGlobalOnLayoutListener(e);
+		observer.addOnScrollChangedListener(e);
+		observer.addOnGlobalLayoutListener(e);
+		e.observer = observer;
+	}
+
+	private final class Entry implements
+			ViewTreeObserver.OnScrollChangedListener,
+			ViewTreeObserver.OnGlobalLayoutListener {
+
+		private WeakReference<Listener> listener;
+
+		private ViewTreeObserver observer;
+
+		private boolean viewable = false;
+
+		private boolean impression = false;
+
+		private long visibleSince = -1;
+
+		@Override
+		public void onScrollChanged() {
+			update();
+		}
+
+		@Override
+		public void onGlobalLayout() {
+			update();
+		}
+	}
+
+}
@@ -0,0 +1,180 @@
+package de.guj.ems.mobile.sdk.util;
+
+import java.util.LinkedList;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+import de.guj.ems.mobile.sdk.R;
+
+/**
+ * Pool of pre-created webviews.
+ *
+ * Creating the first webview of a process initializes the web engine and
+ * takes up to a few hundred milliseconds. The pool creates its webviews while
+ * the main thread is idle, so that the engine is ready once the first adview
+ * or landing page is created. Plain webviews (landing pages, user agent
+ * lookup) are taken from the pool and returned to it when no longer needed.
+ *
+ * Pooled webviews are created with a MutableContextWrapper of the application
+ * context. obtain() sets the caller's context, release() resets the webview
+ * and switches back to the application context so that no activity is leaked.
+ * The pool size is configured via ems_webview_pool_size in settings.xml.
+ *
+ * All methods except prewarm() must be called on the main thread.
+ *
+ * Usage: WebView w = WebViewPool.getInstance().obtain(activity); ...
+ * WebViewPool.getInstance().release(w);
+ *
+ * @author stein16
+ *
+ */
+public final class WebViewPool {
+
+	private final static String TAG = "WebViewPool";
+
+	private static WebViewPool instance = null;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private final LinkedList<WebView> pool = new LinkedList<WebView>();
+
+	private Context appContext = null;
+
+	private int size = 0;
+
+	private boolean filling = false;
+
+	private final MessageQueue.IdleHandler filler = new MessageQueue.IdleHandler() {
+		@Override
+		public boolean queueIdle() {
+			if (pool.size() < size) {
+				pool.add(create(appContext));
+				SdkLog.d(TAG, "Pre-created webview [" + pool.size() + "/"
+						+ size + "]");
+				// determine the user agent while the engine is warm
+				SdkUtil.getUserAgent();
+			}
+			filling = pool.size() < size;
+			return filling;
+		}
+	};
+
+	private WebViewPool() {
+	}
+
+	public synchronized static WebViewPool getInstance() {
+		if (WebViewPool.instance == null) {
+			WebViewPool.instance = new WebViewPool();
+		}
+		return WebViewPool.instance;
+	}
+
+	/**
+	 * Fill the pool the next time the main thread is idle. May be called from
+	 * any thread, e.g. from the application's onCreate.
+	 *
+	 * @param c
+	 *            android context
+	 */
+	public void prewarm(final Context c) {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (appContext == null) {
+					appContext = c.getApplicationContext();
+					size = appContext.getResources().getInteger(
+							R.integer.ems_webview_pool_size);
+				}
+				fill();
+			}
+		});
+	}
+
+	/**
+	 * Take a webview from the pool or create a new one
+	 *
+	 * @param c
+	 *            context the webview is displayed in, usually an activity
+	 * @return webview with javascript enabled, to be returned via release()
+	 */
+	public WebView obtain(Context c) {
+		if (appContext == null) {
+			appContext = c.getApplicationContext();
+			size = appContext.getResources().getInteger(
+					R.integer.ems_webview_pool_size);
+		}
+		WebView w = pool.poll();
+		if (w == null) {
+			SdkLog.d(TAG, "Pool empty, creating webview.");
+			w = create(c);
+		} else {
+			((MutableContextWrapper) w.getContext()).setBaseContext(c);
+		}
+		fill();
+		return w;
+	}
+
+	/**
+	 * Reset a webview obtained from the pool and return it. The webview is
+	 * destroyed if the pool is full. The caller must not use it afterwards.
+	 *
+	 * @param w
+	 *            webview obtained via obtain()
+	 */
+	public void release(WebView w) {
+		if (w == null) {
+			return;
+		}
+		ViewParent parent = w.getParent();
+		if (parent instanceof ViewGroup) {
+			((ViewGroup) parent).removeView(w);
+		}
+		w.stopLoading();
+		if (pool.size() >= size || appContext == null
+				|| !(w.getContext() instanceof MutableContextWrapper)) {
+			w.destroy();
+			return;
+		}
+		w.setWebChromeClient(null);
+		w.setWebViewClient(new WebViewClient());
+		w.setId(android.view.View.NO_ID);
+		w.setLayoutParams(new ViewGroup.LayoutParams(
+				ViewGroup.LayoutParams.MATCH_PARENT,
+				ViewGroup.LayoutParams.MATCH_PARENT));
+		w.getSettings().setBuiltInZoomControls(false);
+		w.loadUrl("about:blank");
+		w.clearHistory();
+		((MutableContextWrapper) w.getContext()).setBaseContext(appContext);
+		pool.add(w);
+		SdkLog.d(TAG, "Webview returned to pool [" + pool.size() + "/" + size
+				+ "]");
+	}
+
+	private void fill() {
+		if (!filling && pool.size() < size) {
+			filling = true;
+			Looper.myQueue().addIdleHandler(filler);
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	@SuppressLint("SetJavaScriptEnabled")
+	private WebView create(Context c) {
+		WebView w = new WebView(new MutableContextWrapper(c));
+		WebSettings s = w.getSettings();
+		s.setJavaScriptEnabled(true);
+		s.setSavePassword(false);
+		s.setSaveFormData(false);
+		return w;
+	}
+
+}
@@ -0,0 +1,316 @@
+package de.guj.ems.mobile.sdk.views;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.ListView;
+import de.guj.ems.mobile.sdk.util.SdkLog;
+
+/**
+ * Pool of webview based adviews for ads within lists.
+ *
+ * Creating an adview (a webview with all ORMMA controllers) is expensive, so
+ * list adapters should not create a new adview for each ad row. The pool keeps
+ * the ad of a list position bound to its view and hands out the same view
+ * whenever the position is displayed again. Once the maximum number of views
+ * is reached, the view of the position least recently displayed and currently
+ * off screen is recycled for a new position. Views of positions scrolled off
+ * screen are paused and resumed once they become visible again.
+ *
+ * Ad rows must report the view type ITEM_VIEW_TYPE so that the list does not
+ * recycle adviews by itself. All methods must be called on the main thread.
+ *
+ * Usage (ListView): AdViewPool pool = new AdViewPool(context,
+ * R.layout.list_ad); listView.setOnScrollListener(pool); return
+ * pool.getView(position) from the adapter's getView and
+ * AdViewPool.ITEM_VIEW_TYPE from getItemViewType for ad rows; call
+ * pool.pause(), pool.resume() and pool.destroy() from the activity's
+ * lifecycle methods.
+ *
+ * Usage (RecyclerView): add pool.getView(position) to the row's container when
+ * binding and call pool.setVisibleRange(first, last) after scrolling.
+ *
+ * @author stein16
+ *
+ */
+public class AdViewPool implements AbsListView.OnScrollListener {
+
+	private final static String TAG = "AdViewPool";
+
+	/**
+	 * View type of ad rows, makes the list skip its own recycling
+	 */
+	public final static int ITEM_VIEW_TYPE = AdapterView.ITEM_VIEW_TYPE_IGNORE;
+
+	/**
+	 * Default maximum number of adviews
+	 */
+	public final static int DEFAULT_MAX_VIEWS = 4;
+
+	private final Context context;
+
+	private final int resId;
+
+	private final int maxViews;
+
+	private final LinkedHashMap<Integer, GuJEMSListAdView> bound = new LinkedHashMap<Integer, GuJEMSListAdView>(
+			8, 0.75f, true);
+
+	private final LinkedList<GuJEMSListAdView> free = new LinkedList<GuJEMSListAdView>();
+
+	private final Set<GuJEMSListAdView> paused = new HashSet<GuJEMSListAdView>();
+
+	private int firstVisible = 0;
+
+	private int lastVisible = -1;
+
+	private boolean active = true;
+
+	/**
+	 * Create a pool with the default maximum number of adviews
+	 *
+	 * @param context
+	 *            android application context
+	 * @param resId
+	 *            resource ID of the XML layout file defining the list adview
+	 */
+	public AdViewPool(Context context, int resId) {
+		this(context, resId, DEFAULT_MAX_VIEWS);
+	}
+
+	/**
+	 * Create a pool
+	 *
+	 * @param context
+	 *            android application context
+	 * @param resId
+	 *            resource ID of the XML layout file defining the list adview
+	 * @param maxViews
+	 *            number of adviews after which views are recycled, should
+	 *            exceed the number of ads visible at the same time
+	 */
+	public AdViewPool(Context context, int resId, int maxViews) {
+		this.context = context;
+		this.resId = resId;
+		this.maxViews = maxViews;
+	}
+
+	/**
+	 * Get the adview for a list position. If the position was displayed
+	 * before, its view and ad are returned. Otherwise a view is bound to the
+	 * position and an ad is requested.
+	 *
+	 * @param position
+	 *            position of the ad row within the list
+	 * @return adview to display in the row
+	 */
+	public GuJEMSAdView getView(int position) {
+		Integer key = Integer.valueOf(position);
+		GuJEMSListAdView view = bound.get(key);
+		if (view == null) {
+			view = obtain();
+			bound.put(key, view);
+			SdkLog.d(TAG, "Binding adview to position " + position + " ["
+					+ bound.size() + " bound, " + free.size() + " free]");
+			view.loadFromCache();
+		}
+		removeFromParent(view);
+		if (active) {
+			resume(view);
+		}
+		return view;
+	}
+
+	/**
+	 * Release the adview of a position, e.g. if the ad row was removed from
+	 * the list. The view is kept for other positions.
+	 *
+	 * @param position
+	 *            position of the ad row within the list
+	 */
+	public void unbind(int position) {
+		GuJEMSListAdView view = bound.remove(Integer.valueOf(position));
+		if (view != null) {
+			recycle(view);
+			free.add(view);
+		}
+	}
+
+	/**
+	 * Release the adviews of all positions, e.g. if the positions of ad rows
+	 * changed. The views are kept for reuse.
+	 */
+	public void clear() {
+		for (GuJEMSListAdView view : bound.values()) {
+			recycle(view);
+			free.add(view);
+		}
+		bound.clear();
+	}
+
+	/**
+	 * Set the range of list positions currently on screen. Adviews outside of
+	 * the range are paused, the others are resumed.
+	 *
+	 * @param first
+	 *            first visible position
+	 * @param last
+	 *            last visible position
+	 */
+	public void setVisibleRange(int first, int last) {
+		if (first == firstVisible && last == lastVisible) {
+			return;
+		}
+		firstVisible = first;
+		lastVisible = last;
+		if (!active) {
+			return;
+		}
+		for (Map.Entry<Integer, GuJEMSListAdView> e : bound.entrySet()) {
+			if (isVisible(e.getKey().intValue())) {
+				resume(e.getValue());
+			} else {
+				pause(e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Pause all adviews, should be called from the activity's onPause
+	 */
+	public void pause() {
+		active = false;
+		for (GuJEMSListAdView view : getViews()) {
+			pause(view);
+		}
+	}
+
+	/**
+	 * Resume the visible adviews, should be called from the activity's
+	 * onResume
+	 */
+	public void resume() {
+		active = true;
+		for (Map.Entry<Integer, GuJEMSListAdView> e : bound.entrySet()) {
+			if (isVisible(e.getKey().intValue())) {
+				resume(e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Destroy all adviews, should be called from the activity's onDestroy. The
+	 * pool must not be used afterwards.
+	 */
+	public void destroy() {
+		for (GuJEMSListAdView view : getViews()) {
+			removeFromParent(view);
+			view.destroy();
+		}
+		bound.clear();
+		free.clear();
+		paused.clear();
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem,
+			int visibleItemCount, int totalItemCount) {
+		// header rows are not part of the adapter's positions
+		int headers = view instanceof ListView ? ((ListView) view)
+				.getHeaderViewsCount() : 0;
+		setVisibleRange(firstVisibleItem - headers, firstVisibleItem
+				+ visibleItemCount - 1 - headers);
+	}
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState) {
+	}
+
+	private GuJEMSListAdView obtain() {
+		if (!free.isEmpty()) {
+			return free.removeFirst();
+		}
+		if (bound.size() >= maxViews) {
+			// least recently displayed first
+			Iterator<Map.Entry<Integer, GuJEMSListAdView>> it = bound
+					.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Integer, GuJEMSListAdView> e = it.next();
+				GuJEMSListAdView view = e.getValue();
+				if (!isVisible(e.getKey().intValue())
+						&& view.getWindowToken() == null) {
+					it.remove();
+					SdkLog.d(TAG, "Recycling adview of position " + e.getKey());
+					recycle(view);
+					return view;
+				}
+			}
+			SdkLog.w(TAG, "All " + bound.size()
+					+ " adviews visible, creating another one.");
+		}
+		return new GuJEMSListAdView(context, resId, false);
+	}
+
+	private void recycle(GuJEMSListAdView view) {
+		view.setVisibility(View.GONE);
+		view.clearView();
+	}
+
+	private boolean isVisible(int position) {
+		return position >= firstVisible && position <= lastVisible;
+	}
+
+	private List<GuJEMSListAdView> getViews() {
+		List<GuJEMSListAdView> views = new ArrayList<GuJEMSListAdView>(
+				bound.values());
+		views.addAll(free);
+		return views;
+	}
+
+	private void removeFromParent(View view) {
+		ViewParent parent = view.getParent();
+		// adapter views add and remove their rows by themselves
+		if (parent instanceof ViewGroup && !(parent instanceof AdapterView)) {
+			((ViewGroup) parent).removeView(view);
+		}
+	}
+
+	private void pause(GuJEMSListAdView view) {
+		if (paused.add(view)
+				&& Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			pauseWebView(view);
+		}
+	}
+
+	private void resume(GuJEMSListAdView view) {
+		if (paused.remove(view)
+				&& Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			resumeWebView(view);
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private void pauseWebView(GuJEMSListAdView view) {
+		view.onPause();
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private void resumeWebView(GuJEMSListAdView view) {
+		view.onResume();
+	}
+
+}
@@ -0,0 +1,255 @@
+package de.guj.ems.mobile.sdk.views;
+
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import de.guj.ems.mobile.sdk.util.GifDecoder;
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+import de.guj.ems.mobile.sdk.util.SdkLog;
+
+/**
+ * Drawable playing an animated GIF.
+ *
+ * Frames are decoded one at a time in the background while the current frame
+ * is displayed. Only a small ring of frame bitmaps is kept, the next frame is
+ * shown once the delay of the current one elapsed. Since the drawable only
+ * draws bitmaps, views displaying it may stay hardware accelerated.
+ *
+ * Except for the constructor, all methods must be called on the main thread.
+ *
+ * Usage: GifDrawable gif = new GifDrawable(data); view.setImageDrawable(gif);
+ * gif.start();
+ *
+ * @author stein16
+ *
+ */
+public class GifDrawable extends Drawable implements Animatable, Runnable {
+
+	private final static String TAG = "GifDrawable";
+
+	/**
+	 * Frames displayed, waiting to be displayed and being decoded
+	 */
+	private final static int RING_SIZE = 3;
+
+	private final static Handler MAIN = new Handler(Looper.getMainLooper());
+
+	private final GifDecoder decoder;
+
+	private final Bitmap[] ring = new Bitmap[RING_SIZE];
+
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	private int shown;
+
+	private int shownFrame;
+
+	private int pending = -1;
+
+	private int pendingFrame;
+
+	private long nextFrameTime;
+
+	private int loops;
+
+	private boolean running;
+
+	private boolean decoding;
+
+	private boolean recycled;
+
+	/**
+	 * Read an animated GIF and decode its first frame. Should not be called on
+	 * the main thread.
+	 *
+	 * @param data
+	 *            content of the GIF file
+	 * @throws IOException
+	 *             if the data is not a GIF image
+	 */
+	public GifDrawable(byte[] data) throws IOException {
+		decoder = new GifDecoder(data);
+		ring[0] = createFrame();
+		shownFrame = decoder.advance(ring[0]);
+	}
+
+	/**
+	 * @return number of frames of the animation
+	 */
+	public int getFrameCount() {
+		return decoder.getFrameCount();
+	}
+
+	@Override
+	public void start() {
+		if (running || recycled || decoder.getFrameCount() < 2) {
+			return;
+		}
+		if (decoder.getLoopCount() > 0 && loops >= decoder.getLoopCount()) {
+			return;
+		}
+		running = true;
+		nextFrameTime = SystemClock.uptimeMillis()
+				+ decoder.getDelay(shownFrame);
+		if (pending >= 0) {
+			scheduleSelf(this, nextFrameTime);
+		} else {
+			decodeNext();
+		}
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		unscheduleSelf(this);
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Stop the animation and free all frame bitmaps. The drawable must not be
+	 * used afterwards.
+	 */
+	public void recycle() {
+		stop();
+		recycled = true;
+		if (!decoding) {
+			recycleFrames();
+		}
+	}
+
+	@Override
+	public void run() {
+		if (!running || pending < 0) {
+			return;
+		}
+		if (pendingFrame == 0) {
+			loops++;
+			if (decoder.getLoopCount() > 0 && loops >= decoder.getLoopCount()) {
+				SdkLog.d(TAG, "Animation finished after " + loops + " loops.");
+				stop();
+				return;
+			}
+		}
+		shown = pending;
+		shownFrame = pendingFrame;
+		pending = -1;
+		invalidateSelf();
+		nextFrameTime = SystemClock.uptimeMillis()
+				+ decoder.getDelay(shownFrame);
+		decodeNext();
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		Bitmap frame = ring[shown];
+		if (!recycled && frame != null) {
+			canvas.drawBitmap(frame, null, getBounds(), paint);
+		}
+	}
+
+	@Override
+	public int getIntrinsicWidth() {
+		return decoder.getWidth();
+	}
+
+	@Override
+	public int getIntrinsicHeight() {
+		return decoder.getHeight();
+	}
+
+	@Override
+	public int getOpacity() {
+		return PixelFormat.TRANSLUCENT;
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		paint.setAlpha(alpha);
+		invalidateSelf();
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter cf) {
+		paint.setColorFilter(cf);
+		invalidateSelf();
+	}
+
+	private void decodeNext() {
+		if (decoding || pending >= 0) {
+			return;
+		}
+		decoding = true;
+		// the slot after the displayed one is neither displayed nor pending
+		final int slot = (shown + 1) % RING_SIZE;
+		final Bitmap target = ring[slot];
+		SdkExecutor.execute(SdkExecutor.Lane.ASSET, new Runnable() {
+			@Override
+			public void run() {
+				Bitmap frame = target;
+				int n = -1;
+				try {
+					if (frame == null) {
+						frame = createFrame();
+					}
+					n = decoder.advance(frame);
+				} catch (Throwable t) {
+					SdkLog.e(TAG, "Error decoding frame.", t);
+				}
+				final Bitmap result = frame;
+				final int index = n;
+				MAIN.post(new Runnable() {
+					@Override
+					public void run() {
+						onFrameDecoded(slot, result, index);
+					}
+				});
+			}
+		});
+	}
+
+	private void onFrameDecoded(int slot, Bitmap frame, int index) {
+		decoding = false;
+		ring[slot] = frame;
+		if (recycled) {
+			recycleFrames();
+			return;
+		}
+		if (index < 0) {
+			stop();
+			return;
+		}
+		pending = slot;
+		pendingFrame = index;
+		if (running) {
+			scheduleSelf(this, nextFrameTime);
+		}
+	}
+
+	private Bitmap createFrame() {
+		return Bitmap.createBitmap(decoder.getWidth(), decoder.getHeight(),
+				Bitmap.Config.ARGB_8888);
+	}
+
+	private void recycleFrames() {
+		for (int i = 0; i < RING_SIZE; i++) {
+			if (ring[i] != null) {
+				ring[i].recycle();
+				ring[i] = null;
+			}
+		}
+	}
+
+}
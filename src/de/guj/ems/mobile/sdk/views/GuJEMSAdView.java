@@ -20,16 +20,19 @@ import android.view.ViewGroup;
 import com.google.ads.AdView;
 
 import de.guj.ems.mobile.sdk.R;
+import de.guj.ems.mobile.sdk.controllers.AdSlotCache;
 import de.guj.ems.mobile.sdk.controllers.EMSInterface;
 import de.guj.ems.mobile.sdk.controllers.IAdResponseHandler;
 import de.guj.ems.mobile.sdk.controllers.IOnAdEmptyListener;
 import de.guj.ems.mobile.sdk.controllers.IOnAdErrorListener;
 import de.guj.ems.mobile.sdk.controllers.IOnAdSuccessListener;
+import de.guj.ems.mobile.sdk.controllers.IOnAdViewableListener;
 import de.guj.ems.mobile.sdk.controllers.adserver.AmobeeSettingsAdapter;
 import de.guj.ems.mobile.sdk.controllers.adserver.IAdResponse;
 import de.guj.ems.mobile.sdk.controllers.adserver.IAdServerSettingsAdapter;
 import de.guj.ems.mobile.sdk.controllers.adserver.OptimobileAdResponse;
 import de.guj.ems.mobile.sdk.controllers.backfill.OptimobileDelegator;
+import de.guj.ems.mobile.sdk.util.RefreshScheduler;
 import de.guj.ems.mobile.sdk.util.SdkLog;
 import de.guj.ems.mobile.sdk.util.SdkUtil;
 
@@ -50,7 +53,8 @@ import de.guj.ems.mobile.sdk.util.SdkUtil;
  * @author stein16
  * 
  */
-public class GuJEMSAdView extends OrmmaView implements IAdResponseHandler {
+public class GuJEMSAdView extends OrmmaView implements IAdResponseHandler,
+		RefreshScheduler.Refreshable {
 
 	private Handler handler = new Handler();
 
@@ -58,6 +62,10 @@ public class GuJEMSAdView extends OrmmaView implements IAdResponseHandler {
 
 	private IAdServerSettingsAdapter settings;
 
+	private IOnAdViewableListener onAdViewableListener;
+
+	private long refreshInterval = 0;
+
 	private final String TAG = "GuJEMSAdView";
 
 	/**
@@ -339,8 +347,7 @@ public class GuJEMSAdView extends OrmmaView implements IAdResponseHandler {
 
 				SdkLog.i(TAG, "START async. AdServer request [" + this.getId()
 						+ "]");
-				SdkUtil.adRequest(this).execute(
-						new String[] { url });
+				SdkUtil.adRequest(this).executeBatched(url);
 			}
 			// Do nothing if offline
 			else {
@@ -361,6 +368,36 @@ public class GuJEMSAdView extends OrmmaView implements IAdResponseHandler {
 		}
 	}
 
+	/**
+	 * Show a prefetched ad for this placement if available, otherwise perform
+	 * the actual request. In both cases the next ad for this placement is
+	 * prefetched, so subsequent calls can show it immediately.
+	 */
+	public final void loadFromCache() {
+		if (settings != null && !this.testMode) {
+			IAdResponse cached = AdSlotCache.getInstance().take(settings);
+			if (cached != null) {
+				SdkLog.i(TAG, "Using prefetched ad [" + this.getId() + "]");
+				processResponse(cached);
+			} else {
+				load();
+			}
+			prefetch();
+		} else {
+			load();
+		}
+	}
+
+	/**
+	 * Fetch the next ad for this placement in the background without
+	 * displaying it. Use loadFromCache to display it.
+	 */
+	public final void prefetch() {
+		if (settings != null && !this.testMode) {
+			AdSlotCache.getInstance().prefetch(settings);
+		}
+	}
+
 	private void preLoadInitialize(Context context, AttributeSet set) {
 
 		this.testMode = getResources().getBoolean(R.bool.ems_test_mode);
@@ -397,6 +434,7 @@ public class GuJEMSAdView extends OrmmaView implements IAdResponseHandler {
 
 	@Override
 	public void processError(String msg) {
+		RefreshScheduler.getInstance().backoff(this, refreshInterval);
 		SdkLog.w(
 				TAG,
 				"The following error occured and is being handled by the appropriate listener if available.");
@@ -408,6 +446,7 @@ public class GuJEMSAdView extends OrmmaView implements IAdResponseHandler {
 
 	@Override
 	public void processError(String msg, Throwable t) {
+		RefreshScheduler.getInstance().backoff(this, refreshInterval);
 		SdkLog.w(
 				TAG,
 				"The following error occured and is being handled by the appropriate listener if available.");
@@ -431,11 +470,13 @@ public class GuJEMSAdView extends OrmmaView implements IAdResponseHandler {
 								&& response.getParser().isXml() ? response.getResponseAsHTML()
 								: response.getResponse(), "text/html", "utf-8");
 				SdkLog.i(TAG, "Ad found and loading... [" + this.getId() + "]");
+				RefreshScheduler.getInstance().start(this, refreshInterval);
 				if (this.settings.getOnAdSuccessListener() != null) {
 					this.settings.getOnAdSuccessListener().onAdSuccess();
 				}
 			} else {
 				setVisibility(GONE);
+				RefreshScheduler.getInstance().backoff(this, refreshInterval);
 				if (this.settings.getDirectBackfill() != null
 						&& response != null
 						&& !OptimobileAdResponse.class.equals(response
@@ -492,6 +533,29 @@ public class GuJEMSAdView extends OrmmaView implements IAdResponseHandler {
 		}
 	}
 
+	/**
+	 * Set the interval after which the view requests a new ad. Refreshing is
+	 * paused while the view is not viewable and backs off after empty
+	 * responses.
+	 * 
+	 * @param seconds
+	 *            refresh interval in seconds, 0 (default) to disable
+	 */
+	public void setRefreshInterval(int seconds) {
+		this.refreshInterval = seconds * 1000L;
+		if (this.refreshInterval > 0) {
+			RefreshScheduler.getInstance().start(this, this.refreshInterval);
+		} else {
+			RefreshScheduler.getInstance().stop(this);
+		}
+	}
+
+	@Override
+	public void refresh() {
+		SdkLog.d(TAG, "Refreshing ad [" + this.getId() + "]");
+		load();
+	}
+
 	/**
 	 * Add a listener to the view which responds to empty ad responses
 	 * 
@@ -522,4 +586,29 @@ public class GuJEMSAdView extends OrmmaView implements IAdResponseHandler {
 		this.settings.setOnAdSuccessListener(l);
 	}
 
+	/**
+	 * Add a listener to the view which responds to viewable impressions (at
+	 * least half of the ad visible for one second)
+	 * 
+	 * @param l
+	 *            Implemented listener
+	 */
+	public void setOnAdViewableListener(IOnAdViewableListener l) {
+		this.onAdViewableListener = l;
+	}
+
+	@Override
+	protected void onViewableChange(boolean viewable) {
+		// refresh is paused while the ad is not viewable
+		RefreshScheduler.getInstance().setViewable(this, viewable);
+	}
+
+	@Override
+	protected void onViewableImpression() {
+		super.onViewableImpression();
+		if (this.onAdViewableListener != null) {
+			this.onAdViewableListener.onAdViewable();
+		}
+	}
+
 }
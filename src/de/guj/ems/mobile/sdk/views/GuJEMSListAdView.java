@@ -13,6 +13,9 @@ import android.widget.AbsListView;
  * List view elements must have layout params of type AbsListView.LayoutParams
  * which this class provides.
  * 
+ * Creating a webview per ad row is expensive, adapters should obtain list
+ * adviews from an AdViewPool which recycles them across rows.
+ * 
  * @author stein16
  * 
  */
@@ -1,8 +1,6 @@
 package de.guj.ems.mobile.sdk.views;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.util.Locale;
 import java.util.Map;
@@ -11,22 +9,16 @@ import org.ormma.view.Browser;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
-import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Movie;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
-import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Xml;
 import android.view.View;
@@ -44,6 +36,7 @@ import de.guj.ems.mobile.sdk.controllers.adserver.IAdResponse;
 import de.guj.ems.mobile.sdk.controllers.adserver.IAdServerSettingsAdapter;
 import de.guj.ems.mobile.sdk.controllers.adserver.OptimobileAdResponse;
 import de.guj.ems.mobile.sdk.controllers.backfill.OptimobileDelegator;
+import de.guj.ems.mobile.sdk.util.SdkImageLoader;
 import de.guj.ems.mobile.sdk.util.SdkLog;
 import de.guj.ems.mobile.sdk.util.SdkUtil;
 
@@ -53,7 +46,8 @@ import de.guj.ems.mobile.sdk.util.SdkUtil;
  * The native adview class implements an imageview to display JPEG,PNG or GIF
  * files.
  * 
- * In case of animated GIFs, the file is loaded as a movie.
+ * In case of animated GIFs, the frames are decoded and played by a
+ * GifDrawable.
  * 
  * The view behaves all like a webview but cannot handle any javascript or html
  * markup.
@@ -71,19 +65,24 @@ public class GuJEMSNativeAdView extends ImageView implements IAdResponseHandler
 
 	private Bitmap stillImage;
 
-	private Movie animatedGif;
+	private GifDrawable animatedGif;
 
-	private long movieStart = 0;
+	private int imageWidth;
 
-	private boolean play = false;
+	private boolean imageReleased;
 
 	private Paint testPaint;
 
 	private class DownloadImageTask extends AsyncTask<String, Void, Object> {
 		private final WeakReference<ImageView> viewRef;
 
+		private final int reqWidth;
+
 		public DownloadImageTask(ImageView view) {
 			this.viewRef = new WeakReference<ImageView>(view);
+			// images are decoded no larger than needed to fill the view
+			this.reqWidth = view.getWidth() > 0 ? view.getWidth() : SdkUtil
+					.getScreenWidth();
 		}
 
 		@Override
@@ -92,57 +91,31 @@ public class GuJEMSNativeAdView extends ImageView implements IAdResponseHandler
 
 			setTag(urldisplay);
 
-			InputStream in = null;
+			SdkImageLoader loader = SdkImageLoader.getInstance(getContext());
 			try {
-				in = new java.net.URL(urldisplay).openStream();
-
 				if (urldisplay.toLowerCase(Locale.getDefault()).endsWith("gif")) {
-					byte[] raw = streamToBytes(in);
-					animatedGif = Movie.decodeByteArray(raw, 0, raw.length);
+					return new GifDrawable(loader.getBytes(urldisplay));
 				} else {
-					stillImage = BitmapFactory.decodeStream(in);
+					return loader.getBitmap(urldisplay, reqWidth, 0);
 				}
-
 			} catch (Exception e) {
 				SdkLog.e(TAG, e.getMessage(), e);
-			} finally {
-				if (in != null) {
-					try {
-						in.close();
-					} catch (Exception e) {
-						SdkLog.e(TAG, "Error closing image input stream.", e);
-					}
-				}
-			}
-			return stillImage != null ? stillImage : animatedGif;
-		}
-
-		private byte[] streamToBytes(InputStream is) {
-			ByteArrayOutputStream os = new ByteArrayOutputStream(1024);
-			byte[] buffer = new byte[1024];
-			int len;
-			try {
-				while ((len = is.read(buffer)) >= 0) {
-					os.write(buffer, 0, len);
-				}
-			} catch (java.io.IOException e) {
-				SdkLog.e(TAG, "Error streaming image to bytes.", e);
 			}
-			return os.toByteArray();
+			return null;
 		}
 
 		@Override
 		protected void onPostExecute(Object result) {
-			Movie movie = null;
+			GifDrawable gif = null;
 			Bitmap bitmap = null;
 			if (result != null) {
 
-				if (Movie.class.equals(result.getClass())) {
-					movie = (Movie) result;
-					play = true;
-					SdkLog.d(TAG, "Animation downloaded. [" + movie.width()
-							+ "x" + movie.height() + ", " + movie.duration()
-							+ "s]");
+				if (result instanceof GifDrawable) {
+					gif = (GifDrawable) result;
+					SdkLog.d(TAG, "Animation downloaded. ["
+							+ gif.getIntrinsicWidth() + "x"
+							+ gif.getIntrinsicHeight() + ", "
+							+ gif.getFrameCount() + " frames]");
 				} else {
 					bitmap = (Bitmap) result;
 					SdkLog.d(TAG, "Image downloaded. [" + bitmap.getWidth()
@@ -150,24 +123,24 @@ public class GuJEMSNativeAdView extends ImageView implements IAdResponseHandler
 				}
 
 				ImageView view = viewRef.get();
-				if (view != null) {
-					if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-							&& movie != null) {
-						disableHWAcceleration();
-					} else if (bitmap != null
-							&& view.getTag().equals(parser.getImageUrl())) {
-						Drawable d = view.getDrawable();
-						if (d instanceof BitmapDrawable) {
-							BitmapDrawable bd = (BitmapDrawable) d;
-							Bitmap bm = bd.getBitmap();
-							if (bm != null) {
-								bm.recycle();
-							}
-							SdkLog.i(TAG,
-									"Recycled bitmap of view " + view.getId());
-						}
+				if (view != null && view.getTag().equals(parser.getImageUrl())) {
+					Bitmap previous = stillImage;
+					GifDrawable previousGif = animatedGif;
+					stillImage = bitmap;
+					animatedGif = gif;
+					imageWidth = reqWidth;
+					imageReleased = false;
+					if (gif != null) {
+						view.setImageDrawable(gif);
+						gif.start();
+					} else {
 						view.setImageBitmap(bitmap);
 					}
+					if (previousGif != null) {
+						previousGif.recycle();
+					}
+					// the previous bitmap may be reused for the next image
+					SdkImageLoader.getInstance(getContext()).release(previous);
 
 					view.setOnClickListener(new OnClickListener() {
 						@Override
@@ -187,16 +160,24 @@ public class GuJEMSNativeAdView extends ImageView implements IAdResponseHandler
 					});
 
 					LayoutParams lp = view.getLayoutParams();
-					if (movie != null) {
-						lp.height = (int) (movie.height() * SdkUtil
-								.getDensity());
-					} else {
-						lp.height = (int) (bitmap.getHeight() * SdkUtil
-								.getDensity());
+					int width = gif != null ? gif.getIntrinsicWidth() : bitmap
+							.getWidth();
+					int height = gif != null ? gif.getIntrinsicHeight()
+							: bitmap.getHeight();
+					float scale = SdkUtil.getDensity();
+					if (view.getWidth() > 0 && width * scale > view.getWidth()) {
+						// downsampled or wider than the view
+						scale = view.getWidth() / (float) width;
 					}
+					lp.height = (int) (height * scale);
 					view.setLayoutParams(lp);
 					view.setVisibility(VISIBLE);
 
+				} else if (gif != null) {
+					// stale or orphaned result
+					gif.recycle();
+				} else {
+					SdkImageLoader.getInstance(getContext()).release(bitmap);
 				}
 			}
 
@@ -484,8 +465,7 @@ public class GuJEMSNativeAdView extends ImageView implements IAdResponseHandler
 
 				SdkLog.i(TAG, "START async. AdServer request [" + this.getId()
 						+ "]");
-				SdkUtil.adRequest(this).execute(
-						new String[] { url });
+				SdkUtil.adRequest(this).executeBatched(url);
 			}
 			// Do nothing if offline
 			else {
@@ -564,8 +544,7 @@ public class GuJEMSNativeAdView extends ImageView implements IAdResponseHandler
 				parser = response.getParser();
 				new DownloadImageTask(this).execute(parser.getImageUrl());
 				if (parser.getTrackingImageUrl() != null) {
-					SdkUtil.adRequest(null).execute(
-							parser.getTrackingImageUrl());
+					SdkUtil.httpRequest(parser.getTrackingImageUrl());
 				}
 				SdkLog.i(TAG, "Ad found and loading... [" + this.getId() + "]");
 				if (this.settings.getOnAdSuccessListener() != null) {
@@ -627,7 +606,7 @@ public class GuJEMSNativeAdView extends ImageView implements IAdResponseHandler
 	public void reload() {
 		if (settings != null && !this.testMode) {
 			setVisibility(View.GONE);
-			setImageDrawable(null);
+			releaseImage();
 			load();
 
 		} else {
@@ -669,11 +648,50 @@ public class GuJEMSNativeAdView extends ImageView implements IAdResponseHandler
 		this.settings.setOnAdSuccessListener(l);
 	}
 
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		if (imageReleased) {
+			// reattached without a new ad, e.g. a recycled list row
+			imageReleased = false;
+			restoreImage();
+		}
+	}
+
 	@Override
 	protected void onDetachedFromWindow() {
 		super.onDetachedFromWindow();
-		setImageBitmap(null);
-		play = false;
+		imageReleased = stillImage != null || animatedGif != null;
+		releaseImage();
+	}
+
+	private void restoreImage() {
+		String url = parser != null ? parser.getImageUrl() : null;
+		if (url == null) {
+			return;
+		}
+		Bitmap bitmap = url.toLowerCase(Locale.getDefault()).endsWith("gif") ? null
+				: SdkImageLoader.getInstance(getContext()).peekBitmap(url,
+						imageWidth, 0);
+		if (bitmap != null) {
+			stillImage = bitmap;
+			setImageBitmap(bitmap);
+		} else {
+			// animation or evicted from memory, decoded again from disk
+			new DownloadImageTask(this).execute(url);
+		}
+	}
+
+	private void releaseImage() {
+		setImageDrawable(null);
+		if (animatedGif != null) {
+			animatedGif.recycle();
+			animatedGif = null;
+		}
+		if (stillImage != null) {
+			SdkImageLoader.getInstance(getContext()).release(stillImage);
+			stillImage = null;
+		}
 	}
 
 	@Override
@@ -708,33 +726,7 @@ public class GuJEMSNativeAdView extends ImageView implements IAdResponseHandler
 						testPaint);
 			}
 			this.invalidate();
-		} else if (animatedGif != null && play) {
-			long now = android.os.SystemClock.uptimeMillis();
-			float dens = SdkUtil.getDensity();
-
-			canvas.drawColor(Color.TRANSPARENT);
-			canvas.scale(dens, dens);
-
-			if (movieStart == 0) {
-				movieStart = now;
-			}
-
-			if (animatedGif.duration() > 0) {
-				int relTime = (int) ((now - movieStart) % animatedGif
-						.duration());
-				animatedGif.setTime(relTime);
-			}
-			animatedGif.draw(canvas,
-					(getWidth() / dens - animatedGif.width()) / 2.0f, 0.0f);
-			this.invalidate();
 		}
 	}
 
-	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
-	private void disableHWAcceleration() {
-		setLayerType(View.LAYER_TYPE_SOFTWARE, null);
-		SdkLog.d(TAG,
-				"HW Acceleration disabled for AdView (younger than Gingerbread).");
-	}
-
 }
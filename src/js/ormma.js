@@ -36,7 +36,8 @@
         SHAKE               :'shake',
         SIZECHANGE          :'sizeChange',
         STATECHANGE         :'stateChange',
-        TILTCHANGE          :'tiltChange'
+        TILTCHANGE          :'tiltChange',
+        VIEWABLECHANGE      :'viewableChange'
     };
     
     var CONTROLS = ormma.CONTROLS = {
@@ -120,6 +121,8 @@
     
     var keyboardState = false;
     
+    var viewable = false;
+    
     var location = null;
     
     var network = NETWORK.UNKNOWN;
@@ -208,6 +211,11 @@
             keyboardState = val;
             broadcastEvent(EVENTS.KEYBOARDCHANGE, keyboardState);
         },
+        viewable:function(val) {
+            broadcastEvent(EVENTS.INFO, 'setting viewable to ' + stringify(val));
+            viewable = val;
+            broadcastEvent(EVENTS.VIEWABLECHANGE, viewable);
+        },
         location:function(val) {
             broadcastEvent(EVENTS.INFO, 'setting location to ' + stringify(val));
             location = val;
@@ -453,6 +461,10 @@
         return state;
     };
     
+    ormma.isViewable = function() {
+        return viewable;
+    };
+    
     ormma.hide = function() {
         if (state == STATES.HIDDEN) {
             broadcastEvent(EVENTS.ERROR, 'Ad is currently hidden.', 'hide');
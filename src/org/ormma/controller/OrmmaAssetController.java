@@ -8,14 +8,18 @@
 
 package org.ormma.controller;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -27,11 +31,7 @@ import java.util.Vector;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.ormma.controller.util.OrmmaCreativeCache;
 import org.ormma.view.OrmmaView;
 
 import android.annotation.SuppressLint;
@@ -52,6 +52,8 @@ import android.view.Window;
 import android.webkit.JavascriptInterface;
 import android.webkit.URLUtil;
 import android.widget.Toast;
+import de.guj.ems.mobile.sdk.util.BridgeScripts;
+import de.guj.ems.mobile.sdk.util.SdkHttpClient;
 import de.guj.ems.mobile.sdk.util.SdkLog;
 
 /**
@@ -68,12 +70,26 @@ public class OrmmaAssetController extends OrmmaController {
 	// ("<meta name='viewport' content='target-densitydpi=device-dpi, width=320, user-scalable=no, initial-scale="
 	// + WEBVIEW_VIEWPORT_SCALE + "' />").getBytes();
 
-	private final static byte[] WEBVIEW_VIEWPORT_META = ("<meta name='viewport' content='width=device-width, initial-scale=1.0, user-scalable=no' />")
+	private final static String WEBVIEW_VIEWPORT_META_STR = "<meta name='viewport' content='width=device-width, initial-scale=1.0, user-scalable=no' />";
+
+	private final static byte[] WEBVIEW_VIEWPORT_META = WEBVIEW_VIEWPORT_META_STR
 			.getBytes();
 
-	private final static byte[] WEBVIEW_BODY_STYLE = "<body style=\"margin:0; padding:0; overflow:hidden; background-color:transparent;margin: 0px; padding: 0px; display:-webkit-box;-webkit-box-orient:horizontal;-webkit-box-pack:center;-webkit-box-align:center;\">"
+	private final static String WEBVIEW_BODY_STYLE_STR = "<body style=\"margin:0; padding:0; overflow:hidden; background-color:transparent;margin: 0px; padding: 0px; display:-webkit-box;-webkit-box-orient:horizontal;-webkit-box-pack:center;-webkit-box-align:center;\">";
+
+	private final static byte[] WEBVIEW_BODY_STYLE = WEBVIEW_BODY_STYLE_STR
 			.getBytes();
 
+	private final static int WRAP_BUFFER_SIZE = 8192;
+
+	private final static byte[] HTML_START = "<html".getBytes();
+
+	private final static byte[] HTML_END = "</html>".getBytes();
+
+	private final static byte[] BRIDGE_SCRIPT = "/ormma_bridge.js".getBytes();
+
+	private final static byte[] ORMMA_SCRIPT = "/ormma.js".getBytes();
+
 	class FileComparatorByDate implements Comparator<File> {
 		@Override
 		public int compare(File object1, File object2) {
@@ -195,17 +211,16 @@ public class OrmmaAssetController extends OrmmaController {
 							.injectJavaScript("window.ormmaview.fireErrorEvent(\"addAsset\",\"Ein Foto kann leider nicht aufgenommen werden.\")");
 				}
 			} else {
-				HttpEntity entity = getHttpEntity(url);
-				InputStream in = entity.getContent();
-				writeAssetToDisk(in, alias);
+				SdkHttpClient.Response response = getHttpResponse(url);
+				try {
+					InputStream in = response.getInputStream();
+					writeAssetToDisk(in, alias);
+				} finally {
+					response.close();
+				}
 				mOrmmaView
 						.injectJavaScript("window.ormmaview.fireAssetReadyEvent('"
 								+ alias + "', '" + url + "' )");
-
-				try {
-					entity.consumeContent();
-				} catch (Exception e) {
-				}
 			}
 		} catch (Exception e) {
 			mOrmmaView
@@ -315,14 +330,35 @@ public class OrmmaAssetController extends OrmmaController {
 	 * Delete old ads.
 	 */
 	public void deleteOldAds() {
-		String filesDir = getFilesDir();
-		File adDir = new File(filesDir + java.io.File.separator + "ad");
-		deleteDirectory(adDir);
+		OrmmaCreativeCache.getInstance(mContext).clear();
+	}
+
+	/**
+	 * Mark an ad as displayed. Cached ads are not evicted while displayed and
+	 * must be released via deleteOldAds(localAdDir).
+	 * 
+	 * @param localAdDir
+	 *            the directory of the ad
+	 */
+	public void pinAd(String localAdDir) {
+		OrmmaCreativeCache.getInstance(mContext).pin(localAdDir);
 	}
 
+	/**
+	 * Release an ad which is no longer displayed. Cached ads are kept for
+	 * reuse as long as the cache does not exceed its size.
+	 * 
+	 * @param localAdDir
+	 *            the directory of the ad
+	 */
 	public void deleteOldAds(String localAdDir) {
-		File adDir = new File(localAdDir);
-		deleteDirectory(adDir);
+		OrmmaCreativeCache cache = OrmmaCreativeCache.getInstance(mContext);
+		if (cache.contains(localAdDir)) {
+			cache.release(localAdDir);
+		} else {
+			File adDir = new File(localAdDir);
+			deleteDirectory(adDir);
+		}
 	}
 
 	private String getAlias(File assetFile) {
@@ -458,28 +494,23 @@ public class OrmmaAssetController extends OrmmaController {
 	}
 
 	/**
-	 * pulls a resource from the web
+	 * pulls a resource from the web through the shared sdk transport
 	 * 
 	 * @param url
 	 *            the url
-	 * @return the http entity
-	 */
-	private HttpEntity getHttpEntity(String url)
-	/**
-	 * get the http entity at a given url
+	 * @return the http response, which must be closed by the caller
+	 * @throws IOException
+	 *             if the resource could not be fetched
 	 */
-	{
-		HttpEntity entity = null;
-		try {
-			DefaultHttpClient httpclient = new DefaultHttpClient();
-			HttpGet httpget = new HttpGet(url);
-			HttpResponse response = httpclient.execute(httpget);
-			entity = response.getEntity();
-		} catch (Exception e) {
-			e.printStackTrace();
-			return null;
+	private SdkHttpClient.Response getHttpResponse(String url)
+			throws IOException {
+		SdkHttpClient.Response response = SdkHttpClient.get(url);
+		if (response.getStatusCode() != 200) {
+			response.close();
+			throw new IOException("Server returned HTTP "
+					+ response.getStatusCode());
 		}
-		return entity;
+		return response;
 	}
 
 	/**
@@ -495,14 +526,48 @@ public class OrmmaAssetController extends OrmmaController {
 	 */
 	private String moveToAdDirectory(String fn, String filesDir, String subDir) {
 		File file = new File(filesDir + java.io.File.separator + fn);
-		File adDir = new File(filesDir + java.io.File.separator + "ad");
-		adDir.mkdir();
-		File dir = new File(filesDir + java.io.File.separator + "ad"
-				+ java.io.File.separator + subDir);
-		dir.mkdir();
-		file.renameTo(new File(dir, file.getName()));
+		return OrmmaCreativeCache.getInstance(mContext).put(subDir, file);
+	}
 
-		return dir.getPath() + java.io.File.separator;
+	/**
+	 * Create a unique temporary file for a creative. Creatives are loaded in
+	 * the background, so concurrent loads of several views must not share a
+	 * file.
+	 * 
+	 * @param file
+	 *            final file name of the creative
+	 * @return the temporary file
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	private File createTempFile(String file) throws IOException {
+		return File.createTempFile(getAssetName(file) + "_", ".tmp",
+				mContext.getFilesDir());
+	}
+
+	/**
+	 * Move a completely written temporary file to its final name
+	 * 
+	 * @param tmp
+	 *            the temporary file
+	 * @param file
+	 *            final file name of the creative
+	 * @param hash
+	 *            content hash of the creative for storing it in the creative
+	 *            cache or null
+	 * @return the directory containing the creative
+	 */
+	private String commitTempFile(File tmp, String file, String hash) {
+		if (hash != null) {
+			return OrmmaCreativeCache.getInstance(mContext).put(hash, tmp,
+					file);
+		}
+		File target = new File(getFilesDir(), file);
+		if (!tmp.renameTo(target)) {
+			SdkLog.w(SdkLog_TAG, "Could not move creative to " + target);
+			tmp.delete();
+		}
+		return getFilesDir();
 	}
 
 	/**
@@ -608,27 +673,26 @@ public class OrmmaAssetController extends OrmmaController {
 	@JavascriptInterface
 	public void storePicture(String url) {
 		try {
-			HttpEntity entity = getHttpEntity(url);
-			InputStream in = entity.getContent();
+			SdkHttpClient.Response response = getHttpResponse(url);
+			String contentType = response.getContentType();
+			String fileName = URLUtil.guessFileName(url, null, contentType);
+			File writeFile = null;
+			try {
+				InputStream in = response.getInputStream();
 
-			File dir = Environment
-					.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
-			dir.mkdirs();
+				File dir = Environment
+						.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
+				dir.mkdirs();
 
-			Header contentTypeHeader = entity.getContentType();
-			String contentType = null;
-			if (contentTypeHeader != null) {
-				contentType = contentTypeHeader.getValue();
+				writeFile = new File(dir, fileName);
+				writeToDisk(in, writeFile);
+			} finally {
+				response.close();
 			}
-			String fileName = URLUtil.guessFileName(url, null, contentType);
-			File writeFile = new File(dir, fileName);
-			writeToDisk(in, writeFile);
 			addToGallery(writeFile, "Wallpaper" + System.currentTimeMillis(),
 					fileName, "Werbung", "", contentType);
 
 			try {
-				entity.consumeContent();
-
 				Toast.makeText(mContext,
 						"Danke! Das Bild wurde in der Galerie abgelegt.",
 						Toast.LENGTH_SHORT).show();
@@ -727,7 +791,7 @@ public class OrmmaAssetController extends OrmmaController {
 					break;
 
 				if (storeInHashedDirectory && digest != null) {
-					digest.update(buff);
+					digest.update(buff, 0, numread);
 				}
 				out.write(buff, 0, numread);
 
@@ -777,7 +841,7 @@ public class OrmmaAssetController extends OrmmaController {
 	 * writes a HTTP entity to the specified filename and location on disk
 	 */
 	{
-		byte buff[] = new byte[1024];
+		byte buff[] = new byte[WRAP_BUFFER_SIZE];
 
 		MessageDigest digest = null;
 		if (storeInHashedDirectory) {
@@ -788,68 +852,37 @@ public class OrmmaAssetController extends OrmmaController {
 			}
 		}
 
-		// check for html tag in the input
-		ByteArrayOutputStream fromFile = new ByteArrayOutputStream();
-		FileOutputStream out = null;
-		try {
-			do {
-				int numread = in.read(buff);
-
-				if (numread <= 0) {
-					break;
-				}
-
-				if (storeInHashedDirectory && digest != null) {
-					digest.update(buff);
-				}
-
-				fromFile.write(buff, 0, numread);
-
-			} while (true);
-
-			String wholeHTML = fromFile.toString();
-			// SdkLog.d("html",wholeHTML);
-			boolean hasHTMLWrap = wholeHTML.indexOf("</html>") >= 0;
-
-			// TODO cannot have injection when full html
-
-			StringBuffer wholeHTMLBuffer = null;
-
-			if (hasHTMLWrap) {
-				wholeHTMLBuffer = new StringBuffer(wholeHTML);
-
-				int start = wholeHTMLBuffer.indexOf("/ormma_bridge.js");
-
-				if (start <= 0) {
-					// TODO error
-				}
-
-				wholeHTMLBuffer.replace(start,
-						start + "/ormma_bridge.js".length(), "file:/"
-								+ bridgePath);
-
-				start = wholeHTMLBuffer.indexOf("/ormma.js");
+		// check for html tag in the head of the input, the whole input is
+		// checked if it fits into the buffer
+		int head = 0;
+		int numread = 0;
+		while (head < buff.length
+				&& (numread = in.read(buff, head, buff.length - head)) > 0) {
+			head += numread;
+		}
+		boolean complete = head < buff.length;
+		boolean hasHTMLWrap = indexOf(buff, 0, head, HTML_END) >= 0
+				|| (!complete && indexOf(buff, 0, head, HTML_START) >= 0);
 
-				if (start <= 0) {
-					// TODO error
-				}
+		// TODO cannot have injection when full html
 
-				wholeHTMLBuffer.replace(start, start + "/ormma.js".length(),
-						"file:/" + ormmaPath);
+		File tmp = createTempFile(file);
+		boolean written = false;
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(tmp),
+					WRAP_BUFFER_SIZE);
+			if (digest != null) {
+				out = new DigestOutputStream(out, digest);
 			}
 
-			out = getAssetOutputString(file);
-
 			if (!hasHTMLWrap) {
 				out.write("<!DOCTYPE html>".getBytes());
 				out.write("<html>".getBytes());
 				out.write("<head>".getBytes());
 				out.write(WEBVIEW_VIEWPORT_META);
 				out.write("<title>-w-</title> ".getBytes());
-				out.write(("<script src=\"file:/" + bridgePath + "\" type=\"text/javascript\"></script>")
-						.getBytes());
-				out.write(("<script src=\"file:/" + ormmaPath + "\" type=\"text/javascript\"></script>")
-						.getBytes());
+				out.write(getInlineScripts().getBytes());
 
 				if (injection != null) {
 					out.write("<script type=\"text/javascript\">".getBytes());
@@ -861,11 +894,15 @@ public class OrmmaAssetController extends OrmmaController {
 				out.write("<div align=\"center\"> ".getBytes());
 			}
 
-			if (!hasHTMLWrap) {
-				out.write(fromFile.toByteArray());
-			} else {
-				out.write(wholeHTMLBuffer.toString().getBytes());
+			OutputStream body = hasHTMLWrap ? new ScriptPathRewriter(out,
+					"file:/" + bridgePath, "file:/" + ormmaPath) : out;
+			body.write(buff, 0, head);
+			if (!complete) {
+				while ((numread = in.read(buff)) > 0) {
+					body.write(buff, 0, numread);
+				}
 			}
+			body.flush();
 
 			if (!hasHTMLWrap) {
 				out.write("</div> ".getBytes());
@@ -874,17 +911,8 @@ public class OrmmaAssetController extends OrmmaController {
 			}
 
 			out.flush();
-			// out.close();
-			// in.close();
+			written = true;
 		} finally {
-			if (fromFile != null) {
-				try {
-					fromFile.close();
-				} catch (Exception e) {
-					// TODO: handle exception
-				}
-				fromFile = null;
-			}
 			if (out != null) {
 				try {
 					out.close();
@@ -893,13 +921,106 @@ public class OrmmaAssetController extends OrmmaController {
 				}
 				out = null;
 			}
+			if (!written) {
+				// failed or canceled load
+				tmp.delete();
+			}
 		}
-		String filesDir = getFilesDir();
+		return commitTempFile(tmp, file,
+				storeInHashedDirectory && digest != null ? asHex(digest)
+						: null);
+	}
 
-		if (storeInHashedDirectory && digest != null) {
-			filesDir = moveToAdDirectory(file, filesDir, asHex(digest));
+	private static int indexOf(byte[] b, int start, int end, byte[] pattern) {
+		for (int i = start; i <= end - pattern.length; i++) {
+			int j = 0;
+			while (j < pattern.length && b[i + j] == pattern[j]) {
+				j++;
+			}
+			if (j == pattern.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Output stream replacing the first reference to the ormma bridge script
+	 * and the ormma script with local paths while the data is written
+	 */
+	private final static class ScriptPathRewriter extends FilterOutputStream {
+
+		private final byte[][] patterns = { BRIDGE_SCRIPT, ORMMA_SCRIPT };
+
+		private final byte[][] replacements;
+
+		private final boolean[] replaced = new boolean[patterns.length];
+
+		private byte[] buf = new byte[WRAP_BUFFER_SIZE];
+
+		private int count = 0;
+
+		private ScriptPathRewriter(OutputStream out, String bridgeUrl,
+				String ormmaUrl) {
+			super(out);
+			this.replacements = new byte[][] { bridgeUrl.getBytes(),
+					ormmaUrl.getBytes() };
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (count + len > buf.length) {
+				byte[] grown = new byte[count + len];
+				System.arraycopy(buf, 0, grown, 0, count);
+				buf = grown;
+			}
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+			rewrite(false);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			rewrite(true);
+			super.flush();
+		}
+
+		private void rewrite(boolean all) throws IOException {
+			int pos = 0;
+			int keep = 0;
+			while (true) {
+				int match = -1;
+				int which = -1;
+				keep = 0;
+				for (int k = 0; k < patterns.length; k++) {
+					if (!replaced[k]) {
+						int i = indexOf(buf, pos, count, patterns[k]);
+						if (i >= 0 && (match < 0 || i < match)) {
+							match = i;
+							which = k;
+						}
+						keep = Math.max(keep, patterns[k].length - 1);
+					}
+				}
+				if (match < 0) {
+					break;
+				}
+				out.write(buf, pos, match - pos);
+				out.write(replacements[which]);
+				replaced[which] = true;
+				pos = match + patterns[which].length;
+			}
+			// a reference may span two writes, keep the tail for the next one
+			keep = all ? 0 : Math.min(keep, count - pos);
+			out.write(buf, pos, count - pos - keep);
+			System.arraycopy(buf, count - keep, buf, 0, keep);
+			count = keep;
 		}
-		return filesDir;
 	}
 
 	/**
@@ -933,55 +1054,91 @@ public class OrmmaAssetController extends OrmmaController {
 				e.printStackTrace();
 			}
 		}
+		byte[] wrapped = wrap(data, injection, bridgePath, ormmaPath)
+				.getBytes();
+		String hash = null;
+		if (storeInHashedDirectory && digest != null) {
+			digest.update(wrapped);
+			hash = asHex(digest);
+			// the same creative may have been served before
+			String cached = OrmmaCreativeCache.getInstance(mContext).get(hash,
+					file);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		File tmp = createTempFile(file);
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(wrapped);
+			out.flush();
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		} finally {
+			out.close();
+		}
+		return commitTempFile(tmp, file, hash);
+
+	}
+
+	/**
+	 * The ormma bridge and ormma script as a single inline script element
+	 * 
+	 * @return html script element
+	 */
+	private String getInlineScripts() {
+		return BridgeScripts.getInstance(mContext).getInlineTag(
+				BridgeScripts.ORMMA_BRIDGE, BridgeScripts.ORMMA);
+	}
+
+	/**
+	 * Wrap raw data with ormma stuff in memory
+	 * 
+	 * @param data
+	 *            raw data
+	 * @param injection
+	 *            any additional javascript to inject
+	 * @param bridgePath
+	 *            path of the ormma bridge script (scripts are inlined)
+	 * @param ormmaPath
+	 *            path of the ormma script (scripts are inlined)
+	 * @return the html document
+	 */
+	public String wrap(String data, String injection, String bridgePath,
+			String ormmaPath) {
+		String scripts = getInlineScripts();
 		boolean hasHTMLWrap = data.indexOf("</html>") >= 0;
-		FileOutputStream out = getAssetOutputString(file);
+		StringBuilder sb = new StringBuilder(data.length() + scripts.length()
+				+ 1024);
 
 		if (!hasHTMLWrap) {
-			out.write("<!DOCTYPE html>".getBytes());
-			out.write("<html>".getBytes());
-			out.write("<head>".getBytes());
-			out.write(WEBVIEW_VIEWPORT_META);
-			out.write("<title>-w-</title> ".getBytes());
-			out.write(("<script src=\"file://" + bridgePath + "\" type=\"text/javascript\"></script>")
-					.getBytes());
-			out.write(("<script src=\"file://" + ormmaPath + "\" type=\"text/javascript\"></script>")
-					.getBytes());
+			sb.append("<!DOCTYPE html>");
+			sb.append("<html>");
+			sb.append("<head>");
+			sb.append(WEBVIEW_VIEWPORT_META_STR);
+			sb.append("<title>-w-</title> ");
+			sb.append(scripts);
 		} else {
-			data = data
-					.replace(
-							"<head>",
-							("<head><script src=\"file://" + bridgePath + "\" type=\"text/javascript\"></script>")
-									+ ("<script src=\"file://" + ormmaPath + "\" type=\"text/javascript\"></script>"));
+			data = data.replace("<head>", "<head>" + scripts);
 		}
 
 		if (injection != null) {
-			out.write("<script type=\"text/javascript\">".getBytes());
-			out.write(injection.getBytes());
-			out.write("</script>".getBytes());
+			sb.append("<script type=\"text/javascript\">");
+			sb.append(injection);
+			sb.append("</script>");
 		}
 		if (!hasHTMLWrap) {
-			out.write("</head>".getBytes());
-			out.write(WEBVIEW_BODY_STYLE);
-			out.write("<div align=\"center\" style=\"text-align: center;\"> "
-					.getBytes());
+			sb.append("</head>");
+			sb.append(WEBVIEW_BODY_STYLE_STR);
+			sb.append("<div align=\"center\" style=\"text-align: center;\"> ");
 		}
-		out.write(data.getBytes());
+		sb.append(data);
 		if (!hasHTMLWrap) {
-			out.write("</div> ".getBytes());
-			out.write("</body> ".getBytes());
-			out.write("</html> ".getBytes());
+			sb.append("</div> ");
+			sb.append("</body> ");
+			sb.append("</html> ");
 		}
-
-		out.flush();
-		out.close();
-
-		String filesDir = getFilesDir();
-
-		if (storeInHashedDirectory && digest != null) {
-			digest.update(data.getBytes());
-			filesDir = moveToAdDirectory(file, filesDir, asHex(digest));
-		}
-		return filesDir;
-
+		return sb.toString();
 	}
 }
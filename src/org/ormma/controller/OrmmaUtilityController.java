@@ -495,6 +495,33 @@ public class OrmmaUtilityController extends OrmmaController {
 				storeInHashedDirectory, injection, bridgePath, ormmaPath);
 	}
 
+	/**
+	 * Wrap raw data with ormma stuff in memory.
+	 * 
+	 * @param data
+	 *            raw data
+	 * @param injection
+	 *            any additional javascript to inject
+	 * @param bridgePath
+	 *            path of the ormma bridge script
+	 * @param ormmaPath
+	 *            path of the ormma script
+	 * @return the html document
+	 */
+	public String wrap(String data, String injection, String bridgePath,
+			String ormmaPath) {
+		return mAssetController.wrap(data, injection, bridgePath, ormmaPath);
+	}
+
+	/**
+	 * Get the base url of locally stored assets.
+	 * 
+	 * @return file url of the asset directory
+	 */
+	public String getAssetPath() {
+		return mAssetController.getAssetPath();
+	}
+
 	/**
 	 * Activate a listener
 	 * 
@@ -559,6 +586,13 @@ public class OrmmaUtilityController extends OrmmaController {
 		mAssetController.deleteOldAds(localPath);
 	}
 
+	/**
+	 * Mark an ad as displayed.
+	 */
+	public void pinAd(String localPath) {
+		mAssetController.pinAd(localPath);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
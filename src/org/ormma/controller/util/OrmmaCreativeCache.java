@@ -0,0 +1,444 @@
+/*  Copyright (c) 2011 The ORMMA.org project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+package org.ormma.controller.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import de.guj.ems.mobile.sdk.R;
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+import de.guj.ems.mobile.sdk.util.SdkLog;
+
+/**
+ * Content addressed disk cache for wrapped creatives.
+ *
+ * Every creative is stored in a directory named after the MD5 hash of its
+ * content below the "ad" directory. When the same creative is served again,
+ * the stored copy is reused. The cache keeps a journal with size and last
+ * access of every entry and evicts least recently used entries when its
+ * configured size (ems_creative_cache_max_bytes) is exceeded. Creatives
+ * displayed by a view are pinned and not evicted until released. The cache
+ * directory is indexed in the background, so getInstance() may be called from
+ * the main thread.
+ */
+public class OrmmaCreativeCache {
+
+	private static final String SdkLog_TAG = "OrmmaCreativeCache";
+
+	private static final String AD_DIR = "ad";
+
+	private static final String JOURNAL = ".journal";
+
+	private static final String SEPARATOR = "\t";
+
+	private static OrmmaCreativeCache instance;
+
+	private final File root;
+
+	private final long maxSize;
+
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(
+			16, 0.75f, true);
+
+	private long size = 0;
+
+	private boolean persistScheduled = false;
+
+	private boolean loaded = false;
+
+	private int clears = 0;
+
+	/**
+	 * Get the creative cache of the application
+	 *
+	 * @param c
+	 *            android context
+	 * @return the creative cache
+	 */
+	public static synchronized OrmmaCreativeCache getInstance(Context c) {
+		if (instance == null) {
+			instance = new OrmmaCreativeCache(c.getApplicationContext());
+		}
+		return instance;
+	}
+
+	private OrmmaCreativeCache(Context c) {
+		this.root = new File(c.getFilesDir(), AD_DIR);
+		this.maxSize = c.getResources().getInteger(
+				R.integer.ems_creative_cache_max_bytes);
+		// the directory is indexed in the background, creatives stored
+		// meanwhile are merged into the index
+		SdkExecutor.execute(SdkExecutor.Lane.ASSET, new Runnable() {
+			@Override
+			public void run() {
+				load();
+			}
+		});
+	}
+
+	/**
+	 * Find a cached creative
+	 *
+	 * @param key
+	 *            content hash of the creative
+	 * @param file
+	 *            file name of the creative
+	 * @return path of the entry directory (with trailing separator) or null
+	 *         if the creative is not cached
+	 */
+	public synchronized String get(String key, String file) {
+		CacheEntry e = entries.get(key);
+		if (e != null) {
+			File dir = new File(root, key);
+			if (new File(dir, file).exists()) {
+				e.lastAccess = System.currentTimeMillis();
+				dir.setLastModified(e.lastAccess);
+				schedulePersist();
+				SdkLog.d(SdkLog_TAG, "Cache hit for creative " + key);
+				return dir.getPath() + File.separator;
+			}
+			remove(key);
+		}
+		return null;
+	}
+
+	/**
+	 * Move a freshly written creative into the cache
+	 *
+	 * @param key
+	 *            content hash of the creative
+	 * @param f
+	 *            the written creative, which is deleted if an identical
+	 *            creative is already cached
+	 * @return path of the entry directory (with trailing separator)
+	 */
+	public synchronized String put(String key, File f) {
+		return put(key, f, f.getName());
+	}
+
+	/**
+	 * Move a freshly written creative into the cache under a different name
+	 *
+	 * @param key
+	 *            content hash of the creative
+	 * @param f
+	 *            the written (temporary) creative, which is deleted if an
+	 *            identical creative is already cached
+	 * @param name
+	 *            file name of the creative within the cache entry
+	 * @return path of the entry directory (with trailing separator)
+	 */
+	public synchronized String put(String key, File f, String name) {
+		String cached = get(key, name);
+		if (cached != null) {
+			f.delete();
+			return cached;
+		}
+		File dir = new File(root, key);
+		dir.mkdirs();
+		File target = new File(dir, name);
+		if (!f.renameTo(target)) {
+			SdkLog.w(SdkLog_TAG, "Could not move creative to " + target);
+		}
+		CacheEntry e = new CacheEntry(sizeOf(dir),
+				System.currentTimeMillis());
+		entries.put(key, e);
+		size += e.size;
+		trim(key);
+		schedulePersist();
+		return dir.getPath() + File.separator;
+	}
+
+	/**
+	 * Remove least recently used creatives until the cache fits its maximum
+	 * size
+	 */
+	public synchronized void trim() {
+		trim(null);
+	}
+
+	/**
+	 * Protect a cached creative from eviction while it is displayed. Every
+	 * call must be matched by a call to release(path).
+	 *
+	 * @param path
+	 *            path of the creative directory
+	 */
+	public synchronized void pin(String path) {
+		CacheEntry e = getEntry(path);
+		if (e != null) {
+			e.pins++;
+		}
+	}
+
+	/**
+	 * Release a creative pinned via pin(path) and remove least recently used
+	 * creatives until the cache fits its maximum size
+	 *
+	 * @param path
+	 *            path of the creative directory
+	 */
+	public synchronized void release(String path) {
+		CacheEntry e = getEntry(path);
+		if (e != null && e.pins > 0) {
+			e.pins--;
+		}
+		trim(null);
+	}
+
+	/**
+	 * Determine whether a path belongs to a cached creative
+	 *
+	 * @param path
+	 *            path of a creative directory
+	 * @return true if the directory is managed by the cache
+	 */
+	public synchronized boolean contains(String path) {
+		// creatives are never deleted while the directory is not indexed
+		return getEntry(path) != null
+				|| (!loaded && root.equals(new File(path).getParentFile()));
+	}
+
+	/**
+	 * Remove all cached creatives
+	 */
+	public synchronized void clear() {
+		clears++;
+		entries.clear();
+		size = 0;
+		deleteDirectory(root);
+		root.mkdirs();
+	}
+
+	/**
+	 * Number of bytes used by cached creatives
+	 *
+	 * @return size of the cache in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Maximum number of bytes used by cached creatives
+	 *
+	 * @return maximum size of the cache in bytes
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	private CacheEntry getEntry(String path) {
+		File dir = new File(path);
+		return root.equals(dir.getParentFile()) ? entries.get(dir.getName())
+				: null;
+	}
+
+	private void trim(String keep) {
+		Iterator<Map.Entry<String, CacheEntry>> i = entries.entrySet()
+				.iterator();
+		while (size > maxSize && i.hasNext()) {
+			Map.Entry<String, CacheEntry> eldest = i.next();
+			if (!eldest.getKey().equals(keep) && eldest.getValue().pins == 0) {
+				i.remove();
+				size -= eldest.getValue().size;
+				deleteDirectory(new File(root, eldest.getKey()));
+				SdkLog.d(SdkLog_TAG, "Evicted creative " + eldest.getKey());
+			}
+		}
+	}
+
+	private void remove(String key) {
+		CacheEntry e = entries.remove(key);
+		if (e != null) {
+			size -= e.size;
+		}
+		deleteDirectory(new File(root, key));
+	}
+
+	private void schedulePersist() {
+		// the journal is read by load()
+		if (loaded && !persistScheduled) {
+			persistScheduled = true;
+			SdkExecutor.execute(SdkExecutor.Lane.ASSET, new Runnable() {
+				@Override
+				public void run() {
+					persist();
+				}
+			});
+		}
+	}
+
+	private void persist() {
+		StringBuilder sb = new StringBuilder();
+		synchronized (this) {
+			persistScheduled = false;
+			Iterator<Map.Entry<String, CacheEntry>> i = entries
+					.entrySet().iterator();
+			while (i.hasNext()) {
+				Map.Entry<String, CacheEntry> e = i.next();
+				sb.append(e.getKey()).append(SEPARATOR)
+						.append(e.getValue().size).append(SEPARATOR)
+						.append(e.getValue().lastAccess).append('\n');
+			}
+		}
+		BufferedWriter out = null;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(new File(root, JOURNAL)), "utf-8"));
+			out.write(sb.toString());
+		} catch (IOException e) {
+			SdkLog.e(SdkLog_TAG, "Error writing creative cache journal.", e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private void load() {
+		root.mkdirs();
+		int generation;
+		synchronized (this) {
+			generation = clears;
+		}
+		LinkedHashMap<String, CacheEntry> found = new LinkedHashMap<String, CacheEntry>();
+		List<String[]> lines = new ArrayList<String[]>();
+		File journal = new File(root, JOURNAL);
+		if (journal.exists()) {
+			BufferedReader in = null;
+			try {
+				in = new BufferedReader(new InputStreamReader(
+						new FileInputStream(journal), "utf-8"));
+				String line = null;
+				while ((line = in.readLine()) != null) {
+					String[] l = line.split(SEPARATOR);
+					if (l.length == 3) {
+						lines.add(l);
+					}
+				}
+			} catch (IOException e) {
+				SdkLog.e(SdkLog_TAG, "Error reading creative cache journal.", e);
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (IOException e) {
+						// ignore
+					}
+				}
+			}
+		}
+		// the journal is ordered least recently used first
+		for (String[] l : lines) {
+			if (new File(root, l[0]).isDirectory()) {
+				try {
+					found.put(l[0], new CacheEntry(Long.parseLong(l[1]),
+							Long.parseLong(l[2])));
+				} catch (NumberFormatException ex) {
+					SdkLog.w(SdkLog_TAG, "Skipping corrupt journal line.");
+				}
+			}
+		}
+		// adopt directories missing in the journal, oldest first
+		File[] dirs = root.listFiles();
+		if (dirs != null) {
+			Arrays.sort(dirs, new Comparator<File>() {
+				@Override
+				public int compare(File f1, File f2) {
+					Long d1 = f1.lastModified();
+					Long d2 = f2.lastModified();
+					return d1.compareTo(d2);
+				}
+			});
+			for (File dir : dirs) {
+				if (dir.isDirectory() && !found.containsKey(dir.getName())) {
+					found.put(dir.getName(), new CacheEntry(sizeOf(dir),
+							dir.lastModified()));
+				}
+			}
+		}
+		synchronized (this) {
+			if (generation == clears) {
+				// creatives stored meanwhile are the most recently used
+				for (Map.Entry<String, CacheEntry> e : entries.entrySet()) {
+					found.remove(e.getKey());
+					found.put(e.getKey(), e.getValue());
+				}
+				entries.clear();
+				size = 0;
+				for (Map.Entry<String, CacheEntry> e : found.entrySet()) {
+					entries.put(e.getKey(), e.getValue());
+					size += e.getValue().size;
+				}
+			}
+			loaded = true;
+			SdkLog.d(SdkLog_TAG, entries.size() + " cached creatives [" + size
+					+ " of " + maxSize + " bytes]");
+			trim(null);
+			schedulePersist();
+		}
+	}
+
+	private static long sizeOf(File f) {
+		if (f.isDirectory()) {
+			long s = 0;
+			File[] files = f.listFiles();
+			for (int i = 0; files != null && i < files.length; i++) {
+				s += sizeOf(files[i]);
+			}
+			return s;
+		}
+		return f.length();
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].isDirectory()) {
+				deleteDirectory(files[i]);
+			} else {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static final class CacheEntry {
+
+		private final long size;
+
+		private long lastAccess;
+
+		private int pins;
+
+		private CacheEntry(long size, long lastAccess) {
+			this.size = size;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+}
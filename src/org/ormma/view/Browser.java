@@ -27,6 +27,7 @@ import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
 import de.guj.ems.mobile.sdk.R;
+import de.guj.ems.mobile.sdk.util.WebViewPool;
 
 /**
  * Activity for implementing Ormma open calls. Configurable via the following
@@ -51,6 +52,8 @@ public class Browser extends Activity {
 	private static final int ForwardId = 102;
 	private static final int BackwardId = 103;
 
+	private WebView webview;
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -63,7 +66,7 @@ public class Browser extends Activity {
 
 		// Build the layout
 		RelativeLayout rl = new RelativeLayout(Browser.this);
-		WebView webview = new WebView(Browser.this);
+		webview = WebViewPool.getInstance().obtain(Browser.this);
 
 		this.getWindow().requestFeature(Window.FEATURE_PROGRESS);
 		getWindow().setFeatureInt(Window.FEATURE_PROGRESS,
@@ -193,7 +196,7 @@ public class Browser extends Activity {
 			@Override
 			public void onReceivedError(WebView view, int errorCode,
 					String description, String failingUrl) {
-				Activity a = (Activity) view.getContext();
+				Activity a = Browser.this;
 				Toast.makeText(a, "Ormma Error:" + description,
 						Toast.LENGTH_SHORT).show();
 			}
@@ -276,7 +279,8 @@ public class Browser extends Activity {
 			@Override
 			public void onProgressChanged(WebView view, int progress) {
 				// show progress bar while loading, url when loaded
-				Activity a = (Activity) view.getContext();
+				// (pooled webviews wrap the activity context)
+				Activity a = Browser.this;
 				if (orgTitle == null) {
 					orgTitle = a.getTitle().toString();
 				}
@@ -313,4 +317,16 @@ public class Browser extends Activity {
 		CookieSyncManager.getInstance().startSync();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see android.app.Activity#onDestroy()
+	 */
+	@Override
+	protected void onDestroy() {
+		WebViewPool.getInstance().release(webview);
+		webview = null;
+		super.onDestroy();
+	}
+
 }
@@ -30,6 +30,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.concurrent.Future;
 
 import org.ormma.controller.OrmmaController.Dimensions;
 import org.ormma.controller.OrmmaController.PlayerProperties;
@@ -70,8 +71,13 @@ import android.widget.FrameLayout;
 import android.widget.ScrollView;
 import android.widget.Toast;
 import android.widget.VideoView;
+import de.guj.ems.mobile.sdk.R;
+import de.guj.ems.mobile.sdk.util.BridgeScripts;
+import de.guj.ems.mobile.sdk.util.SdkExecutor;
+import de.guj.ems.mobile.sdk.util.SdkHttpClient;
 import de.guj.ems.mobile.sdk.util.SdkLog;
 import de.guj.ems.mobile.sdk.util.SdkUtil;
+import de.guj.ems.mobile.sdk.util.ViewabilityTracker;
 
 /*
  import com.google.android.maps.MapActivity;
@@ -372,6 +378,7 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 	private static final String CURRENT_FILE = "_ormma_current";
 
 	private static final String AD_PATH = "AD_PATH";
+	private static final String AD_DATA = "AD_DATA";
 	private static final String ERROR_MESSAGE = "message";
 	private static final String ERROR_ACTION = "action";
 	// layout constants
@@ -425,6 +432,12 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 	// (back to the parent)
 	// public String mDataToInject = null; // javascript to inject into the view
 	private String mLocalFilePath; // local path the the ad html
+	private boolean mLocalFileInUse; // local path pinned in the cache
+	private Future<?> mLoadTask; // background load of a url or file
+	private int mLoadGeneration; // incremented when a load is canceled
+	private String mInMemoryData; // ad html if it was not written to disk
+	private boolean bRenderInMemory /* = false */; // load ads without writing
+	// them to disk
 
 	// URL Protocols registered by the client.
 	// if such a protocol is encountered then
@@ -460,6 +473,27 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 
 	private Handler mHandler = new OrmmaHandler(this);
 
+	/**
+	 * Passes viewability changes to the bridge
+	 */
+	private final ViewabilityTracker.Listener mViewabilityListener = new ViewabilityTracker.Listener() {
+		@Override
+		public void onViewableChange(View view, boolean viewable) {
+			injectJavaScript("window.ormmaview.fireChangeEvent({ viewable: "
+					+ viewable + " });");
+			OrmmaView.this.onViewableChange(viewable);
+		}
+
+		@Override
+		public void onViewableImpression(View view) {
+			String url = getUrl();
+			// ignore blank pages of cleared views
+			if (url != null && !url.startsWith("about:")) {
+				OrmmaView.this.onViewableImpression();
+			}
+		}
+	};
+
 	/**
 	 * The webview client used for trapping certain events
 	 */
@@ -474,6 +508,8 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 			super.onPageFinished(view, url);
 			bPageFinished = true;
 			view.setVisibility(View.VISIBLE);
+			// the new page's bridge starts out not viewable
+			ViewabilityTracker.getInstance().reset(OrmmaView.this);
 		}
 
 		@Override
@@ -961,6 +997,8 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 					new ScrollEater());
 			mUtilityController = new OrmmaUtilityController(this,
 					this.getContext());
+			bRenderInMemory = getResources().getBoolean(
+					R.bool.ems_render_in_memory);
 
 		}
 		setScrollContainer(false);
@@ -1059,9 +1097,15 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 		if (mTimeOutRunnable == null) {
 			mTimeOutRunnable = new TimeOutRunnable();
 		}
+		if (isRenderedInMemory(data)) {
+			loadInMemory(mUtilityController.wrap(data, null,
+					mBridgeScriptPath, mScriptPath));
+			return;
+		}
+		mInMemoryData = null;
 		try {
-			mLocalFilePath = mUtilityController.writeToDiskWrap(data,
-					CURRENT_FILE, true, null, mBridgeScriptPath, mScriptPath);
+			setLocalFilePath(mUtilityController.writeToDiskWrap(data,
+					CURRENT_FILE, true, null, mBridgeScriptPath, mScriptPath));
 			url = "file://" + mLocalFilePath + java.io.File.separator
 					+ CURRENT_FILE;
 			mTimeOutHandler = new Handler();
@@ -1076,6 +1120,35 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 		} 
 	}
 
+	/**
+	 * Determine whether ad data can be displayed without writing it to disk.
+	 * Creatives using ormma assets are always stored on disk.
+	 * 
+	 * @param data
+	 *            raw data as string
+	 * @return true if the data can be loaded from memory
+	 */
+	private boolean isRenderedInMemory(String data) {
+		return bRenderInMemory && mBridgeScriptPath != null
+				&& mScriptPath != null && data.indexOf("addAsset") < 0;
+	}
+
+	/**
+	 * Load a wrapped ormma document from memory. Scripts and assets are
+	 * resolved against the local asset directory.
+	 * 
+	 * @param html
+	 *            the wrapped document
+	 */
+	private void loadInMemory(String html) {
+		setLocalFilePath(null);
+		mInMemoryData = html;
+		mTimeOutHandler = new Handler();
+		mTimeOutHandler.postDelayed(mTimeOutRunnable, 10000);
+		super.loadDataWithBaseURL(mUtilityController.getAssetPath(), html,
+				"text/html", "utf-8", null);
+	}
+
 	/**
 	 * Load view from html in a local file
 	 * 
@@ -1085,43 +1158,116 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 	 *            any additional javascript to inject
 	 */
 	public void loadFile(File f, String dataToInject) {
-		try {
-			// mDataToInject = dataToInject;
-			loadInputStream(new FileInputStream(f), dataToInject);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		// mDataToInject = dataToInject;
+		loadInBackground(null, f, dataToInject);
 	}
 
 	/**
-	 * Loads the view from an input stream. Does the real loading work
+	 * Loads the view from a url or file in a background thread. The content
+	 * is read and wrapped off the ui thread, the wrapped file is loaded on
+	 * the ui thread. A load still running is canceled.
 	 * 
-	 * @param is
-	 *            the input stream
+	 * @param url
+	 *            the url to load or null
+	 * @param f
+	 *            the file to load if url is null
 	 * @param dataToInject
 	 *            the data to inject
 	 */
-	private void loadInputStream(InputStream is, String dataToInject) {
-		String url;
+	private void loadInBackground(final String url, final File f,
+			final String dataToInject) {
+		cancelLoad();
 		reset();
+		mInMemoryData = null;
+		bPageFinished = false;
 		if (mTimeOutRunnable != null) {
 			mTimeOutRunnable.cancel();
 		}
 		mTimeOutRunnable = new TimeOutRunnable();
+		final int generation = mLoadGeneration;
+		final String bridgePath = mBridgeScriptPath;
+		final String scriptPath = mScriptPath;
+		mLoadTask = SdkExecutor.execute(SdkExecutor.Lane.ASSET,
+				new Runnable() {
+					@Override
+					public void run() {
+						final String path = loadInputStream(url, f,
+								dataToInject, bridgePath, scriptPath);
+						if (path == null) {
+							return;
+						}
+						mHandler.post(new Runnable() {
+							@Override
+							public void run() {
+								if (generation != mLoadGeneration) {
+									SdkLog.d(SdkLog_TAG,
+											"Discarding canceled load of "
+													+ path);
+									return;
+								}
+								mLoadTask = null;
+								setLocalFilePath(path);
+								mTimeOutHandler = new Handler();
+								mTimeOutHandler.postDelayed(mTimeOutRunnable,
+										5000);
+								if (dataToInject != null) {
+									injectJavaScript(dataToInject);
+								}
+								OrmmaView.super.loadUrl("file://" + path
+										+ java.io.File.separator
+										+ CURRENT_FILE);
+							}
+						});
+					}
+				});
+	}
 
+	/**
+	 * Cancel a load running in the background
+	 */
+	private void cancelLoad() {
+		mLoadGeneration++;
+		if (mLoadTask != null) {
+			mLoadTask.cancel(true);
+			mLoadTask = null;
+		}
+	}
+
+	/**
+	 * Reads and wraps a url or file. Does the real loading work and must not
+	 * be called from the ui thread.
+	 * 
+	 * @param url
+	 *            the url to load or null
+	 * @param f
+	 *            the file to load if url is null
+	 * @param dataToInject
+	 *            the data to inject
+	 * @return local path of the wrapped file or null if loading failed
+	 */
+	private String loadInputStream(String url, File f, String dataToInject,
+			String bridgePath, String scriptPath) {
+		InputStream is = null;
+		SdkHttpClient.Response response = null;
 		try {
-			mLocalFilePath = mUtilityController.writeToDiskWrap(is,
-					CURRENT_FILE, true, dataToInject, mBridgeScriptPath,
-					mScriptPath);
-			url = "file://" + mLocalFilePath + java.io.File.separator
-					+ CURRENT_FILE;
-			mTimeOutHandler = new Handler();
-			mTimeOutHandler.postDelayed(mTimeOutRunnable, 5000);
-			if (dataToInject != null) {
-				injectJavaScript(dataToInject);
+			if (f != null) {
+				is = new FileInputStream(f);
+			} else if (url.startsWith("file:///android_asset/")) {
+				// if it is in the asset directory use the assetmanager
+				AssetManager am = getContext().getAssets();
+				is = am.open(url.replace("file:///android_asset/", ""));
+			} else if (URLUtil.isNetworkUrl(url)) {
+				response = SdkHttpClient.get(url);
+				if (response.getStatusCode() != 200) {
+					throw new IOException("Server returned HTTP "
+							+ response.getStatusCode());
+				}
+				is = response.getInputStream();
+			} else {
+				is = new URL(url).openStream();
 			}
-
-			super.loadUrl(url);
+			return mUtilityController.writeToDiskWrap(is, CURRENT_FILE, true,
+					dataToInject, bridgePath, scriptPath);
 		} catch (IllegalStateException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -1135,8 +1281,12 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 					// TODO: handle exception
 				}
 			}
+			if (response != null) {
+				response.close();
+			}
 			is = null;
 		}
+		return null;
 	}
 
 	/*
@@ -1160,27 +1310,14 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 	public void loadUrl(String url, boolean dontLoad, String dataToInject) {
 		// mDataToInject = dataToInject;
 		if (URLUtil.isValidUrl(url)) {
-			if (!dontLoad) {
-				InputStream is = null;
-				bPageFinished = false;
+			// javascript:, about: and data: urls are handled by the webview
+			if (!dontLoad
+					&& (URLUtil.isNetworkUrl(url) || URLUtil.isFileUrl(url))) {
 				try {
-					URL u = new URL(url);
-					String name = u.getFile();
-					// if it is in the asset directory use the assetmanager
-					if (url.startsWith("file:///android_asset/")) {
-						name = url.replace("file:///android_asset/", "");
-						AssetManager am = getContext().getAssets();
-						is = am.open(name);
-					} else {
-						is = u.openStream();
-					}
-					loadInputStream(is, dataToInject);
+					new URL(url);
+					loadInBackground(url, null, dataToInject);
 					return;
-
 				} catch (MalformedURLException e) {
-				} catch (IOException e) {
-					e.printStackTrace();
-					return;
 				}
 			}
 			super.loadUrl(url);
@@ -1216,16 +1353,43 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 			lp.height = ViewGroup.LayoutParams.WRAP_CONTENT;
 			setLayoutParams(lp);
 		}
+		if (!isInEditMode()) {
+			ViewabilityTracker.getInstance().register(this,
+					mViewabilityListener);
+		}
 	}
 
 	@Override
 	protected void onDetachedFromWindow() {
 		super.onDetachedFromWindow();
-		if (mLocalFilePath != null && mLocalFilePath.length() > 1) {
-			mUtilityController.deleteOldAds(mLocalFilePath);
-		}
+		cancelLoad();
+		releaseLocalFile();
 		mUtilityController.stopAllListeners();
 		stopLoading();
+		ViewabilityTracker.getInstance().unregister(this);
+	}
+
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		super.onWindowVisibilityChanged(visibility);
+		ViewabilityTracker.getInstance().update();
+	}
+
+	/**
+	 * Called when the view scrolled on or off screen
+	 * 
+	 * @param viewable
+	 *            true if any part of the view is on screen
+	 */
+	protected void onViewableChange(boolean viewable) {
+	}
+
+	/**
+	 * Called once per ad when at least half of the view was visible for one
+	 * second
+	 */
+	protected void onViewableImpression() {
+		SdkLog.i(SdkLog_TAG, "Viewable impression.");
 	}
 
 	// trap keyboard state and view height/width
@@ -1579,13 +1743,38 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 			closeResized();
 		}
 		invalidate();
-		if (mLocalFilePath != null && mLocalFilePath.length() > 1) {
-			mUtilityController.deleteOldAds(mLocalFilePath);
-		}
+		releaseLocalFile();
 		mUtilityController.stopAllListeners();
 		resetLayout();
 	}
 
+	/**
+	 * Set the local directory of the displayed ad. The new directory is
+	 * pinned in the creative cache before the previous one is released, so
+	 * that cached creatives in use are not evicted.
+	 * 
+	 * @param path
+	 *            local directory of the ad or null
+	 */
+	private void setLocalFilePath(String path) {
+		if (path != null && path.length() > 1) {
+			mUtilityController.pinAd(path);
+		}
+		releaseLocalFile();
+		mLocalFilePath = path;
+		mLocalFileInUse = path != null && path.length() > 1;
+	}
+
+	/**
+	 * Release the local directory of the displayed ad once
+	 */
+	private void releaseLocalFile() {
+		if (mLocalFileInUse) {
+			mLocalFileInUse = false;
+			mUtilityController.deleteOldAds(mLocalFilePath);
+		}
+	}
+
 	/**
 	 * Revert to earlier ad state
 	 */
@@ -1666,7 +1855,16 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 	@Override
 	public WebBackForwardList restoreState(Bundle savedInstanceState) {
 
-		mLocalFilePath = savedInstanceState.getString(AD_PATH);
+		setLocalFilePath(savedInstanceState.getString(AD_PATH));
+
+		String data = savedInstanceState.getString(AD_DATA);
+		if (mLocalFilePath == null && data != null) {
+			if (mTimeOutRunnable == null) {
+				mTimeOutRunnable = new TimeOutRunnable();
+			}
+			loadInMemory(data);
+			return null;
+		}
 
 		String url = "file://" + mLocalFilePath + java.io.File.separator
 				+ CURRENT_FILE;
@@ -1683,6 +1881,7 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 	@Override
 	public WebBackForwardList saveState(Bundle outState) {
 		outState.putString(AD_PATH, mLocalFilePath);
+		outState.putString(AD_DATA, mInMemoryData);
 		return null;
 	}
 
@@ -1713,16 +1912,16 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 	};
 
 	/**
-	 * Sets the script path.
+	 * Sets the script path. The scripts are extracted once per sdk version
+	 * and injected inline, the paths are used for creatives referencing them.
 	 */
 	private synchronized void setScriptPath() {
+		BridgeScripts scripts = BridgeScripts.getInstance(getContext());
 		if (mScriptPath == null) {
-			mScriptPath = mUtilityController.copyTextFromJarIntoAssetDir(
-					"/js/ormma.js", "js/ormma.js");
+			mScriptPath = scripts.getPath(BridgeScripts.ORMMA);
 		}
 		if (mBridgeScriptPath == null) {
-			mBridgeScriptPath = mUtilityController.copyTextFromJarIntoAssetDir(
-					"/js/ormma_bridge.js", "js/ormma_bridge.js");
+			mBridgeScriptPath = scripts.getPath(BridgeScripts.ORMMA_BRIDGE);
 		}
 	}
 
@@ -1748,9 +1947,8 @@ public class OrmmaView extends WebView implements OnGlobalLayoutListener {
 	public void dispatchWindowVisibilityChanged(int v) {
 		super.dispatchWindowVisibilityChanged(v);
 		if (v == View.GONE) {
-			if (mLocalFilePath != null && mLocalFilePath.length() > 1) {
-				mUtilityController.deleteOldAds(mLocalFilePath);
-			}
+			// the ad is still displayed once the window is shown again, its
+			// files are released on detach or when it is replaced
 			mUtilityController.stopAllListeners();
 		}
 	}